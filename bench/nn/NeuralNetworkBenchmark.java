@@ -0,0 +1,129 @@
+package nn;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 一つのサンプルの前向き・逆向き伝播のベンチマーク
+ * single-sample feedForward, backPropagate and calculateError throughput, and
+ * inference through predict and an int8 {@link QuantizedNetwork}
+ *
+ * Run with {@code -prof gc} to report the allocation rate alongside ops/s.
+ *
+ * @author kenneth cason
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class NeuralNetworkBenchmark {
+
+	/**
+	 * ネットの形: input-center...-output node counts, one width per center layer.
+	 */
+	@Param({"2-20-1", "1300-15-15-8", "784-256-256-10", "1300-256-64-8"})
+	public String shape;
+
+	@Param({"false", "true"})
+	public boolean bias;
+
+	@Param({"SIGMOID", "FAST_SIGMOID"})
+	public Activations activation;
+
+	private NeuralNetwork nn;
+
+	private double[] input;
+
+	private double[] teacherSignal;
+
+	private Workspace workspace;
+
+	private QuantizedNetwork quantized;
+
+	@Setup
+	public void setup() {
+		NeuralNetworkConfig config = config(shape, bias);
+		config.activation = activation;
+		nn = new NeuralNetwork(config);
+		Random rand = new Random(config.seed);
+		input = randomRow(rand, config.numInputNodes);
+		teacherSignal = randomRow(rand, config.numOutputNodes);
+		nn.setInputs(input);
+		nn.setTeacherSignals(teacherSignal);
+		nn.feedForward();
+		workspace = new Workspace(nn);
+		double[][] calibrationInputs = new double[16][];
+		for (int i = 0; i < calibrationInputs.length; i++) {
+			calibrationInputs[i] = randomRow(rand, config.numInputNodes);
+		}
+		quantized = Quantizer.quantize(nn, calibrationInputs);
+	}
+
+	@Benchmark
+	public double feedForward() {
+		nn.clearAllValues();
+		nn.setInputs(input);
+		nn.feedForward();
+		return nn.getOutput(0);
+	}
+
+	@Benchmark
+	public void backPropagate() {
+		nn.backPropagate();
+	}
+
+	@Benchmark
+	public double calculateError() {
+		return nn.calculateError();
+	}
+
+	@Benchmark
+	public double predict() {
+		return nn.predict(input, workspace)[0];
+	}
+
+	@Benchmark
+	public double quantizedPredict() {
+		return quantized.predict(input)[0];
+	}
+
+	/**
+	 * "input-center-...-output" の形から設定を作る: build a config from a shape string
+	 */
+	static NeuralNetworkConfig config(String shape, boolean bias) {
+		String[] parts = shape.split("-");
+		int[] sizes = new int[parts.length];
+		for (int l = 0; l < parts.length; l++) {
+			sizes[l] = Integer.parseInt(parts[l]);
+		}
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.setLayerSizes(sizes);
+		config.bias = bias;
+		config.learningRate = 0.1;
+		config.seed = 42;
+		return config;
+	}
+
+	static double[] randomRow(Random rand, int length) {
+		double[] row = new double[length];
+		for (int i = 0; i < length; i++) {
+			row[i] = rand.nextDouble();
+		}
+		return row;
+	}
+
+}
@@ -0,0 +1,128 @@
+package nn;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 学習のベンチマーク: full training epoch throughput
+ *
+ * Each invocation trains one epoch over {@value #NUM_SAMPLES} samples; the
+ * reported score is in samples per second. Run with {@code -prof gc} to report
+ * the allocation rate alongside.
+ *
+ * @author kenneth cason
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class TrainingBenchmark {
+
+	static final int NUM_SAMPLES = 64;
+
+	@Param({"2-20-1", "1300-15-15-8", "784-256-256-10", "1300-256-64-8"})
+	public String shape;
+
+	@Param({"false", "true"})
+	public boolean bias;
+
+	@Param({"16"})
+	public int batchSize;
+
+	@Param({"DOUBLE", "FLOAT", "MIXED"})
+	public Precision precision;
+
+	private NeuralNetwork nn;
+
+	private ParallelTrainer parallelTrainer;
+
+	private double[][] trainData;
+
+	private double[][] teacherSignals;
+
+	private double[][][] batchData;
+
+	private double[][][] batchTeacherSignals;
+
+	@Setup
+	public void setup() {
+		NeuralNetworkConfig config = NeuralNetworkBenchmark.config(shape, bias);
+		config.precision = precision;
+		nn = new NeuralNetwork(config);
+		parallelTrainer = new ParallelTrainer(nn);
+		Random rand = new Random(config.seed);
+		trainData = new double[NUM_SAMPLES][];
+		teacherSignals = new double[NUM_SAMPLES][];
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			trainData[i] = NeuralNetworkBenchmark.randomRow(rand, config.numInputNodes);
+			teacherSignals[i] = NeuralNetworkBenchmark.randomRow(rand, config.numOutputNodes);
+		}
+		int numBatches = NUM_SAMPLES / batchSize;
+		batchData = new double[numBatches][batchSize][];
+		batchTeacherSignals = new double[numBatches][batchSize][];
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			batchData[i / batchSize][i % batchSize] = trainData[i];
+			batchTeacherSignals[i / batchSize][i % batchSize] = teacherSignals[i];
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		parallelTrainer.shutdown();
+	}
+
+	/**
+	 * 一つずつ学習する: the per-sample setInputs, feedForward, calculateError, backPropagate loop
+	 */
+	@Benchmark
+	@OperationsPerInvocation(NUM_SAMPLES)
+	public double perSampleEpoch() {
+		double error = 0;
+		for (int i = 0; i < NUM_SAMPLES; i++) {
+			nn.setInputs(trainData[i]);
+			nn.setTeacherSignals(teacherSignals[i]);
+			nn.feedForward();
+			error += nn.calculateError();
+			nn.backPropagate();
+			nn.clearAllValues();
+		}
+		return error;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SAMPLES)
+	public double batchEpoch() {
+		double error = 0;
+		for (int b = 0; b < batchData.length; b++) {
+			error += nn.trainBatch(batchData[b], batchTeacherSignals[b]);
+		}
+		return error;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_SAMPLES)
+	public double parallelBatchEpoch() {
+		double error = 0;
+		for (int b = 0; b < batchData.length; b++) {
+			error += parallelTrainer.trainBatch(batchData[b], batchTeacherSignals[b]);
+		}
+		return error;
+	}
+
+}
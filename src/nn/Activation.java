@@ -0,0 +1,32 @@
+package nn;
+
+/**
+ * 活性化関数: the function a layer applies to its neurons' sums
+ *
+ * Both methods work on one layer's row of neurons at a time, so functions
+ * over the whole row, like softmax, fit the same interface as elementwise ones.
+ * The built-in functions are the constants of {@link Activations}; only those
+ * can be saved by {@link NeuralNetworkIO}.
+ *
+ * @author kenneth cason
+ */
+public interface Activation {
+
+	/**
+	 * 活性化: values[offset + i] = f(values[offset + i]) over one row of length neurons
+	 */
+	void apply(double[] values, int offset, int length);
+
+	void apply(float[] values, int offset, int length);
+
+	/**
+	 * 微分を掛ける
+	 * back-propagate through the function: given the row's outputs in values
+	 * and the error with respect to those outputs in errors, replace errors by
+	 * the error with respect to the sums, errors = f'(sums)^T errors
+	 */
+	void derivative(double[] values, double[] errors, int offset, int length);
+
+	void derivative(float[] values, float[] errors, int offset, int length);
+
+}
@@ -0,0 +1,159 @@
+package nn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * バッチ推論: coalesces concurrent single-sample predictions into batches
+ *
+ * Callers submit one input at a time from any thread. A dispatcher thread
+ * collects the pending inputs until either {@code maxBatchSize} of them are
+ * waiting or {@code maxWait} has passed since the first one arrived, runs them
+ * through the network as one matrix-matrix forward pass and completes each
+ * caller's future with its own outputs.
+ *
+ * Like {@link NeuralNetwork#predict(double[])}, this must not run concurrently
+ * with training the same network.
+ *
+ * @author kenneth cason
+ */
+public class BatchingPredictor {
+
+	private final NeuralNetwork network;
+
+	private final int maxBatchSize;
+
+	private final long maxWaitNanos;
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+	private final Thread dispatcher;
+
+	private volatile boolean running = true;
+
+	/**
+	 * @param network 学習済みのニューラルネット: a trained network
+	 * @param maxBatchSize バッチの最大サイズ: the most inputs to run in one forward pass
+	 * @param maxWait 最大待ち時間: how long the first input of a batch may wait for others
+	 */
+	public BatchingPredictor(NeuralNetwork network, int maxBatchSize, long maxWait, TimeUnit unit) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be at least 1: " + maxBatchSize);
+		}
+		this.network = network;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+		this.dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "BatchingPredictor");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * queue one input for prediction
+	 *
+	 * @param input 入力: one value per input node, not modified until the future completes
+	 * @return 出力: completes with a new array holding one value per output node
+	 */
+	public CompletableFuture<double[]> predict(double[] input) {
+		if (input.length != network.getInputLayer().getNumNeurons()) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		if (!running) {
+			throw new RejectedExecutionException("BatchingPredictor has been shut down");
+		}
+		Request request = new Request(input);
+		queue.add(request);
+		if (!running && queue.remove(request)) {
+			// shut down while queueing, the dispatcher may already have drained the queue
+			request.future.completeExceptionally(new RejectedExecutionException("BatchingPredictor has been shut down"));
+		}
+		return request.future;
+	}
+
+	/**
+	 * 予測を止める: stop the dispatcher, failing any predictions still queued
+	 */
+	public void shutdown() {
+		running = false;
+		dispatcher.interrupt();
+	}
+
+	private void dispatch() {
+		Workspace workspace = new Workspace(network, maxBatchSize);
+		List<Request> batch = new ArrayList<Request>(maxBatchSize);
+		try {
+			while (running) {
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while (batch.size() < maxBatchSize) {
+					queue.drainTo(batch, maxBatchSize - batch.size());
+					long remaining = deadline - System.nanoTime();
+					if (batch.size() >= maxBatchSize || remaining <= 0) {
+						break;
+					}
+					Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				run(workspace, batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// shutting down
+		}
+		RejectedExecutionException rejected = new RejectedExecutionException("BatchingPredictor has been shut down");
+		for (Request request : batch) {
+			request.future.completeExceptionally(rejected);
+		}
+		for (Request request = queue.poll(); request != null; request = queue.poll()) {
+			request.future.completeExceptionally(rejected);
+		}
+	}
+
+	private void run(Workspace workspace, List<Request> batch) {
+		int numOutputs = network.getOutputLayer().getNumNeurons();
+		for (int b = 0; b < batch.size(); b++) {
+			workspace.setInput(b, batch.get(b).input);
+		}
+		try {
+			network.feedForward(workspace, batch.size());
+		} catch (RuntimeException e) {
+			for (Request request : batch) {
+				request.future.completeExceptionally(e);
+			}
+			return;
+		}
+		for (int b = 0; b < batch.size(); b++) {
+			batch.get(b).future.complete(workspace.getOutput(b, new double[numOutputs]));
+		}
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	private static class Request {
+
+		final double[] input;
+
+		final CompletableFuture<double[]> future = new CompletableFuture<double[]>();
+
+		Request(double[] input) {
+			this.input = input;
+		}
+
+	}
+
+}
@@ -0,0 +1,461 @@
+package nn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 学習の途中経過: everything {@link Trainer} needs to continue a run exactly where it left off
+ *
+ * A checkpoint holds one epoch boundary of a training run: the network's
+ * weights, bias weights, optimizer state and update counts, the weights of
+ * the best epoch so far, every error fed to the learning rate schedule, and
+ * the shuffle's random state and row order. The optimizer is recorded by its
+ * class and hyperparameters, and a checkpoint only restores into a network
+ * with the same optimizer, layer sizes, precision and bias.
+ *
+ * Capturing copies the network's weights and optimizer state, from its arrays
+ * or its off-heap buffers, into arrays allocated once; the schedule's inputs,
+ * the shuffle and the row order are small and copied afresh each time. The
+ * trainer can therefore take a checkpoint between two epochs and write it on
+ * another thread. The file is written beside its destination, forced to disk
+ * and then renamed over it, and the rename is forced to disk in turn, so even
+ * a power loss leaves either the previous checkpoint or the new one, never a
+ * torn file.
+ *
+ * @author kenneth cason
+ */
+class Checkpoint {
+
+	static final int MAGIC = 0x4E4E434B; // "NNCK"
+
+	static final int VERSION = 2;
+
+	private final int[] sizes; // 各層の神経数: number of neurons per layer
+
+	private final Precision precision;
+
+	private final boolean bias;
+
+	private final int numStates; // 最適化の状態の数: optimizer state arrays per weight
+
+	private final String optimizer; // 最適化手法: the optimizer's class name
+
+	private final double[] optimizerParameters; // 最適化の設定: the optimizer's hyperparameters
+
+	int epoch; // 次の世代: the epoch to train next
+
+	double trainingError; // 学習誤差: the error of the epoch before, NaN before the first
+
+	double learningRate;
+
+	double[] trainingErrors; // 学習率の入力: the error passed to the schedule at each epoch before this one
+
+	int bestEpoch; // 最良の世代: -1 until an epoch has been validated
+
+	double bestError;
+
+	byte[] shuffleState; // 乱数の状態: the serialized shuffle, or null when not shuffling
+
+	Random shuffle; // 乱数: the shuffle read back from a file, or null
+
+	int[] order; // 行の順番: the training rows in their current order, or null when not shuffling
+
+	private final int[] steps;
+
+	private final double[][] weights;
+
+	private final float[][] floatWeights;
+
+	private final double[][] biasWeights;
+
+	private final double[][][] weightStates;
+
+	private final float[][][] floatWeightStates;
+
+	private final double[][][] biasStates;
+
+	private final double[][] bestWeights;
+
+	private final float[][] bestFloatWeights;
+
+	private final double[][] bestBiasWeights;
+
+	/**
+	 * @param network 学習するニューラルネット: the network whose state the checkpoint will hold
+	 */
+	Checkpoint(NeuralNetwork network) {
+		this(network.getConfig().getLayerSizes(), network.getConfig().precision, network.getConfig().bias,
+				optimizer(network).getNumStates(), optimizer(network).getClass().getName(),
+				optimizer(network).getParameters());
+	}
+
+	private Checkpoint(int[] sizes, Precision precision, boolean bias, int numStates, String optimizer,
+			double[] optimizerParameters) {
+		this.sizes = sizes;
+		this.precision = precision;
+		this.bias = bias;
+		this.numStates = numStates;
+		this.optimizer = optimizer;
+		this.optimizerParameters = optimizerParameters;
+		int numWeightLayers = sizes.length - 1;
+		boolean floatStorage = precision.isFloatStorage();
+		steps = new int[numWeightLayers];
+		weights = floatStorage ? null : new double[numWeightLayers][];
+		bestWeights = floatStorage ? null : new double[numWeightLayers][];
+		weightStates = floatStorage ? null : new double[numWeightLayers][][];
+		floatWeights = floatStorage ? new float[numWeightLayers][] : null;
+		bestFloatWeights = floatStorage ? new float[numWeightLayers][] : null;
+		floatWeightStates = floatStorage ? new float[numWeightLayers][][] : null;
+		biasWeights = bias ? new double[numWeightLayers][] : null;
+		bestBiasWeights = bias ? new double[numWeightLayers][] : null;
+		biasStates = new double[numWeightLayers][][];
+		for (int l = 0; l < numWeightLayers; l++) {
+			int numWeights = sizes[l] * sizes[l + 1];
+			if (floatStorage) {
+				floatWeights[l] = new float[numWeights];
+				bestFloatWeights[l] = new float[numWeights];
+				floatWeightStates[l] = new float[numStates][numWeights];
+			} else {
+				weights[l] = new double[numWeights];
+				bestWeights[l] = new double[numWeights];
+				weightStates[l] = new double[numStates][numWeights];
+			}
+			if (bias) {
+				biasWeights[l] = new double[sizes[l + 1]];
+				bestBiasWeights[l] = new double[sizes[l + 1]];
+			}
+			biasStates[l] = new double[numStates][sizes[l + 1]];
+		}
+	}
+
+	private static Optimizer optimizer(NeuralNetwork network) {
+		return network.getLayers()[0].getOptimizer();
+	}
+
+	/**
+	 * 状態を写す: copy the trained network's weights and optimizer state, the best
+	 * epoch's weights, the shuffle and the schedule's inputs. The epoch must be set first.
+	 *
+	 * @param best 最良の世代のネットワーク: holds the best epoch's weights, ignored while bestEpoch is -1
+	 * @param shuffle 乱数: the trainer's shuffle, or null
+	 * @param order 行の順番: the current order of the training rows, or null when not shuffling
+	 * @param errors 学習率の入力: the errors fed to the schedule, at least epoch of them
+	 */
+	void capture(NeuralNetwork network, NeuralNetwork best, Random shuffle, int[] order, double[] errors) {
+		checkShape(network);
+		Layer[] layers = network.getLayers();
+		Layer[] bestLayers = best.getLayers();
+		for (int l = 0; l < steps.length; l++) {
+			Layer layer = layers[l];
+			steps[l] = layer.step;
+			if (floatWeights != null) {
+				layer.getWeights(floatWeights[l]);
+				bestLayers[l].getWeights(bestFloatWeights[l]);
+				layer.getWeightStates(floatWeightStates[l]);
+			} else {
+				layer.getWeights(weights[l]);
+				bestLayers[l].getWeights(bestWeights[l]);
+				layer.getWeightStates(weightStates[l]);
+			}
+			if (bias) {
+				layer.getBiasWeights(biasWeights[l]);
+				bestLayers[l].getBiasWeights(bestBiasWeights[l]);
+			}
+			layer.getBiasStates(biasStates[l]);
+		}
+		learningRate = network.getLearningRate();
+		trainingErrors = Arrays.copyOf(errors, epoch);
+		shuffleState = shuffle != null ? serialize(shuffle) : null;
+		this.order = order != null ? order.clone() : null;
+	}
+
+	/**
+	 * 状態を戻す: copy the checkpoint back into a network built from the same configuration
+	 */
+	void restore(NeuralNetwork network, NeuralNetwork best) {
+		checkShape(network);
+		Layer[] layers = network.getLayers();
+		Layer[] bestLayers = best.getLayers();
+		for (int l = 0; l < steps.length; l++) {
+			Layer layer = layers[l];
+			layer.step = steps[l];
+			if (floatWeights != null) {
+				layer.setWeights(floatWeights[l]);
+				bestLayers[l].setWeights(bestFloatWeights[l]);
+				layer.setWeightStates(floatWeightStates[l]);
+			} else {
+				layer.setWeights(weights[l]);
+				bestLayers[l].setWeights(bestWeights[l]);
+				layer.setWeightStates(weightStates[l]);
+			}
+			if (bias) {
+				layer.setBiasWeights(biasWeights[l]);
+				bestLayers[l].setBiasWeights(bestBiasWeights[l]);
+			}
+			layer.setBiasStates(biasStates[l]);
+		}
+	}
+
+	private static Random deserialize(byte[] state) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+		in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("java.util.Random;!*"));
+		try {
+			return (Random) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Corrupt shuffle state", e);
+		} catch (ClassCastException e) {
+			throw new IOException("Corrupt shuffle state", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void checkShape(NeuralNetwork network) {
+		NeuralNetworkConfig config = network.getConfig();
+		Optimizer current = optimizer(network);
+		// 同じ数の状態でも意味が違う: momentum's velocity is no rmsProp average, even with as many states
+		if (!Arrays.equals(sizes, config.getLayerSizes()) || precision != config.precision || bias != config.bias
+				|| numStates != current.getNumStates() || !optimizer.equals(current.getClass().getName())
+				|| !Arrays.equals(optimizerParameters, current.getParameters())) {
+			throw new IllegalArgumentException("The checkpoint of a " + Arrays.toString(sizes) + " " + precision
+					+ " network trained by " + optimizer + Arrays.toString(optimizerParameters)
+					+ " does not fit this network.");
+		}
+	}
+
+	private static byte[] serialize(Random random) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(random);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // 配列への書き込み: cannot happen writing to memory
+		}
+	}
+
+	/**
+	 * 保存する: write the checkpoint to a temporary file, then rename it over the given one
+	 */
+	void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temporary);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sizes.length);
+			for (int size : sizes) {
+				out.writeInt(size);
+			}
+			out.writeInt(precision.ordinal());
+			out.writeBoolean(bias);
+			out.writeInt(numStates);
+			out.writeUTF(optimizer);
+			out.writeInt(optimizerParameters.length);
+			write(out, optimizerParameters);
+			out.writeInt(epoch);
+			out.writeDouble(trainingError);
+			out.writeDouble(learningRate);
+			out.writeInt(bestEpoch);
+			out.writeDouble(bestError);
+			write(out, trainingErrors);
+			out.writeInt(shuffleState == null ? -1 : shuffleState.length);
+			if (shuffleState != null) {
+				out.write(shuffleState);
+				out.writeInt(order.length);
+				for (int row : order) {
+					out.writeInt(row);
+				}
+			}
+			for (int l = 0; l < steps.length; l++) {
+				out.writeInt(steps[l]);
+				if (floatWeights != null) {
+					write(out, floatWeights[l]);
+					write(out, bestFloatWeights[l]);
+					for (int s = 0; s < numStates; s++) {
+						write(out, floatWeightStates[l][s]);
+					}
+				} else {
+					write(out, weights[l]);
+					write(out, bestWeights[l]);
+					for (int s = 0; s < numStates; s++) {
+						write(out, weightStates[l][s]);
+					}
+				}
+				if (bias) {
+					write(out, biasWeights[l]);
+					write(out, bestBiasWeights[l]);
+				}
+				for (int s = 0; s < numStates; s++) {
+					write(out, biasStates[l][s]);
+				}
+			}
+			out.flush();
+			stream.getChannel().force(true); // 中身を確定する: the data reaches the disk before the rename
+		} finally {
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.getAbsoluteFile().getParentFile());
+	}
+
+	/*
+	 * 名前の変更を確定する: force the directory entry written by the rename to disk.
+	 * Not every platform can open a directory (Windows cannot); there the rename
+	 * is as durable as the file system makes it.
+	 */
+	private static void forceDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * 読み込む: read a checkpoint written by {@link #write(File)}
+	 */
+	static Checkpoint read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a checkpoint file: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+			}
+			long length = file.length();
+			int[] sizes = new int[readCount(in, length, file)];
+			if (sizes.length < 2) {
+				throw new IOException("Corrupt checkpoint, " + sizes.length + " layers: " + file);
+			}
+			for (int l = 0; l < sizes.length; l++) {
+				sizes[l] = readCount(in, length, file);
+				if (sizes[l] == 0 || (l > 0 && (long) sizes[l - 1] * sizes[l] > length)) {
+					throw new IOException("Corrupt checkpoint, layer sizes " + Arrays.toString(sizes) + ": " + file);
+				}
+			}
+			int ordinal = in.readInt();
+			if (ordinal < 0 || ordinal >= Precision.values().length) {
+				throw new IOException("Corrupt checkpoint, unknown precision " + ordinal + ": " + file);
+			}
+			Precision precision = Precision.values()[ordinal];
+			boolean bias = in.readBoolean();
+			int numStates = readCount(in, length, file);
+			String optimizer = in.readUTF();
+			double[] optimizerParameters = new double[readCount(in, length, file)];
+			read(in, optimizerParameters);
+			Checkpoint checkpoint = new Checkpoint(sizes, precision, bias, numStates, optimizer, optimizerParameters);
+			checkpoint.epoch = readCount(in, length, file);
+			checkpoint.trainingError = in.readDouble();
+			checkpoint.learningRate = in.readDouble();
+			checkpoint.bestEpoch = in.readInt();
+			checkpoint.bestError = in.readDouble();
+			checkpoint.trainingErrors = new double[checkpoint.epoch];
+			read(in, checkpoint.trainingErrors);
+			int shuffleLength = in.readInt();
+			if (shuffleLength != -1) {
+				if (shuffleLength < 0 || shuffleLength > length) {
+					throw new IOException("Corrupt checkpoint, count " + shuffleLength + ": " + file);
+				}
+				checkpoint.shuffleState = new byte[shuffleLength];
+				in.readFully(checkpoint.shuffleState);
+				checkpoint.shuffle = deserialize(checkpoint.shuffleState);
+				checkpoint.order = new int[readCount(in, length, file)];
+				for (int i = 0; i < checkpoint.order.length; i++) {
+					checkpoint.order[i] = in.readInt();
+				}
+			}
+			for (int l = 0; l < checkpoint.steps.length; l++) {
+				checkpoint.steps[l] = in.readInt();
+				if (checkpoint.floatWeights != null) {
+					read(in, checkpoint.floatWeights[l]);
+					read(in, checkpoint.bestFloatWeights[l]);
+					for (int s = 0; s < checkpoint.numStates; s++) {
+						read(in, checkpoint.floatWeightStates[l][s]);
+					}
+				} else {
+					read(in, checkpoint.weights[l]);
+					read(in, checkpoint.bestWeights[l]);
+					for (int s = 0; s < checkpoint.numStates; s++) {
+						read(in, checkpoint.weightStates[l][s]);
+					}
+				}
+				if (bias) {
+					read(in, checkpoint.biasWeights[l]);
+					read(in, checkpoint.bestBiasWeights[l]);
+				}
+				for (int s = 0; s < checkpoint.numStates; s++) {
+					read(in, checkpoint.biasStates[l][s]);
+				}
+			}
+			return checkpoint;
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * 数を読む: read a count or size. Whatever it counts takes at least a byte
+	 * each, so a count beyond the file's length is as corrupt as a negative one.
+	 */
+	private static int readCount(DataInputStream in, long length, File file) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > length) {
+			throw new IOException("Corrupt checkpoint, count " + count + ": " + file);
+		}
+		return count;
+	}
+
+	private static void write(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	private static void write(DataOutputStream out, float[] values) throws IOException {
+		for (float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+	private static void read(DataInputStream in, double[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readDouble();
+		}
+	}
+
+	private static void read(DataInputStream in, float[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readFloat();
+		}
+	}
+
+}
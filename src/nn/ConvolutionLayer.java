@@ -0,0 +1,280 @@
+package nn;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 畳み込み層: a 2D convolution with square kernels, a bias per filter and an activation
+ *
+ * The forward pass lays the receptive fields of a whole batch out as the
+ * columns of one matrix (im2col), numInputChannels x kernelSize x kernelSize
+ * rows by batch x outputHeight x outputWidth columns, so the convolution
+ * becomes a single {@link Matrix#multiply} with the filter matrix. The
+ * backward pass reuses those columns for the filter gradients and scatters
+ * the column gradients back onto the input maps (col2im).
+ *
+ * @author kenneth cason
+ */
+public class ConvolutionLayer extends FeatureLayer {
+
+	private final int numFilters;
+
+	private final int kernelSize;
+
+	private final int stride;
+
+	private final int padding;
+
+	private final Activation activation;
+
+	double[] weights; // 結合荷重: numFilters x (inputChannels x kernelSize x kernelSize)
+
+	double[] biasWeights; // バイアスの重み: one per filter, added to every output of the filter
+
+	double[] weightGradients;
+
+	double[] biasGradients;
+
+	private Optimizer optimizer;
+
+	private double[][] weightStates;
+
+	private double[][] biasStates;
+
+	private int step;
+
+	/**
+	 * 出力の大きさを保つ: a stride 1 convolution padded to keep the map size, for odd kernel sizes
+	 */
+	public ConvolutionLayer(int numFilters, int kernelSize, Activation activation) {
+		this(numFilters, kernelSize, 1, kernelSize / 2, activation);
+	}
+
+	/**
+	 * @param numFilters フィルタ数: output channels
+	 * @param kernelSize カーネルの大きさ: width and height of each filter
+	 * @param stride 歩幅: distance between neighbouring receptive fields
+	 * @param padding 余白: zeros added around each input map
+	 * @param activation 活性化関数: applied to every output, see {@link Activations}
+	 */
+	public ConvolutionLayer(int numFilters, int kernelSize, int stride, int padding, Activation activation) {
+		if (numFilters < 1 || kernelSize < 1 || stride < 1 || padding < 0) {
+			throw new IllegalArgumentException("Invalid convolution: " + numFilters + " filters, kernel " + kernelSize
+					+ ", stride " + stride + ", padding " + padding);
+		}
+		this.numFilters = numFilters;
+		this.kernelSize = kernelSize;
+		this.stride = stride;
+		this.padding = padding;
+		this.activation = activation;
+	}
+
+	@Override
+	void init(int channels, int width, int height, Random rand) {
+		super.init(channels, width, height, rand);
+		int fanIn = getNumColumnRows();
+		weights = new double[numFilters * fanIn];
+		biasWeights = new double[numFilters];
+		weightGradients = new double[weights.length];
+		biasGradients = new double[numFilters];
+		double range = 1 / Math.sqrt(fanIn);
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = (rand.nextDouble() * 2 - 1) * range;
+		}
+	}
+
+	@Override
+	void initOutput() {
+		// カーネルは余白込みの入力に収まる: a kernel larger than the padded map would only see padding
+		if (inputWidth + 2 * padding < kernelSize || inputHeight + 2 * padding < kernelSize) {
+			throw new IllegalArgumentException("Kernel " + kernelSize + " does not fit a " + inputHeight + "x"
+					+ inputWidth + " input padded by " + padding);
+		}
+		outputChannels = numFilters;
+		outputWidth = (inputWidth + 2 * padding - kernelSize) / stride + 1;
+		outputHeight = (inputHeight + 2 * padding - kernelSize) / stride + 1;
+	}
+
+	/*
+	 * 列行列の行数: rows of the im2col matrix, one per weight of a filter
+	 */
+	private int getNumColumnRows() {
+		return inputChannels * kernelSize * kernelSize;
+	}
+
+	@Override
+	double[][] newScratch(int batchSize) {
+		int numColumns = batchSize * outputWidth * outputHeight;
+		return new double[][] {
+				new double[getNumColumnRows() * numColumns], // 列行列: im2col columns
+				new double[numFilters * numColumns], // 畳み込みの結果: filters x columns
+				new double[getNumColumnRows() * numColumns] // 列の誤差: column gradients
+		};
+	}
+
+	@Override
+	void forward(double[] inputs, double[] outputs, int count, double[][] scratch) {
+		double[] columns = scratch[0];
+		double[] products = scratch[1];
+		int numPositions = outputWidth * outputHeight;
+		int numColumns = count * numPositions;
+		im2col(inputs, columns, count);
+		Matrix.multiply(weights, columns, products, numFilters, getNumColumnRows(), numColumns);
+		int outputSize = getOutputSize();
+		for (int b = 0; b < count; b++) {
+			for (int f = 0; f < numFilters; f++) {
+				int from = f * numColumns + b * numPositions;
+				int to = b * outputSize + f * numPositions;
+				double bias = biasWeights[f];
+				for (int p = 0; p < numPositions; p++) {
+					outputs[to + p] = products[from + p] + bias;
+				}
+			}
+			activation.apply(outputs, b * outputSize, outputSize);
+		}
+	}
+
+	@Override
+	void backward(double[] inputs, double[] outputs, double[] outputErrors, double[] inputErrors, int count,
+			double[][] scratch) {
+		double[] columns = scratch[0];
+		double[] products = scratch[1];
+		int numPositions = outputWidth * outputHeight;
+		int numColumns = count * numPositions;
+		int outputSize = getOutputSize();
+		Arrays.fill(biasGradients, 0.0);
+		for (int b = 0; b < count; b++) {
+			activation.derivative(outputs, outputErrors, b * outputSize, outputSize);
+			for (int f = 0; f < numFilters; f++) {
+				int from = b * outputSize + f * numPositions;
+				int to = f * numColumns + b * numPositions;
+				double sum = 0;
+				for (int p = 0; p < numPositions; p++) {
+					products[to + p] = outputErrors[from + p];
+					sum += outputErrors[from + p];
+				}
+				biasGradients[f] += sum;
+			}
+		}
+		Matrix.multiplyTransposeB(products, columns, weightGradients, numFilters, numColumns, getNumColumnRows());
+		if (inputErrors != null) {
+			double[] columnErrors = scratch[2];
+			Matrix.multiplyTransposeA(weights, products, columnErrors, numFilters, getNumColumnRows(), numColumns);
+			col2im(columnErrors, inputErrors, count);
+		}
+	}
+
+	@Override
+	void adjustWeights(double scale, double learningRate) {
+		step++;
+		optimizer.update(weights, 0, weights.length, scale, weightGradients, 0, weightStates, learningRate, null, step);
+		optimizer.update(biasWeights, 0, biasWeights.length, scale, biasGradients, 0, biasStates, learningRate, null,
+				step);
+	}
+
+	@Override
+	void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+		this.weightStates = new double[optimizer.getNumStates()][weights.length];
+		this.biasStates = new double[optimizer.getNumStates()][biasWeights.length];
+		this.step = 0;
+	}
+
+	/*
+	 * im2col: column b * numPositions + y * outputWidth + x holds the receptive
+	 * field of output (x, y) of sample b, zero where it overhangs the padding
+	 */
+	private void im2col(double[] inputs, double[] columns, int count) {
+		int numPositions = outputWidth * outputHeight;
+		int numColumns = count * numPositions;
+		int inputSize = getInputSize();
+		for (int c = 0; c < inputChannels; c++) {
+			for (int ky = 0; ky < kernelSize; ky++) {
+				for (int kx = 0; kx < kernelSize; kx++) {
+					int row = ((c * kernelSize + ky) * kernelSize + kx) * numColumns;
+					for (int b = 0; b < count; b++) {
+						int map = b * inputSize + c * inputWidth * inputHeight;
+						for (int y = 0; y < outputHeight; y++) {
+							int iy = y * stride - padding + ky;
+							int column = row + b * numPositions + y * outputWidth;
+							if (iy < 0 || iy >= inputHeight) {
+								Arrays.fill(columns, column, column + outputWidth, 0.0);
+								continue;
+							}
+							int from = firstX(kx);
+							int to = lastX(kx);
+							Arrays.fill(columns, column, column + from, 0.0);
+							int source = map + iy * inputWidth - padding + kx;
+							if (stride == 1) {
+								System.arraycopy(inputs, source + from, columns, column + from, to - from);
+							} else {
+								for (int x = from; x < to; x++) {
+									columns[column + x] = inputs[source + x * stride];
+								}
+							}
+							Arrays.fill(columns, column + to, column + outputWidth, 0.0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * col2im: sum the column gradients back onto the input maps they were read from
+	 */
+	private void col2im(double[] columns, double[] inputs, int count) {
+		int numPositions = outputWidth * outputHeight;
+		int numColumns = count * numPositions;
+		int inputSize = getInputSize();
+		Arrays.fill(inputs, 0, count * inputSize, 0.0);
+		for (int c = 0; c < inputChannels; c++) {
+			for (int ky = 0; ky < kernelSize; ky++) {
+				for (int kx = 0; kx < kernelSize; kx++) {
+					int row = ((c * kernelSize + ky) * kernelSize + kx) * numColumns;
+					for (int b = 0; b < count; b++) {
+						int map = b * inputSize + c * inputWidth * inputHeight;
+						for (int y = 0; y < outputHeight; y++) {
+							int iy = y * stride - padding + ky;
+							if (iy < 0 || iy >= inputHeight) {
+								continue;
+							}
+							int column = row + b * numPositions + y * outputWidth;
+							int target = map + iy * inputWidth - padding + kx;
+							for (int x = firstX(kx), to = lastX(kx); x < to; x++) {
+								inputs[target + x * stride] += columns[column + x];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * 余白に掛からない範囲: outputs x in [firstX, lastX) read column kx of
+	 * their receptive field from inside the input map
+	 */
+	private int firstX(int kx) {
+		int first = padding - kx;
+		return first <= 0 ? 0 : Math.min(outputWidth, (first + stride - 1) / stride);
+	}
+
+	private int lastX(int kx) {
+		int end = inputWidth + padding - kx; // x * stride < end
+		return end <= 0 ? 0 : Math.max(firstX(kx), Math.min(outputWidth, (end + stride - 1) / stride));
+	}
+
+	public int getNumFilters() {
+		return numFilters;
+	}
+
+	public int getKernelSize() {
+		return kernelSize;
+	}
+
+	public Activation getActivation() {
+		return activation;
+	}
+
+}
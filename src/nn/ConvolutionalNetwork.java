@@ -0,0 +1,228 @@
+package nn;
+
+import java.util.Random;
+
+/**
+ * 畳み込みニューラルネット: convolution and pooling layers in front of a dense network
+ *
+ * The input is an image of {@link NeuralNetworkConfig#inputWidth} x
+ * {@link NeuralNetworkConfig#inputHeight} pixels with numInputNodes /
+ * (inputWidth x inputHeight) channels, stored channel by channel and row by
+ * row. It passes through the {@link FeatureLayer}s in order, and the last
+ * feature maps, flattened, are the input layer of a {@link NeuralNetwork}
+ * built from the rest of the configuration. Every layer is trained together
+ * by {@link #trainBatch(double[][], double[][])}, with the configured optimizer
+ * and learning rate.
+ *
+ * <pre>
+ * ConvolutionalNetwork cnn = new ConvolutionalNetwork(config,
+ *         new ConvolutionLayer(8, 5, Activations.RELU),
+ *         new PoolingLayer(PoolingLayer.Type.MAX, 2));
+ * </pre>
+ *
+ * Only {@link Precision#DOUBLE} is supported. Like NeuralNetwork, training is
+ * driven by a single thread and {@link #predict(double[])} may be called from
+ * many threads at once, but not while training.
+ *
+ * @author kenneth cason
+ */
+public class ConvolutionalNetwork {
+
+	private final FeatureLayer[] features;
+
+	private final NeuralNetwork network; // 全結合層: the dense layers after the features
+
+	private Buffers trainingBuffers; // 学習用の作業領域: grown to the largest batch
+
+	/*
+	 * 各スレッドの推論用の作業領域: per-thread scratch buffers for predict
+	 */
+	private final ThreadLocal<Buffers> predictBuffers = new ThreadLocal<Buffers>() {
+		protected Buffers initialValue() {
+			return new Buffers(1, false);
+		}
+	};
+
+	/**
+	 * @param config 設定: the image geometry and the dense layers after the features
+	 * @param features 特徴層: applied in order to the input image
+	 */
+	public ConvolutionalNetwork(NeuralNetworkConfig config, FeatureLayer... features) {
+		if (config.precision != Precision.DOUBLE) {
+			throw new IllegalArgumentException("ConvolutionalNetwork only supports DOUBLE precision: "
+					+ config.precision);
+		}
+		int numPixels = config.inputWidth * config.inputHeight;
+		if (numPixels < 1 || config.numInputNodes % numPixels != 0) {
+			throw new IllegalArgumentException("numInputNodes " + config.numInputNodes + " is not a whole number of "
+					+ config.inputWidth + "x" + config.inputHeight + " channels");
+		}
+		this.features = features.clone();
+		Random rand = new Random(config.seed);
+		int channels = config.numInputNodes / numPixels;
+		int width = config.inputWidth;
+		int height = config.inputHeight;
+		for (FeatureLayer feature : this.features) {
+			feature.init(channels, width, height, rand);
+			feature.setOptimizer(config.optimizer);
+			channels = feature.getOutputChannels();
+			width = feature.getOutputWidth();
+			height = feature.getOutputHeight();
+		}
+		NeuralNetworkConfig dense = config.copy();
+		dense.numInputNodes = channels * width * height;
+		dense.inputWidth = width;
+		dense.inputHeight = height;
+		this.network = new NeuralNetwork(dense);
+	}
+
+	/**
+	 * ミニバッチで学習する
+	 * train every layer on a mini-batch, adjusting the weights once by the mean gradient
+	 *
+	 * @param inputs 入力: one image per sample
+	 * @param teacherSignals 教師信号: one row of teacher signals per sample
+	 * @return 平均２乗誤差: the mean squared error over the batch, before the weights are adjusted
+	 */
+	public double trainBatch(double[][] inputs, double[][] teacherSignals) {
+		return trainBatch(inputs, teacherSignals, 0, inputs.length);
+	}
+
+	/**
+	 * ミニバッチで学習する
+	 * train on the mini-batch made of the rows [offset, offset + batchSize)
+	 *
+	 * @see #trainBatch(double[][], double[][])
+	 */
+	public double trainBatch(double[][] inputs, double[][] teacherSignals, int offset, int batchSize) {
+		if (inputs.length != teacherSignals.length) {
+			throw new IllegalArgumentException("The number of inputs and teacher signals do not match.");
+		}
+		if (trainingBuffers == null || trainingBuffers.batchSize < batchSize) {
+			trainingBuffers = new Buffers(batchSize, true);
+		}
+		Buffers buffers = trainingBuffers;
+		int numOutputs = network.getOutputLayer().getNumNeurons();
+		Workspace workspace = network.getBatchWorkspace(batchSize);
+		for (int b = 0; b < batchSize; b++) {
+			if (teacherSignals[offset + b].length != numOutputs) {
+				throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+			}
+			workspace.setTeacherSignal(b, teacherSignals[offset + b]);
+		}
+		double[] features = feedForward(buffers, inputs, offset, batchSize);
+		System.arraycopy(features, 0, workspace.activations[0], 0, batchSize * network.getInputLayer().getNumNeurons());
+
+		double error = network.calculateGradients(workspace, batchSize);
+		int last = this.features.length;
+		if (last > 0) {
+			network.calculateInputErrors(workspace, batchSize, buffers.errors[last]);
+		}
+		for (int i = last - 1; i >= 0; i--) {
+			this.features[i].backward(buffers.activations[i], buffers.activations[i + 1], buffers.errors[i + 1],
+					i > 0 ? buffers.errors[i] : null, batchSize, buffers.scratch[i]);
+		}
+
+		double scale = 1.0 / batchSize;
+		network.adjustWeights(workspace, scale);
+		for (FeatureLayer feature : this.features) {
+			feature.adjustWeights(scale, network.getLearningRate());
+		}
+		return error / batchSize;
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one image
+	 *
+	 * @param input 入力: one value per input node
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(double[] input) {
+		Buffers buffers = predictBuffers.get();
+		return network.predict(feedForward(buffers, new double[][] {input}, 0, 1));
+	}
+
+	/*
+	 * 特徴層を前向きに伝播する: returns the last feature maps, count x their size
+	 */
+	private double[] feedForward(Buffers buffers, double[][] inputs, int offset, int count) {
+		int inputSize = buffers.activations[0].length / buffers.batchSize;
+		for (int b = 0; b < count; b++) {
+			if (inputs[offset + b].length != inputSize) {
+				throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+			}
+			System.arraycopy(inputs[offset + b], 0, buffers.activations[0], b * inputSize, inputSize);
+		}
+		for (int i = 0; i < features.length; i++) {
+			features[i].forward(buffers.activations[i], buffers.activations[i + 1], count, buffers.scratch[i]);
+		}
+		return buffers.activations[features.length];
+	}
+
+	/**
+	 * 学習率を設定する: set the learning rate of every layer
+	 */
+	public void setLearningRate(double rate) {
+		network.setLearningRate(rate);
+	}
+
+	public double getLearningRate() {
+		return network.getLearningRate();
+	}
+
+	/**
+	 * 最適化手法を設定する: set the optimizer of every layer, discarding any optimizer state
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		network.setOptimizer(optimizer);
+		for (FeatureLayer feature : features) {
+			feature.setOptimizer(optimizer);
+		}
+	}
+
+	/**
+	 * 全結合層: the dense network fed by the last feature maps
+	 */
+	public NeuralNetwork getNetwork() {
+		return network;
+	}
+
+	public FeatureLayer[] getFeatureLayers() {
+		return features.clone();
+	}
+
+	/*
+	 * 作業領域: activations, errors and scratch arrays of every feature layer for a batch
+	 */
+	private class Buffers {
+
+		final int batchSize;
+
+		final double[][] activations; // 活性値: the input, then the output of every feature layer
+
+		final double[][] errors; // 誤差: like activations, for training; errors[0] is not used
+
+		final double[][][] scratch;
+
+		Buffers(int batchSize, boolean training) {
+			this.batchSize = batchSize;
+			activations = new double[features.length + 1][];
+			errors = training ? new double[features.length + 1][] : null;
+			scratch = new double[features.length][][];
+			for (int i = 0; i <= features.length; i++) {
+				int size = i == 0 ? features.length == 0 ? network.getInputLayer().getNumNeurons()
+						: features[0].getInputSize() : features[i - 1].getOutputSize();
+				activations[i] = new double[batchSize * size];
+				if (training && i > 0) {
+					errors[i] = new double[batchSize * size];
+				}
+				if (i < features.length) {
+					scratch[i] = features[i].newScratch(batchSize);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package nn;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CSVの学習データ: one sample per line, the inputs followed by the teacher signals
+ *
+ * Opening the file makes one pass over it to record where each line starts;
+ * the samples themselves stay on disk and are read and parsed on demand with
+ * positional reads, so the file may be far larger than the heap. Blank lines
+ * are skipped.
+ *
+ * @author kenneth cason
+ */
+public class CsvDataSource implements DataSource {
+
+	private final File file;
+
+	private final int numInputs;
+
+	private final int numOutputs;
+
+	private final long[] offsets; // 各行の位置: start of each line, and the end of the last
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	/**
+	 * @param file CSVファイル: comma separated, numInputs + numOutputs values per line
+	 */
+	public CsvDataSource(File file, int numInputs, int numOutputs) throws IOException {
+		this.file = file;
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.offsets = indexLines(file);
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = raf.getChannel();
+	}
+
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	public void read(int index, double[] input, double[] teacherSignal) throws IOException {
+		ByteBuffer line = ByteBuffer.allocate((int) (offsets[index + 1] - offsets[index]));
+		long position = offsets[index];
+		while (line.hasRemaining()) {
+			int read = channel.read(line, position + line.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of file: " + file);
+			}
+		}
+		String[] values = new String(line.array(), StandardCharsets.US_ASCII).trim().split(",");
+		if (values.length != numInputs + numOutputs) {
+			throw new IOException("Expected " + (numInputs + numOutputs) + " values but found "
+					+ values.length + " in sample " + index + ": " + file);
+		}
+		try {
+			for (int i = 0; i < numInputs; i++) {
+				input[i] = Double.parseDouble(values[i].trim());
+			}
+			for (int i = 0; i < numOutputs; i++) {
+				teacherSignal[i] = Double.parseDouble(values[numInputs + i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed sample " + index + ": " + file, e);
+		}
+	}
+
+	/**
+	 * ファイルを閉じる: close the file
+	 */
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/*
+	 * 行の索引: the start offset of every non-blank line, then the end of the last one
+	 */
+	private static long[] indexLines(File file) throws IOException {
+		long[] offsets = new long[1024];
+		int numLines = 0;
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			long position = 0;
+			long lineStart = 0;
+			boolean blank = true;
+			for (int b = in.read(); ; b = in.read()) {
+				if (b == '\n' || b < 0) {
+					if (!blank) {
+						if (numLines + 2 > offsets.length) {
+							offsets = Arrays.copyOf(offsets, offsets.length * 2);
+						}
+						offsets[numLines++] = lineStart;
+						offsets[numLines] = position;
+					}
+					if (b < 0) {
+						break;
+					}
+					lineStart = position + 1;
+					blank = true;
+				} else if (b != '\r' && b != ' ' && b != '\t') {
+					blank = false;
+				}
+				position++;
+			}
+		} finally {
+			in.close();
+		}
+		return Arrays.copyOf(offsets, numLines + 1);
+	}
+
+}
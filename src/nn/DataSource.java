@@ -0,0 +1,41 @@
+package nn;
+
+import java.io.IOException;
+
+/**
+ * 学習データ: a dataset of samples that can be read one at a time
+ *
+ * Samples are addressed by index so that a {@link TrainingStream} can decode
+ * several of them at once on background threads, in any order. Implementations
+ * must therefore allow {@link #read(int, double[], double[])} to be called
+ * concurrently from several threads.
+ *
+ * @author kenneth cason
+ */
+public interface DataSource {
+
+	/**
+	 * サンプル数: number of samples
+	 */
+	int size();
+
+	/**
+	 * 入力数: values per input row
+	 */
+	int getNumInputs();
+
+	/**
+	 * 出力数: values per teacher signal row
+	 */
+	int getNumOutputs();
+
+	/**
+	 * サンプルを読み込む: decode one sample into the caller's buffers
+	 *
+	 * @param index サンプル番号: in [0, size())
+	 * @param input 入力: getNumInputs() values, overwritten
+	 * @param teacherSignal 教師信号: getNumOutputs() values, overwritten
+	 */
+	void read(int index, double[] input, double[] teacherSignal) throws IOException;
+
+}
@@ -0,0 +1,116 @@
+package nn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 学習データのシャード: pre-packed binary dataset files
+ *
+ * A shard is a fixed {@value #HEADER_SIZE} byte header followed by its samples
+ * at a fixed stride, each sample being its inputs followed by its teacher
+ * signals. Everything is little-endian, so a {@link ShardDataSource} can
+ * memory-map the shards and read any sample in place.
+ *
+ * <pre>
+ *  0 int    magic "NNDS"
+ *  4 int    version
+ *  8 int    numInputs, numOutputs, numSamples
+ * 20 int    reserved
+ * 24 long   reserved
+ * 32        (inputs[numInputs], teacherSignals[numOutputs]) as doubles, per sample
+ * </pre>
+ *
+ * Converting a dataset once, with {@link #write(DataSource, File, String, int)},
+ * moves the decoding and normalization of every sample out of the training runs.
+ *
+ * @author kenneth cason
+ */
+public class DatasetShards {
+
+	static final int MAGIC = 0x4E4E4453; // "NNDS"
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 32;
+
+	static final String SUFFIX = ".nnds";
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private DatasetShards() {
+	}
+
+	/**
+	 * シャードに変換する
+	 * decode every sample of a data source and write them into shards named
+	 * prefix-00000.nnds, prefix-00001.nnds, ... in the directory
+	 *
+	 * @param samplesPerShard シャードのサンプル数: at most this many samples per file
+	 * @return シャード: the files written, in order
+	 */
+	public static List<File> write(DataSource source, File directory, String prefix, int samplesPerShard)
+			throws IOException {
+		int numInputs = source.getNumInputs();
+		int numOutputs = source.getNumOutputs();
+		long stride = 8L * (numInputs + numOutputs);
+		if (samplesPerShard < 1 || HEADER_SIZE + stride * samplesPerShard > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("samplesPerShard must be at least 1 and fit a shard in 2GB: "
+					+ samplesPerShard);
+		}
+		double[] input = new double[numInputs];
+		double[] teacherSignal = new double[numOutputs];
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		List<File> shards = new ArrayList<File>();
+		for (int from = 0; from < source.size(); from += samplesPerShard) {
+			int numSamples = Math.min(samplesPerShard, source.size() - from);
+			File file = new File(directory, String.format("%s-%05d%s", prefix, shards.size(), SUFFIX));
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(0);
+				FileChannel channel = raf.getChannel();
+				buffer.clear();
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putInt(numInputs);
+				buffer.putInt(numOutputs);
+				buffer.putInt(numSamples);
+				buffer.putInt(0);
+				buffer.putLong(0);
+				for (int i = 0; i < numSamples; i++) {
+					source.read(from + i, input, teacherSignal);
+					write(channel, buffer, input);
+					write(channel, buffer, teacherSignal);
+				}
+				flush(channel, buffer);
+			} finally {
+				raf.close();
+			}
+			shards.add(file);
+		}
+		return shards;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+		for (double value : values) {
+			if (!buffer.hasRemaining()) {
+				flush(channel, buffer);
+			}
+			buffer.putDouble(value);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
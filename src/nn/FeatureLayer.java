@@ -0,0 +1,100 @@
+package nn;
+
+import java.util.Random;
+
+/**
+ * 特徴層: a layer of a {@link ConvolutionalNetwork} working on 2D feature maps
+ *
+ * A feature layer reads channels x height x width maps, stored channel by
+ * channel and row by row, and writes maps in the same layout. Its geometry is
+ * fixed when the network it belongs to is built. Every method works on a
+ * whole batch, each sample taking one contiguous row of the activation
+ * arrays.
+ *
+ * @author kenneth cason
+ */
+public abstract class FeatureLayer {
+
+	int inputChannels;
+
+	int inputWidth;
+
+	int inputHeight;
+
+	int outputChannels;
+
+	int outputWidth;
+
+	int outputHeight;
+
+	/**
+	 * 初期化: fix the input geometry, derive the output geometry and initialize any weights
+	 */
+	void init(int channels, int width, int height, Random rand) {
+		this.inputChannels = channels;
+		this.inputWidth = width;
+		this.inputHeight = height;
+		initOutput();
+		if (outputWidth < 1 || outputHeight < 1) {
+			throw new IllegalArgumentException(getClass().getSimpleName() + " does not fit a " + channels + "x"
+					+ height + "x" + width + " input");
+		}
+	}
+
+	/**
+	 * 出力の形: set outputChannels, outputWidth and outputHeight from the input geometry
+	 */
+	abstract void initOutput();
+
+	/**
+	 * 作業領域: scratch arrays for forward and backward passes over up to batchSize samples
+	 */
+	abstract double[][] newScratch(int batchSize);
+
+	/**
+	 * 前向き: outputs = f(inputs) for count samples
+	 */
+	abstract void forward(double[] inputs, double[] outputs, int count, double[][] scratch);
+
+	/**
+	 * 逆向き
+	 * propagate the errors of the outputs back to the inputs, and keep the
+	 * gradients of any weights for {@link #adjustWeights(double, double)}. Must
+	 * follow the forward pass of the same samples with the same scratch.
+	 *
+	 * @param outputErrors 出力の誤差: teacher-signal-direction errors of the outputs, overwritten
+	 * @param inputErrors 入力の誤差: filled with the errors of the inputs, or null if not needed
+	 */
+	abstract void backward(double[] inputs, double[] outputs, double[] outputErrors, double[] inputErrors, int count,
+			double[][] scratch);
+
+	/**
+	 * 結合荷重を調整する: apply the gradients of the last backward pass
+	 */
+	void adjustWeights(double scale, double learningRate) {
+	}
+
+	void setOptimizer(Optimizer optimizer) {
+	}
+
+	public int getInputSize() {
+		return inputChannels * inputWidth * inputHeight;
+	}
+
+	public int getOutputSize() {
+		return outputChannels * outputWidth * outputHeight;
+	}
+
+	public int getOutputChannels() {
+		return outputChannels;
+	}
+
+	public int getOutputWidth() {
+		return outputWidth;
+	}
+
+	public int getOutputHeight() {
+		return outputHeight;
+	}
+
+}
@@ -0,0 +1,99 @@
+package nn;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 画像の学習データ: a directory of images, one sample per image
+ *
+ * Each image is decoded on demand to its pixels' gray levels, row by row,
+ * scaled into [0, 1]. Images with fewer pixels than inputs are padded with
+ * zeros and larger ones are truncated. The teacher signal of each image is
+ * given by a function of its file, typically of its name.
+ *
+ * @author kenneth cason
+ */
+public class ImageDataSource implements DataSource {
+
+	private final File[] files;
+
+	private final int numInputs;
+
+	private final int numOutputs;
+
+	private final Function<File, double[]> teacherSignals;
+
+	/**
+	 * @param directory 画像のディレクトリ: every file in it with an image suffix ImageIO reads, in name order
+	 * @param numInputs 入力数: pixels per sample
+	 * @param numOutputs 出力数: values per teacher signal
+	 * @param teacherSignals 教師信号: the teacher signal of each image file
+	 */
+	public ImageDataSource(File directory, int numInputs, int numOutputs, Function<File, double[]> teacherSignals)
+			throws IOException {
+		final String[] suffixes = ImageIO.getReaderFileSuffixes();
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				String name = file.getName().toLowerCase();
+				for (String suffix : suffixes) {
+					if (file.isFile() && name.endsWith("." + suffix.toLowerCase())) {
+						return true;
+					}
+				}
+				return false;
+			}
+		});
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		Arrays.sort(files);
+		this.files = files;
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.teacherSignals = teacherSignals;
+	}
+
+	public int size() {
+		return files.length;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	public File getFile(int index) {
+		return files[index];
+	}
+
+	public void read(int index, double[] input, double[] teacherSignal) throws IOException {
+		BufferedImage image = ImageIO.read(files[index]);
+		if (image == null) {
+			throw new IOException("Not an image: " + files[index]);
+		}
+		int width = image.getWidth();
+		int numPixels = Math.min(numInputs, width * image.getHeight());
+		for (int i = 0; i < numPixels; i++) {
+			int rgb = image.getRGB(i % width, i / width);
+			int gray = ((rgb >> 16 & 0xFF) + (rgb >> 8 & 0xFF) + (rgb & 0xFF)) / 3;
+			input[i] = gray / 255.0;
+		}
+		Arrays.fill(input, numPixels, numInputs, 0.0);
+		double[] signal = teacherSignals.apply(files[index]);
+		if (signal.length != numOutputs) {
+			throw new IOException("Expected " + numOutputs + " teacher signals but found " + signal.length
+					+ ": " + files[index]);
+		}
+		System.arraycopy(signal, 0, teacherSignal, 0, numOutputs);
+	}
+
+}
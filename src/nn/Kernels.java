@@ -0,0 +1,99 @@
+package nn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 計算カーネル: the primitive loops every forward and backward pass is built from
+ *
+ * Two backends exist: {@link ScalarKernels}, plain loops left to the JIT, and
+ * {@link VectorKernels}, explicit SIMD on the incubating Vector API. The vector
+ * backend is selected at startup when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, otherwise the scalar one is.
+ * Setting the system property {@code nn.kernels} to {@code scalar} or
+ * {@code vector} forces a choice, and {@code fast} selects the vector backend
+ * with a vector sigmoid, faster but not bit-for-bit reproducible.
+ *
+ * @author kenneth cason
+ */
+interface Kernels {
+
+	/**
+	 * 内積: sum of a[aOffset + i] * b[bOffset + i] for i in [0, length)
+	 */
+	double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+	/**
+	 * y[yOffset + i] += alpha * x[xOffset + i] for i in [0, length)
+	 */
+	void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+	/**
+	 * シグモイド関数: values[offset + i] = sigmoid(values[offset + i]) for i in [0, length)
+	 */
+	void sigmoid(double[] values, int offset, int length);
+
+	/*
+	 * 単精度: float variants, see {@link Precision}
+	 */
+
+	float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+	/**
+	 * 倍精度で累算する内積: dot product of floats accumulated in double
+	 */
+	double dotDouble(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+	double dot(double[] a, int aOffset, float[] b, int bOffset, int length);
+
+	void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+	void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length);
+
+	void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length);
+
+	void sigmoid(float[] values, int offset, int length);
+
+	/**
+	 * 整数の内積: dot product of int8 values accumulated in int, see {@link QuantizedNetwork}
+	 */
+	int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+	/*
+	 * 直接バッファ: weights held off the heap in a ByteBuffer, see {@link MappedNetwork}
+	 * and {@link NeuralNetworkConfig#offHeap}. The index and length count elements,
+	 * not bytes, and the buffer's byte order is honored. Each one computes exactly
+	 * what its array counterpart computes.
+	 */
+
+	/**
+	 * 内積: sum of a[aOffset + i] * (the double at element bIndex + i of b) for i in [0, length)
+	 */
+	double dotDoubles(double[] a, int aOffset, ByteBuffer b, int bIndex, int length);
+
+	/**
+	 * 内積: sum of a[aOffset + i] * (the float at element bIndex + i of b) for i in [0, length), in double
+	 */
+	double dotFloats(double[] a, int aOffset, ByteBuffer b, int bIndex, int length);
+
+	float dotFloats(float[] a, int aOffset, ByteBuffer b, int bIndex, int length);
+
+	/**
+	 * 倍精度で累算する内積: dot product of floats with the floats of b, accumulated in double
+	 */
+	double dotDoubleFloats(float[] a, int aOffset, ByteBuffer b, int bIndex, int length);
+
+	/**
+	 * y[yOffset + i] += alpha * (the double at element xIndex + i of x) for i in [0, length)
+	 */
+	void axpyDoubles(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length);
+
+	/**
+	 * y[yOffset + i] += alpha * (the float at element xIndex + i of x) for i in [0, length)
+	 */
+	void axpyFloats(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length);
+
+	void axpyFloats(float alpha, ByteBuffer x, int xIndex, float[] y, int yOffset, int length);
+
+	String getName();
+
+}
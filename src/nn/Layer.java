@@ -1,5 +1,8 @@
 package nn;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -8,21 +11,100 @@ import java.util.Random;
  */
 public class Layer {
 	
+	/*
+	 * 作業領域の塊: elements of off-heap weights staged per optimizer call, a
+	 * multiple of every vector length so chunking leaves the results unchanged
+	 */
+	private static final int STAGE_SIZE = 1024;
+	
 	private int numNeurons;	// 神経数: number of neurons
 	
 	private double[] teacherSignals;// 教師信号: teacher signal
 	
-	private double[] errors;		// 誤差: error
+	double[] errors;		// 誤差: error
 	
 	private double learningRate;	// 学習率: learning rate
 	
 	private Neuron[] neurons;
 	
+	double[] values;			// 活性値: neuron values
+	
+	/*
+	 * 結合荷重の行列: weight matrix to the child layer, row-major with one row per child neuron.
+	 * weights[j * numNeurons + i] is the weight from neuron i of this layer to
+	 * neuron j of the child layer, so each child neuron's inputs are contiguous.
+	 */
+	double[] weights;
+	
+	float[] floatWeights;		// 単精度の結合荷重: the weight matrix when stored as float, in place of weights
+	
+	/*
+	 * ヒープ外の結合荷重: with off-heap storage, the weight matrix in a direct
+	 * little-endian buffer in place of weights or floatWeights, as doubles or as
+	 * floats by precision and laid out the same way. The bias weights and the
+	 * optimizer states then live off the heap as well.
+	 */
+	ByteBuffer weightBuffer;
+	
+	ByteBuffer biasWeightBuffer;		// ヒープ外のバイアスの重み: in place of biasWeights
+	
+	ByteBuffer[] weightStateBuffers;	// ヒープ外の最適化の状態: in place of weightStates or floatWeightStates
+	
+	ByteBuffer[] biasStateBuffers;		// in place of biasStates
+	
+	private boolean offHeap;
+	
+	private Precision precision = Precision.DOUBLE; // 精度: precision
+	
+	private Activation activation = Activations.SIGMOID; // 活性化関数: applied to this layer's sums
+	
+	private Optimizer optimizer = Optimizers.sgd(); // 最適化手法: how the weights to the child layer are updated
+	
+	double[][] weightStates;		// 最適化の状態: optimizer state arrays parallel to weights
+	
+	float[][] floatWeightStates;	// 単精度の最適化の状態: optimizer state arrays parallel to floatWeights
+	
+	double[][] biasStates;			// バイアスの最適化の状態: optimizer state arrays parallel to biasWeights
+	
+	int step;						// 更新の回数: number of weight updates so far
+	
+	private double[] biasGradients;	// バイアスの勾配: per-sample scratch for the bias gradients
+	
+	/*
+	 * 更新の作業領域: with off-heap storage, scratch the optimizer works on. Each
+	 * update copies a row, or a STAGE_SIZE chunk, of the weights and their states
+	 * here and back, so the heap holds a row at most rather than the matrix.
+	 */
+	private double[] stagedWeights;
+	
+	private double[][] stagedStates;
+	
+	private float[] floatStagedWeights;
+	
+	private float[][] floatStagedStates;
+	
+	/*
+	 * 非零の値: while the values were set sparsely, the ascending indices of the
+	 * first numActive of them; only these columns of the weights are visited.
+	 * numActive is -1 while the values are dense.
+	 */
+	int[] activeIndices;
+	
+	int numActive = -1;
+	
+	private float[] floatValues;	// 単精度の活性値: per-sample scratch, the values as floats
+	
+	/*
+	 * 学習率係数: learning rate coefficients, 1 unless set. The weights from
+	 * neuron i to the child layer learn at learningRate * learningRateCoefficients[i].
+	 */
+	double[] learningRateCoefficients;
+	
 	private boolean useBias = false;
 	
-	private double[] biasValues; 	// バイアス値（閾値）: bias value bias value 
+	double[] biasValues; 	// バイアス値（閾値）: bias value bias value 
 	
-	private double[] biasWeights; 	// バイアスの重み:bias weights	
+	double[] biasWeights; 	// バイアスの重み:bias weights	
 	
 	Layer parentLayer;		// 親層: parent layer
 	
@@ -35,9 +117,16 @@ public class Layer {
 	Random rand;
 	
 	public Layer() {
+		this(new Random());
+	}
+	
+	/**
+	 * @param rand 重みを初期化する乱数: random source used to initialize the weights
+	 */
+	public Layer(Random rand) {
 		parentLayer = null;
 		childLayer = null;
-		rand = new Random();
+		this.rand = rand;
 	}
 	
 	/**
@@ -47,13 +136,41 @@ public class Layer {
 	 * @param child　子層: child layer
 	 */
 	public void init(int _numNeurons, Layer parent, Layer child, boolean bias) {
+		init(_numNeurons, parent, child, bias, Precision.DOUBLE);
+	}
+	
+	/**
+	 * 層を初期化する: initialize the layer
+	 * @param numNeurons　この層の神経数: the number of neurons in this layer
+	 * @param parent　親層: parent layer
+	 * @param child　子層: child layer
+	 * @param precision 精度: precision of the weight matrix
+	 */
+	public void init(int _numNeurons, Layer parent, Layer child, boolean bias, Precision precision) {
+		init(_numNeurons, parent, child, bias, precision, false);
+	}
+	
+	/**
+	 * 層を初期化する: initialize the layer
+	 * @param numNeurons　この層の神経数: the number of neurons in this layer
+	 * @param parent　親層: parent layer
+	 * @param child　子層: child layer
+	 * @param precision 精度: precision of the weight matrix
+	 * @param offHeap ヒープ外か: keep the weights and optimizer state in direct buffers, see {@link NeuralNetworkConfig#offHeap}
+	 */
+	public void init(int _numNeurons, Layer parent, Layer child, boolean bias, Precision precision, boolean offHeap) {
+		this.precision = precision;
+		this.offHeap = offHeap;
 		useBias = bias;
 		numNeurons = _numNeurons;
 		neurons = new Neuron[numNeurons];
+		values = new double[numNeurons];
 		teacherSignals = new double[numNeurons];
 		errors = new double[numNeurons];
+		learningRateCoefficients = new double[numNeurons];
+		Arrays.fill(learningRateCoefficients, 1.0);
 	    for(int i = 0; i < numNeurons; i++) {
-	    	neurons[i] = new Neuron(); // init all values
+	    	neurons[i] = new Neuron(this, i);
 	    }
 	    
 		if (parent != null) {
@@ -62,46 +179,39 @@ public class Layer {
 		if (child != null) {
 			childLayer = child;
 			// connect each node to each node in the child layer
-		    for(Neuron node : neurons) {
-
-		    	for(int i = 0; i < childLayer.numNeurons; i++) {
-		    		node.connectNode(childLayer.neurons[i]);
-		    		// 重みとバイアス重みを初期化する: initialize the weights
-		    		node.setWeight(i, rand.nextInt(200) / 100.0 - 1);
-		    	}
-		    }
+			int numWeights = numNeurons * childLayer.numNeurons;
+			if (offHeap) {
+				weightBuffer = allocate((long) numNeurons * childLayer.numNeurons, precision.isFloatStorage() ? 4 : 8);
+			} else if (precision.isFloatStorage()) {
+				floatWeights = new float[numWeights];
+			} else {
+				weights = new double[numWeights];
+			}
+			for (int i = 0; i < numWeights; i++) {
+				// 重みとバイアス重みを初期化する: initialize the weights
+				setWeight(i, rand.nextInt(200) / 100.0 - 1);
+			}
 		    if(useBias) {
 		    	biasValues = new double[childLayer.numNeurons];
-		    	biasWeights = new double[childLayer.numNeurons];
+				if (offHeap) {
+					biasWeightBuffer = allocate(childLayer.numNeurons, 8);
+				} else {
+					biasWeights = new double[childLayer.numNeurons];
+				}
 				// バイアスも-1.0〜1.0
-				for (int i = 0; i < biasWeights.length; i++) {
-					biasWeights[i] = rand.nextInt(200) / 100.0 - 1;
+				for (int i = 0; i < childLayer.numNeurons; i++) {
+					setBiasWeight(i, rand.nextInt(200) / 100.0 - 1);
 				}
 				for(int i = 0; i < biasValues.length; i++) {
 					biasValues[i] = -1;
 				}
 		    }
 		} else {
-			 for(Neuron node : neurons) {
-				 node.setWeights(null);
-			 }
+			 weights = null;
+			 floatWeights = null;
 			 biasValues = null;
 		}
-		
-		for (int i = 0; i < numNeurons; i++) {
-			neurons[i].setValue(0);
-			teacherSignals[i] = 0;
-			errors[i] = 0;
-		}
-		if(childLayer != null) {
-
-			for(Neuron node : neurons) {
-	    		for(int i = 0; i < node.getAllLinked().size(); i++) {
-	    			// 重みとバイアス重みを初期化する: initialize the weights 
-	    			node.setWeight(i, rand.nextInt(200) / 100.0 - 1); 
-	    		}
-	    	}
-		}
+		setOptimizer(optimizer);
 	}
 	
 	/**
@@ -111,20 +221,29 @@ public class Layer {
 	public void calculateErrors() {
 		if (childLayer == null) { // 出力層: output layer
 			for (int i = 0; i < numNeurons; i++) {
-				errors[i] = (teacherSignals[i] - neurons[i].getValue()) * neurons[i].getValue() * (1.0 - neurons[i].getValue());
+				errors[i] = teacherSignals[i] - values[i];
 			}
+			activation.derivative(values, errors, 0, numNeurons);
 		} else if (parentLayer == null) { // 入力層: input layer
-			for (int i = 0; i < numNeurons; i++) {
-				errors[i] = 0.0;
-			}
+			Arrays.fill(errors, 0.0);
 		} else { // 中間層: middle layer
-			for (int i = 0; i < numNeurons; i++) {
-				double sum = 0;
-				for (int j = 0; j < neurons[i].getAllLinked().size(); j++) {
-					sum += childLayer.errors[j] * neurons[i].getWeight(j);
+			int numChildNeurons = childLayer.numNeurons;
+			double[] childErrors = childLayer.errors;
+			Arrays.fill(errors, 0.0);
+			for (int j = 0; j < numChildNeurons; j++) {
+				if (weightBuffer != null) {
+					if (precision.isFloatStorage()) {
+						Matrix.axpyFloats(childErrors[j], weightBuffer, j * numNeurons, errors, 0, numNeurons);
+					} else {
+						Matrix.axpyDoubles(childErrors[j], weightBuffer, j * numNeurons, errors, 0, numNeurons);
+					}
+				} else if (floatWeights != null) {
+					Matrix.axpy(childErrors[j], floatWeights, j * numNeurons, errors, 0, numNeurons);
+				} else {
+					Matrix.axpy(childErrors[j], weights, j * numNeurons, errors, 0, numNeurons);
 				}
-				errors[i] = sum * neurons[i].getValue() * (1.0 - neurons[i].getValue());
 			}
+			activation.derivative(values, errors, 0, numNeurons);
 		}
 	}
 	
@@ -134,18 +253,81 @@ public class Layer {
 	 */
 	public void adjustWeights() {
 		if (childLayer != null) {
+			int numChildNeurons = childLayer.numNeurons;
+			double[] childErrors = childLayer.errors;
+			step++;
+			double[] coefficients = getCoefficients();
 			// 重みを調整する: adjust the wegihts
-			for (int i = 0; i < numNeurons; i++) {
-				for (int j = 0; j < neurons[i].getAllLinked().size(); j++) {
-					neurons[i].setWeight(j, neurons[i].getWeight(j)
-							+ learningRate * childLayer.errors[j] * neurons[i].getValue());
+			if (numActive >= 0) {
+				adjustActiveWeights(childErrors, coefficients);
+			} else {
+				if (precision.isFloatStorage()) {
+					for (int i = 0; i < numNeurons; i++) {
+						floatValues[i] = (float) values[i];
+					}
+				}
+				for (int j = 0; j < numChildNeurons; j++) {
+					if (weightBuffer != null) {
+						if (precision.isFloatStorage()) {
+							update(weightBuffer, weightStateBuffers, j * numNeurons, numNeurons, childErrors[j], floatValues, 0,
+									coefficients);
+						} else {
+							update(weightBuffer, weightStateBuffers, j * numNeurons, numNeurons, childErrors[j], values, 0,
+									coefficients);
+						}
+					} else if (floatWeights != null) {
+						optimizer.update(floatWeights, j * numNeurons, numNeurons, childErrors[j], floatValues, 0,
+								floatWeightStates, learningRate, coefficients, step);
+					} else {
+						optimizer.update(weights, j * numNeurons, numNeurons, childErrors[j], values, 0,
+								weightStates, learningRate, coefficients, step);
+					}
 				}
 			}
 
 			if(useBias) {
-				for(int i = 0; i < childLayer.numNeurons; i++) {
-					biasWeights[i] += learningRate * childLayer.errors[i] * biasValues[i];
+				for(int i = 0; i < numChildNeurons; i++) {
+					biasGradients[i] = childErrors[i] * biasValues[i];
+				}
+				if (biasWeightBuffer != null) {
+					update(biasWeightBuffer, biasStateBuffers, 0, numChildNeurons, 1.0, biasGradients, 0, null);
+				} else {
+					optimizer.update(biasWeights, 0, numChildNeurons, 1.0, biasGradients, 0, biasStates, learningRate, null,
+							step);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 非零の値の重みだけを調整する
+	 * adjust only the weights of the non-zero values. Every other weight's
+	 * gradient is zero, so with SGD this is exactly the dense update; stateful
+	 * optimizers leave the skipped weights and their state untouched until
+	 * their input is non-zero again.
+	 */
+	private void adjustActiveWeights(double[] childErrors, double[] coefficients) {
+		int numChildNeurons = childLayer.numNeurons;
+		if (precision.isFloatStorage()) {
+			for (int k = 0; k < numActive; k++) {
+				floatValues[activeIndices[k]] = (float) values[activeIndices[k]];
+			}
+		}
+		for (int j = 0; j < numChildNeurons; j++) {
+			if (weightBuffer != null) {
+				if (precision.isFloatStorage()) {
+					update(weightBuffer, weightStateBuffers, j * numNeurons, activeIndices, numActive, childErrors[j],
+							floatValues, coefficients);
+				} else {
+					update(weightBuffer, weightStateBuffers, j * numNeurons, activeIndices, numActive, childErrors[j],
+							values, coefficients);
 				}
+			} else if (floatWeights != null) {
+				optimizer.update(floatWeights, j * numNeurons, activeIndices, numActive, childErrors[j], floatValues,
+						floatWeightStates, learningRate, coefficients, step);
+			} else {
+				optimizer.update(weights, j * numNeurons, activeIndices, numActive, childErrors[j], values,
+						weightStates, learningRate, coefficients, step);
 			}
 		}
 	}
@@ -155,46 +337,745 @@ public class Layer {
 	 * clear each layer's neuron values
 	 */
 	public void clearAllValues() {
-		for (int i = 0; i < numNeurons; i++) {
-			neurons[i].setValue(0);
+		Arrays.fill(values, 0);
+		numActive = -1;
+	}
+	
+	/**
+	 * 疎な値を設定する
+	 * set this layer's values from index/value pairs, every other value is zero.
+	 * Until a value is set densely again, propagating from this layer only
+	 * visits the weights of the given indices.
+	 * 
+	 * @param indices 番号: ascending indices of the non-zero values
+	 * @param values 値: one value per index
+	 */
+	public void setSparseValues(int[] indices, double[] values) {
+		checkSparse(indices, values);
+		if (activeIndices == null) {
+			activeIndices = new int[numNeurons];
+		}
+		Arrays.fill(this.values, 0);
+		for (int k = 0; k < indices.length; k++) {
+			this.values[indices[k]] = values[k];
+		}
+		System.arraycopy(indices, 0, activeIndices, 0, indices.length);
+		numActive = indices.length;
+	}
+	
+	/**
+	 * 疎な値を確認する: check that index/value pairs fit this layer
+	 */
+	void checkSparse(int[] indices, double[] values) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("Got " + indices.length + " indices but " + values.length + " values.");
+		}
+		for (int k = 0; k < indices.length; k++) {
+			if (indices[k] < 0 || indices[k] >= numNeurons || (k > 0 && indices[k] <= indices[k - 1])) {
+				throw new IllegalArgumentException("Indices must be ascending and in [0, " + numNeurons + "): "
+						+ Arrays.toString(indices));
+			}
 		}
 	}
 	
 	/**
 	 * この層の各ニューロンの活性値を計算する
-	 * calculate the neuron value for every neuron in this layer
+	 * calculate the neuron value for every neuron in this layer from the parent layer's values.
+	 * Each value is one contiguous dot product over the parent layer plus the bias term.
 	 */
 	public void calculateNeuronValues() {
-		double sum;
-		if (childLayer != null) {
-			for (Neuron thisNode : neurons) {
-				// dont need to run values of input layer through function
-				if(parentLayer != null) {
-					thisNode.setValue(sigmoid(thisNode.getValue()));
+		// dont need to run values of input layer through function
+		if (parentLayer == null) {
+			return;
+		}
+		int numParentNeurons = parentLayer.numNeurons;
+		double[] parentValues = parentLayer.values;
+		for (int j = 0; j < numNeurons; j++) {
+			double sum;
+			if (parentLayer.numActive >= 0) {
+				sum = parentLayer.activeDot(j * numParentNeurons);
+			} else if (parentLayer.weightBuffer != null) {
+				sum = parentLayer.precision.isFloatStorage()
+						? Matrix.dotFloats(parentValues, 0, parentLayer.weightBuffer, j * numParentNeurons, numParentNeurons)
+						: Matrix.dotDoubles(parentValues, 0, parentLayer.weightBuffer, j * numParentNeurons, numParentNeurons);
+			} else {
+				sum = parentLayer.floatWeights != null
+						? Matrix.dot(parentValues, 0, parentLayer.floatWeights, j * numParentNeurons, numParentNeurons)
+						: Matrix.dot(parentValues, 0, parentLayer.weights, j * numParentNeurons, numParentNeurons);
+			}
+			if (parentLayer.useBias) {
+				sum += parentLayer.biasValues[j] * parentLayer.getBiasWeight(j);
+			}
+			values[j] = sum;
+		}
+		activation.apply(values, 0, numNeurons);
+	}
+	
+	/*
+	 * 非零の値だけの内積: the dot product of the non-zero values with the weight row starting at row
+	 */
+	private double activeDot(int row) {
+		double sum = 0.0;
+		for (int k = 0; k < numActive; k++) {
+			int i = activeIndices[k];
+			sum += values[i] * getWeight(row + i);
+		}
+		return sum;
+	}
+	
+	/**
+	 * バッチの子層の活性値を計算する
+	 * calculate the child layer's activations for a whole batch: childActivations = f(activations * W^T + bias)
+	 * @param activations この層の活性値: batchSize x numNeurons
+	 * @param childActivations 子層の活性値: batchSize x childLayer.numNeurons, overwritten
+	 */
+	void feedForwardBatch(double[] activations, double[] childActivations, int batchSize) {
+		int numChildNeurons = childLayer.numNeurons;
+		if (weightBuffer != null) {
+			Matrix.multiplyTransposeBDoubles(activations, weightBuffer, childActivations, batchSize, numNeurons,
+					numChildNeurons);
+		} else {
+			Matrix.multiplyTransposeB(activations, weights, childActivations, batchSize, numNeurons, numChildNeurons);
+		}
+		if (useBias) {
+			for (int b = 0; b < batchSize; b++) {
+				int row = b * numChildNeurons;
+				for (int j = 0; j < numChildNeurons; j++) {
+					childActivations[row + j] += biasValues[j] * getBiasWeight(j);
 				}
-				for (int i = 0; i < thisNode.getAllLinked().size(); i++) {
-						sum = 0.0;
-						sum += thisNode.getValue() * thisNode.getWeight(i);
-						if(useBias) {
-							sum += biasValues[i] * biasWeights[i];
-						}
-						thisNode.getAllLinked().get(i).setValue(thisNode.getAllLinked().get(i).getValue() + sum);
+			}
+		}
+		for (int b = 0; b < batchSize; b++) {
+			childLayer.activation.apply(childActivations, b * numChildNeurons, numChildNeurons);
+		}
+	}
+
+	/**
+	 * 疎な入力から子層の活性値を計算する
+	 * calculate the child layer's activations for one sparse input, visiting only
+	 * the weights of its non-zero values
+	 * @param indices 番号: ascending indices of the non-zero values
+	 * @param values 値: one value per index
+	 * @param childActivations 子層の活性値: childLayer.numNeurons, overwritten
+	 */
+	void feedForwardSparse(int[] indices, double[] values, double[] childActivations) {
+		int numChildNeurons = childLayer.numNeurons;
+		for (int j = 0; j < numChildNeurons; j++) {
+			int row = j * numNeurons;
+			double sum = 0.0;
+			for (int k = 0; k < indices.length; k++) {
+				sum += values[k] * getWeight(row + indices[k]);
+			}
+			if (useBias) {
+				sum += biasValues[j] * getBiasWeight(j);
+			}
+			childActivations[j] = sum;
+		}
+		childLayer.activation.apply(childActivations, 0, numChildNeurons);
+	}
+
+	/**
+	 * 単精度の疎な入力から子層の活性値を計算する
+	 * single precision {@link #feedForwardSparse(int[], double[], double[])}
+	 */
+	void feedForwardSparse(int[] indices, double[] values, float[] childActivations) {
+		int numChildNeurons = childLayer.numNeurons;
+		for (int j = 0; j < numChildNeurons; j++) {
+			int row = j * numNeurons;
+			double sum = 0.0;
+			for (int k = 0; k < indices.length; k++) {
+				sum += values[k] * getWeight(row + indices[k]);
+			}
+			if (useBias) {
+				sum += biasValues[j] * getBiasWeight(j);
+			}
+			childActivations[j] = (float) sum;
+		}
+		childLayer.activation.apply(childActivations, 0, numChildNeurons);
+	}
+
+	/**
+	 * バッチの誤差を計算する
+	 * calculate this layer's errors for a whole batch. For the output layer the
+	 * errors come from the teacher signals, otherwise they are propagated back
+	 * from the child layer's errors through the weights.
+	 * @param activations この層の活性値: batchSize x numNeurons
+	 * @param signals 教師信号(出力層), 子層の誤差(中間層): teacher signals, or the child layer's errors
+	 * @param errors この層の誤差: batchSize x numNeurons, overwritten
+	 */
+	void calculateErrorsBatch(double[] activations, double[] signals, double[] errors, int batchSize) {
+		int n = batchSize * numNeurons;
+		if (childLayer == null) { // 出力層: output layer
+			for (int i = 0; i < n; i++) {
+				errors[i] = signals[i] - activations[i];
+			}
+		} else {
+			propagateErrorsBatch(signals, errors, batchSize);
+		}
+		for (int b = 0; b < batchSize; b++) {
+			activation.derivative(activations, errors, b * numNeurons, numNeurons);
+		}
+	}
+
+	/**
+	 * 誤差を逆伝播する
+	 * propagate the child layer's errors back through the weights for a whole
+	 * batch, errors = childErrors * W, before any derivative is applied
+	 * @param childErrors 子層の誤差: batchSize x childLayer.numNeurons
+	 * @param errors この層の誤差: batchSize x numNeurons, overwritten
+	 */
+	void propagateErrorsBatch(double[] childErrors, double[] errors, int batchSize) {
+		if (weightBuffer != null) {
+			Matrix.multiplyDoubles(childErrors, weightBuffer, errors, batchSize, childLayer.numNeurons, numNeurons);
+		} else {
+			Matrix.multiply(childErrors, weights, errors, batchSize, childLayer.numNeurons, numNeurons);
+		}
+	}
+
+	/**
+	 * 単精度の誤差を逆伝播する
+	 * single precision {@link #propagateErrorsBatch(double[], double[], int)}
+	 */
+	void propagateErrorsBatch(float[] childErrors, float[] errors, int batchSize) {
+		if (weightBuffer != null) {
+			Matrix.multiplyFloats(childErrors, weightBuffer, errors, batchSize, childLayer.numNeurons, numNeurons);
+		} else {
+			Matrix.multiply(childErrors, floatWeights, errors, batchSize, childLayer.numNeurons, numNeurons);
+		}
+	}
+
+	/**
+	 * バッチの勾配を計算する
+	 * sum the weight gradients over a batch: gradients = childErrors^T * activations
+	 * @param activations この層の活性値: batchSize x numNeurons
+	 * @param childErrors 子層の誤差: batchSize x childLayer.numNeurons
+	 * @param gradients 重みの勾配: childLayer.numNeurons x numNeurons, overwritten
+	 * @param biasGradients バイアス重みの勾配: childLayer.numNeurons, overwritten
+	 */
+	void calculateGradientsBatch(double[] activations, double[] childErrors, double[] gradients,
+			double[] biasGradients, int batchSize) {
+		int numChildNeurons = childLayer.numNeurons;
+		Matrix.multiplyTransposeA(childErrors, activations, gradients, batchSize, numChildNeurons, numNeurons);
+		if (useBias) {
+			Arrays.fill(biasGradients, 0.0);
+			for (int b = 0; b < batchSize; b++) {
+				int row = b * numChildNeurons;
+				for (int j = 0; j < numChildNeurons; j++) {
+					biasGradients[j] += childErrors[row + j] * biasValues[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * 勾配によると、結合荷重を調整する
+	 * adjust the weights by the given gradients
+	 * @param scale 勾配の係数: factor applied to the gradients, e.g. 1 / batchSize
+	 */
+	void adjustWeights(double[] gradients, double[] biasGradients, double scale) {
+		step++;
+		double[] coefficients = getCoefficients();
+		if (weightBuffer != null) {
+			if (coefficients == null) {
+				update(weightBuffer, weightStateBuffers, 0, getNumWeights(), scale, gradients, 0, null);
+			} else {
+				for (int j = 0; j < childLayer.numNeurons; j++) {
+					update(weightBuffer, weightStateBuffers, j * numNeurons, numNeurons, scale, gradients, j * numNeurons,
+							coefficients);
+				}
+			}
+		} else if (coefficients == null) {
+			optimizer.update(weights, 0, weights.length, scale, gradients, 0, weightStates, learningRate, null, step);
+		} else {
+			for (int j = 0; j < childLayer.numNeurons; j++) {
+				optimizer.update(weights, j * numNeurons, numNeurons, scale, gradients, j * numNeurons, weightStates,
+						learningRate, coefficients, step);
+			}
+		}
+		if (biasWeightBuffer != null) {
+			update(biasWeightBuffer, biasStateBuffers, 0, childLayer.numNeurons, scale, biasGradients, 0, null);
+		} else if (useBias) {
+			optimizer.update(biasWeights, 0, biasWeights.length, scale, biasGradients, 0, biasStates, learningRate,
+					null, step);
+		}
+	}
+
+	/**
+	 * 単精度のバッチの子層の活性値を計算する
+	 * single precision {@link #feedForwardBatch(double[], double[], int)}
+	 */
+	void feedForwardBatch(float[] activations, float[] childActivations, int batchSize) {
+		int numChildNeurons = childLayer.numNeurons;
+		if (weightBuffer != null) {
+			Matrix.multiplyTransposeBFloats(activations, weightBuffer, childActivations, batchSize, numNeurons,
+					numChildNeurons, precision == Precision.MIXED);
+		} else {
+			Matrix.multiplyTransposeB(activations, floatWeights, childActivations, batchSize, numNeurons, numChildNeurons,
+					precision == Precision.MIXED);
+		}
+		if (useBias) {
+			for (int b = 0; b < batchSize; b++) {
+				int row = b * numChildNeurons;
+				for (int j = 0; j < numChildNeurons; j++) {
+					childActivations[row + j] += (float) (biasValues[j] * getBiasWeight(j));
+				}
+			}
+		}
+		for (int b = 0; b < batchSize; b++) {
+			childLayer.activation.apply(childActivations, b * numChildNeurons, numChildNeurons);
+		}
+	}
+
+	/**
+	 * 単精度のバッチの誤差を計算する
+	 * single precision {@link #calculateErrorsBatch(double[], double[], double[], int)}
+	 */
+	void calculateErrorsBatch(float[] activations, float[] signals, float[] errors, int batchSize) {
+		int n = batchSize * numNeurons;
+		if (childLayer == null) { // 出力層: output layer
+			for (int i = 0; i < n; i++) {
+				errors[i] = signals[i] - activations[i];
+			}
+		} else {
+			propagateErrorsBatch(signals, errors, batchSize);
+		}
+		for (int b = 0; b < batchSize; b++) {
+			activation.derivative(activations, errors, b * numNeurons, numNeurons);
+		}
+	}
+
+	/**
+	 * 単精度のバッチの勾配を計算する
+	 * single precision {@link #calculateGradientsBatch(double[], double[], double[], double[], int)}
+	 */
+	void calculateGradientsBatch(float[] activations, float[] childErrors, float[] gradients,
+			double[] biasGradients, int batchSize) {
+		int numChildNeurons = childLayer.numNeurons;
+		Matrix.multiplyTransposeA(childErrors, activations, gradients, batchSize, numChildNeurons, numNeurons);
+		if (useBias) {
+			Arrays.fill(biasGradients, 0.0);
+			for (int b = 0; b < batchSize; b++) {
+				int row = b * numChildNeurons;
+				for (int j = 0; j < numChildNeurons; j++) {
+					biasGradients[j] += childErrors[row + j] * biasValues[j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * 単精度の勾配によると、結合荷重を調整する
+	 * single precision {@link #adjustWeights(double[], double[], double)}
+	 */
+	void adjustWeights(float[] gradients, double[] biasGradients, double scale) {
+		step++;
+		double[] coefficients = getCoefficients();
+		if (weightBuffer != null) {
+			if (coefficients == null) {
+				update(weightBuffer, weightStateBuffers, 0, getNumWeights(), scale, gradients, 0, null);
+			} else {
+				for (int j = 0; j < childLayer.numNeurons; j++) {
+					update(weightBuffer, weightStateBuffers, j * numNeurons, numNeurons, scale, gradients, j * numNeurons,
+							coefficients);
+				}
+			}
+		} else if (coefficients == null) {
+			optimizer.update(floatWeights, 0, floatWeights.length, scale, gradients, 0, floatWeightStates, learningRate,
+					null, step);
+		} else {
+			for (int j = 0; j < childLayer.numNeurons; j++) {
+				optimizer.update(floatWeights, j * numNeurons, numNeurons, scale, gradients, j * numNeurons,
+						floatWeightStates, learningRate, coefficients, step);
+			}
+		}
+		if (biasWeightBuffer != null) {
+			update(biasWeightBuffer, biasStateBuffers, 0, childLayer.numNeurons, scale, biasGradients, 0, null);
+		} else if (useBias) {
+			optimizer.update(biasWeights, 0, biasWeights.length, scale, biasGradients, 0, biasStates, learningRate,
+					null, step);
+		}
+	}
+
+	/*
+	 * ヒープ外の結合荷重を更新する: run the optimizer over elements [offset, offset + length)
+	 * of an off-heap weight buffer holding doubles and its state buffers, staged
+	 * through the scratch arrays. Learning rate coefficients come a row at a
+	 * time; without them the run is staged STAGE_SIZE elements at a time.
+	 */
+	private void update(ByteBuffer weights, ByteBuffer[] states, int offset, int length, double alpha,
+			double[] gradient, int gradientOffset, double[] coefficients) {
+		int chunk = coefficients == null ? STAGE_SIZE : length;
+		for (int start = 0; start < length; start += chunk) {
+			int count = Math.min(chunk, length - start);
+			get(weights, offset + start, stagedWeights, count);
+			for (int s = 0; s < states.length; s++) {
+				get(states[s], offset + start, stagedStates[s], count);
+			}
+			optimizer.update(stagedWeights, 0, count, alpha, gradient, gradientOffset + start, stagedStates, learningRate,
+					coefficients, step);
+			put(stagedWeights, weights, offset + start, count);
+			for (int s = 0; s < states.length; s++) {
+				put(stagedStates[s], states[s], offset + start, count);
+			}
+		}
+	}
+
+	/*
+	 * 単精度: the same for a buffer holding floats
+	 */
+	private void update(ByteBuffer weights, ByteBuffer[] states, int offset, int length, double alpha,
+			float[] gradient, int gradientOffset, double[] coefficients) {
+		int chunk = coefficients == null ? STAGE_SIZE : length;
+		for (int start = 0; start < length; start += chunk) {
+			int count = Math.min(chunk, length - start);
+			get(weights, offset + start, floatStagedWeights, count);
+			for (int s = 0; s < states.length; s++) {
+				get(states[s], offset + start, floatStagedStates[s], count);
+			}
+			optimizer.update(floatStagedWeights, 0, count, alpha, gradient, gradientOffset + start, floatStagedStates,
+					learningRate, coefficients, step);
+			put(floatStagedWeights, weights, offset + start, count);
+			for (int s = 0; s < states.length; s++) {
+				put(floatStagedStates[s], states[s], offset + start, count);
+			}
+		}
+	}
+
+	/*
+	 * 疎な更新: the indexed update of one row of an off-heap weight buffer holding
+	 * doubles, staging only the visited columns at their own indices
+	 */
+	private void update(ByteBuffer weights, ByteBuffer[] states, int offset, int[] indices, int count, double alpha,
+			double[] gradient, double[] coefficients) {
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			stagedWeights[i] = weights.getDouble((offset + i) * 8);
+			for (int s = 0; s < states.length; s++) {
+				stagedStates[s][i] = states[s].getDouble((offset + i) * 8);
+			}
+		}
+		optimizer.update(stagedWeights, 0, indices, count, alpha, gradient, stagedStates, learningRate, coefficients,
+				step);
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			weights.putDouble((offset + i) * 8, stagedWeights[i]);
+			for (int s = 0; s < states.length; s++) {
+				states[s].putDouble((offset + i) * 8, stagedStates[s][i]);
+			}
+		}
+	}
+
+	private void update(ByteBuffer weights, ByteBuffer[] states, int offset, int[] indices, int count, double alpha,
+			float[] gradient, double[] coefficients) {
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			floatStagedWeights[i] = weights.getFloat((offset + i) * 4);
+			for (int s = 0; s < states.length; s++) {
+				floatStagedStates[s][i] = states[s].getFloat((offset + i) * 4);
+			}
+		}
+		optimizer.update(floatStagedWeights, 0, indices, count, alpha, gradient, floatStagedStates, learningRate,
+				coefficients, step);
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			weights.putFloat((offset + i) * 4, floatStagedWeights[i]);
+			for (int s = 0; s < states.length; s++) {
+				states[s].putFloat((offset + i) * 4, floatStagedStates[s][i]);
+			}
+		}
+	}
+
+	/*
+	 * 学習率係数: the coefficients to apply, or null while they are all 1 so
+	 * the optimizers can take their fast path
+	 */
+	private double[] getCoefficients() {
+		for (double coefficient : learningRateCoefficients) {
+			if (coefficient != 1.0) {
+				return learningRateCoefficients;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 結合荷重を得る: get entry i of the weight matrix, whatever its precision
+	 */
+	double getWeight(int i) {
+		if (weightBuffer != null) {
+			return precision.isFloatStorage() ? weightBuffer.getFloat(i * 4) : weightBuffer.getDouble(i * 8);
+		}
+		return floatWeights != null ? floatWeights[i] : weights[i];
+	}
+
+	/**
+	 * 結合荷重を設定する: set entry i of the weight matrix, whatever its precision
+	 */
+	void setWeight(int i, double weight) {
+		if (weightBuffer != null) {
+			if (precision.isFloatStorage()) {
+				weightBuffer.putFloat(i * 4, (float) weight);
+			} else {
+				weightBuffer.putDouble(i * 8, weight);
+			}
+		} else if (floatWeights != null) {
+			floatWeights[i] = (float) weight;
+		} else {
+			weights[i] = weight;
+		}
+	}
+
+	/**
+	 * バイアスの重みを得る: get the bias weight of child neuron j, wherever it is stored
+	 */
+	double getBiasWeight(int j) {
+		return biasWeightBuffer != null ? biasWeightBuffer.getDouble(j * 8) : biasWeights[j];
+	}
+
+	void setBiasWeight(int j, double weight) {
+		if (biasWeightBuffer != null) {
+			biasWeightBuffer.putDouble(j * 8, weight);
+		} else {
+			biasWeights[j] = weight;
+		}
+	}
+
+	/**
+	 * 結合荷重の数: number of entries in the weight matrix
+	 */
+	int getNumWeights() {
+		return childLayer == null ? 0 : numNeurons * childLayer.numNeurons;
+	}
+
+	/**
+	 * 結合荷重を写す: copy the weights and bias weights of a layer of the same shape and precision
+	 */
+	void copyWeightsFrom(Layer other) {
+		if (weightBuffer != null) {
+			weightBuffer.put(0, other.weightBuffer, 0, weightBuffer.capacity());
+		}
+		if (biasWeightBuffer != null) {
+			biasWeightBuffer.put(0, other.biasWeightBuffer, 0, biasWeightBuffer.capacity());
+		}
+		if (weights != null) {
+			System.arraycopy(other.weights, 0, weights, 0, weights.length);
+		}
+		if (floatWeights != null) {
+			System.arraycopy(other.floatWeights, 0, floatWeights, 0, floatWeights.length);
+		}
+		if (biasWeights != null) {
+			System.arraycopy(other.biasWeights, 0, biasWeights, 0, biasWeights.length);
+		}
+	}
+
+	/*
+	 * 配列と写し合う: copy the weight matrix, the bias weights or the optimizer
+	 * states to or from arrays of their precision, on or off the heap alike
+	 */
+
+	void getWeights(double[] to) {
+		if (weightBuffer != null) {
+			get(weightBuffer, 0, to, to.length);
+		} else {
+			System.arraycopy(weights, 0, to, 0, to.length);
+		}
+	}
+
+	void getWeights(float[] to) {
+		if (weightBuffer != null) {
+			get(weightBuffer, 0, to, to.length);
+		} else {
+			System.arraycopy(floatWeights, 0, to, 0, to.length);
+		}
+	}
+
+	void setWeights(double[] from) {
+		if (weightBuffer != null) {
+			put(from, weightBuffer, 0, from.length);
+		} else {
+			System.arraycopy(from, 0, weights, 0, from.length);
+		}
+	}
+
+	void setWeights(float[] from) {
+		if (weightBuffer != null) {
+			put(from, weightBuffer, 0, from.length);
+		} else {
+			System.arraycopy(from, 0, floatWeights, 0, from.length);
+		}
+	}
+
+	void getBiasWeights(double[] to) {
+		if (biasWeightBuffer != null) {
+			get(biasWeightBuffer, 0, to, to.length);
+		} else {
+			System.arraycopy(biasWeights, 0, to, 0, to.length);
+		}
+	}
+
+	void setBiasWeights(double[] from) {
+		if (biasWeightBuffer != null) {
+			put(from, biasWeightBuffer, 0, from.length);
+		} else {
+			System.arraycopy(from, 0, biasWeights, 0, from.length);
+		}
+	}
+
+	void getWeightStates(double[][] to) {
+		for (int s = 0; s < to.length; s++) {
+			if (weightStateBuffers != null) {
+				get(weightStateBuffers[s], 0, to[s], to[s].length);
+			} else {
+				System.arraycopy(weightStates[s], 0, to[s], 0, to[s].length);
+			}
+		}
+	}
+
+	void getWeightStates(float[][] to) {
+		for (int s = 0; s < to.length; s++) {
+			if (weightStateBuffers != null) {
+				get(weightStateBuffers[s], 0, to[s], to[s].length);
+			} else {
+				System.arraycopy(floatWeightStates[s], 0, to[s], 0, to[s].length);
+			}
+		}
+	}
+
+	void setWeightStates(double[][] from) {
+		for (int s = 0; s < from.length; s++) {
+			if (weightStateBuffers != null) {
+				put(from[s], weightStateBuffers[s], 0, from[s].length);
+			} else {
+				System.arraycopy(from[s], 0, weightStates[s], 0, from[s].length);
+			}
+		}
+	}
+
+	void setWeightStates(float[][] from) {
+		for (int s = 0; s < from.length; s++) {
+			if (weightStateBuffers != null) {
+				put(from[s], weightStateBuffers[s], 0, from[s].length);
+			} else {
+				System.arraycopy(from[s], 0, floatWeightStates[s], 0, from[s].length);
+			}
+		}
+	}
 
-				}	
-			} 
-		} else { 
-			// is the output layer, so just run the values through the sigmoid function
-			for (Neuron thisNode : neurons) {
-				thisNode.setValue(sigmoid(thisNode.getValue()));
+	void getBiasStates(double[][] to) {
+		for (int s = 0; s < to.length; s++) {
+			if (biasStateBuffers != null) {
+				get(biasStateBuffers[s], 0, to[s], to[s].length);
+			} else {
+				System.arraycopy(biasStates[s], 0, to[s], 0, to[s].length);
 			}
 		}
 	}
+
+	void setBiasStates(double[][] from) {
+		for (int s = 0; s < from.length; s++) {
+			if (biasStateBuffers != null) {
+				put(from[s], biasStateBuffers[s], 0, from[s].length);
+			} else {
+				System.arraycopy(from[s], 0, biasStates[s], 0, from[s].length);
+			}
+		}
+	}
+
+	private static void get(ByteBuffer from, int index, double[] to, int length) {
+		for (int i = 0; i < length; i++) {
+			to[i] = from.getDouble((index + i) * 8);
+		}
+	}
+
+	private static void get(ByteBuffer from, int index, float[] to, int length) {
+		for (int i = 0; i < length; i++) {
+			to[i] = from.getFloat((index + i) * 4);
+		}
+	}
+
+	private static void put(double[] from, ByteBuffer to, int index, int length) {
+		for (int i = 0; i < length; i++) {
+			to.putDouble((index + i) * 8, from[i]);
+		}
+	}
+
+	private static void put(float[] from, ByteBuffer to, int index, int length) {
+		for (int i = 0; i < length; i++) {
+			to.putFloat((index + i) * 4, from[i]);
+		}
+	}
+
+	/*
+	 * 直接バッファを確保する: a zeroed little-endian direct buffer of count elements
+	 */
+	private static ByteBuffer allocate(long count, int elementSize) {
+		if (count * elementSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Off-heap arrays are limited to 2 GB, got " + count + " elements of "
+					+ elementSize + " bytes");
+		}
+		return ByteBuffer.allocateDirect((int) (count * elementSize)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * ヒープ外か: whether the weights and optimizer state live in direct buffers
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * 活性化関数: the activation function applied to this layer's sums
+	 */
+	public Activation getActivation() {
+		return activation;
+	}
+	
+	void setActivation(Activation activation) {
+		this.activation = activation;
+	}
 	
 	/**
-	 * シグモイド関数: Sigmoid function
+	 * 最適化手法: the optimizer updating the weights to the child layer
 	 */
-	private double sigmoid(double x) {
-		return (1.0 / (1 + Math.exp(-x)));
+	public Optimizer getOptimizer() {
+		return optimizer;
+	}
+	
+	/**
+	 * 最適化手法を設定する: set the optimizer, starting it from a fresh state
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		this.optimizer = optimizer;
+		step = 0;
+		if (childLayer == null) {
+			return;
+		}
+		int numStates = optimizer.getNumStates();
+		int numWeights = getNumWeights();
+		boolean floatStorage = precision.isFloatStorage();
+		if (offHeap) {
+			weightStateBuffers = new ByteBuffer[numStates];
+			biasStateBuffers = new ByteBuffer[numStates];
+			for (int s = 0; s < numStates; s++) {
+				weightStateBuffers[s] = allocate(numWeights, floatStorage ? 4 : 8);
+				biasStateBuffers[s] = allocate(childLayer.numNeurons, 8);
+			}
+			int stageSize = Math.max(numNeurons, STAGE_SIZE);
+			stagedWeights = new double[stageSize];
+			stagedStates = new double[numStates][stageSize];
+			floatStagedWeights = floatStorage ? new float[stageSize] : null;
+			floatStagedStates = floatStorage ? new float[numStates][stageSize] : null;
+		} else {
+			weightStates = !floatStorage ? new double[numStates][numWeights] : null;
+			floatWeightStates = floatStorage ? new float[numStates][numWeights] : null;
+			biasStates = new double[numStates][childLayer.numNeurons];
+		}
+		biasGradients = new double[childLayer.numNeurons];
+		floatValues = floatStorage ? new float[numNeurons] : null;
 	}
 	
 	public Neuron[] getNeurons() {
@@ -237,8 +1118,14 @@ public class Layer {
 		return teacherSignals;
 	}
 	
+	/**
+	 * 教師信号を設定する: copy the teacher signals, the caller's array is not kept
+	 */
 	public void setTeacherSignals(double[] signals) {
-		teacherSignals = signals;
+		if (signals.length != numNeurons) {
+			throw new IllegalArgumentException("Expected " + numNeurons + " teacher signals but got " + signals.length);
+		}
+		System.arraycopy(signals, 0, teacherSignals, 0, numNeurons);
 	}
 	
 	public void setTeacherSignal(int i, double signal) {
@@ -0,0 +1,26 @@
+package nn;
+
+/**
+ * 学習率のスケジュール: how the learning rate changes from epoch to epoch
+ *
+ * A schedule is asked for the learning rate once at the start of every
+ * epoch, given the mean error of the epoch before it, normally the mean of
+ * {@link NeuralNetwork#calculateError()} over its samples. Schedules driven
+ * by the error keep state between calls, so use one instance per training
+ * run. See {@link LearningRateSchedules} for the built-in schedules.
+ *
+ * @author kenneth cason
+ */
+public interface LearningRateSchedule {
+
+	/**
+	 * 学習率を得る
+	 * the learning rate to train the given epoch with
+	 *
+	 * @param epoch 世代: 0 for the first epoch, then 1, 2, ...
+	 * @param error 誤差: the mean error of the previous epoch, NaN before the first epoch
+	 * @return 学習率: the learning rate
+	 */
+	double getLearningRate(int epoch, double error);
+
+}
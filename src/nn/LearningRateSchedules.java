@@ -0,0 +1,155 @@
+package nn;
+
+/**
+ * 学習率のスケジュール: the built-in learning rate schedules
+ *
+ * @author kenneth cason
+ */
+public final class LearningRateSchedules {
+
+	private LearningRateSchedules() {
+	}
+
+	/**
+	 * 一定: always the same learning rate
+	 */
+	public static LearningRateSchedule constant(final double rate) {
+		return new LearningRateSchedule() {
+			public double getLearningRate(int epoch, double error) {
+				return rate;
+			}
+		};
+	}
+
+	/**
+	 * 段階的減衰: rate * gamma^(epoch / stepSize), dropping by gamma every stepSize epochs
+	 */
+	public static LearningRateSchedule step(final double rate, final int stepSize, final double gamma) {
+		if (stepSize < 1) {
+			throw new IllegalArgumentException("stepSize must be at least 1: " + stepSize);
+		}
+		return new LearningRateSchedule() {
+			public double getLearningRate(int epoch, double error) {
+				return rate * Math.pow(gamma, epoch / stepSize);
+			}
+		};
+	}
+
+	/**
+	 * 指数減衰: rate * gamma^epoch
+	 */
+	public static LearningRateSchedule exponential(final double rate, final double gamma) {
+		return new LearningRateSchedule() {
+			public double getLearningRate(int epoch, double error) {
+				return rate * Math.pow(gamma, epoch);
+			}
+		};
+	}
+
+	/**
+	 * 余弦減衰: anneal from rate down to minRate along half a cosine over
+	 * numEpochs epochs, staying at minRate after that
+	 */
+	public static LearningRateSchedule cosine(final double rate, final double minRate, final int numEpochs) {
+		if (numEpochs < 1) {
+			throw new IllegalArgumentException("numEpochs must be at least 1: " + numEpochs);
+		}
+		return new LearningRateSchedule() {
+			public double getLearningRate(int epoch, double error) {
+				double progress = Math.min(epoch, numEpochs) / (double) numEpochs;
+				return minRate + (rate - minRate) * (1 + Math.cos(Math.PI * progress)) / 2;
+			}
+		};
+	}
+
+	/**
+	 * ウォームアップ: ramp up linearly over the first numEpochs epochs, epoch e
+	 * training at (e + 1) / numEpochs of the schedule's rate, then follow the
+	 * schedule. The schedule sees the epochs counted from the end of the warm-up.
+	 */
+	public static LearningRateSchedule warmUp(final int numEpochs, final LearningRateSchedule schedule) {
+		if (numEpochs < 0) {
+			throw new IllegalArgumentException("numEpochs must not be negative: " + numEpochs);
+		}
+		return new LearningRateSchedule() {
+			public double getLearningRate(int epoch, double error) {
+				if (epoch < numEpochs) {
+					return schedule.getLearningRate(0, Double.NaN) * (epoch + 1) / numEpochs;
+				}
+				return schedule.getLearningRate(epoch - numEpochs, epoch == numEpochs ? Double.NaN : error);
+			}
+		};
+	}
+
+	/**
+	 * 停滞時の減衰: reduce-on-plateau with a threshold of 0 and a minimum rate of 0
+	 *
+	 * @see #reduceOnPlateau(double, double, int, double, double)
+	 */
+	public static LearningRateSchedule reduceOnPlateau(double rate, double factor, int patience) {
+		return reduceOnPlateau(rate, factor, patience, 0.0, 0.0);
+	}
+
+	/**
+	 * 停滞時の減衰: multiply the rate by factor whenever the error has not
+	 * improved on the best error so far by more than threshold (relative) for
+	 * patience epochs in a row, never going below minRate
+	 *
+	 * @param rate 初期の学習率: the starting learning rate
+	 * @param factor 減衰率: what to multiply the rate by on a plateau, in (0, 1)
+	 * @param patience 我慢: how many epochs without improvement to allow
+	 * @param threshold 閾値: the relative improvement that counts, e.g. 1e-4
+	 * @param minRate 最小の学習率: the lowest rate to reduce to
+	 */
+	public static LearningRateSchedule reduceOnPlateau(double rate, double factor, int patience, double threshold,
+			double minRate) {
+		if (factor <= 0 || factor >= 1) {
+			throw new IllegalArgumentException("factor must be between 0 and 1: " + factor);
+		}
+		if (patience < 0) {
+			throw new IllegalArgumentException("patience must not be negative: " + patience);
+		}
+		return new ReduceOnPlateau(rate, factor, patience, threshold, minRate);
+	}
+
+	private static class ReduceOnPlateau implements LearningRateSchedule {
+
+		private final double factor;
+
+		private final int patience;
+
+		private final double threshold;
+
+		private final double minRate;
+
+		private double rate; // 現在の学習率: the current learning rate
+
+		private double best = Double.POSITIVE_INFINITY; // 最良の誤差: the lowest error so far
+
+		private int numBadEpochs; // 改善しなかった世代数: epochs since the error last improved
+
+		ReduceOnPlateau(double rate, double factor, int patience, double threshold, double minRate) {
+			this.rate = rate;
+			this.factor = factor;
+			this.patience = patience;
+			this.threshold = threshold;
+			this.minRate = minRate;
+		}
+
+		public double getLearningRate(int epoch, double error) {
+			if (Double.isNaN(error)) {
+				return rate;
+			}
+			if (error < best * (1 - threshold)) {
+				best = error;
+				numBadEpochs = 0;
+			} else if (++numBadEpochs > patience) {
+				rate = Math.max(rate * factor, minRate);
+				numBadEpochs = 0;
+			}
+			return rate;
+		}
+
+	}
+
+}
@@ -0,0 +1,132 @@
+package nn;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * メモリマップされたニューラルネット: an inference-only network whose weights live off the heap
+ *
+ * The weights stay in the memory-mapped file written by
+ * {@link NeuralNetworkIO#save(NeuralNetwork, java.io.File)}, or in direct
+ * buffers filled by {@link #copyOf(NeuralNetwork)}; they are never copied onto
+ * the heap, so the heap stays the same size however large the model is,
+ * opening even a very large model file is immediate and the page cache is
+ * shared between processes serving the same file. The dot products read the
+ * buffers through the {@link Kernels}, with SIMD where available.
+ * {@link #predict(double[])} only reads the weights and may be called from
+ * many threads at once.
+ *
+ * @author kenneth cason
+ */
+public class MappedNetwork {
+
+	private final NeuralNetworkConfig config;
+
+	private final int[] sizes; // 各層の神経数: number of neurons per layer
+
+	/*
+	 * 結合荷重: numChildNeurons x numNeurons little-endian doubles per layer, or
+	 * floats when the network stores its weights as float
+	 */
+	private final ByteBuffer[] weights;
+
+	private final boolean floatStorage; // 単精度: whether weights holds floats
+
+	private final DoubleBuffer[] biasWeights; // バイアスの重み: numChildNeurons per layer, or null
+
+	/*
+	 * 各スレッドの活性値: per-thread activation buffers
+	 */
+	private final ThreadLocal<double[][]> activations = new ThreadLocal<double[][]>() {
+		protected double[][] initialValue() {
+			double[][] values = new double[sizes.length][];
+			for (int l = 0; l < sizes.length; l++) {
+				values[l] = new double[sizes[l]];
+			}
+			return values;
+		}
+	};
+
+	MappedNetwork(NeuralNetworkConfig config, int[] sizes, ByteBuffer[] weights, DoubleBuffer[] biasWeights) {
+		this.config = config;
+		this.sizes = sizes;
+		this.weights = weights;
+		this.floatStorage = config.precision.isFloatStorage();
+		this.biasWeights = biasWeights;
+	}
+
+	/**
+	 * 直接バッファに写す
+	 * copy a network's weights into direct buffers outside the heap, for serving
+	 * a network that was just trained without writing it to a file first
+	 *
+	 * @param network ニューラルネット: any precision, later training does not affect the copy
+	 * @return 推論専用のニューラルネット: an inference-only copy of the network
+	 */
+	public static MappedNetwork copyOf(NeuralNetwork network) {
+		NeuralNetworkConfig config = network.getConfig().copy();
+		Layer[] layers = network.getLayers();
+		int[] sizes = config.getLayerSizes();
+		boolean floatStorage = config.precision.isFloatStorage();
+		ByteBuffer[] weights = new ByteBuffer[sizes.length - 1];
+		DoubleBuffer[] biasWeights = new DoubleBuffer[sizes.length - 1];
+		for (int l = 0; l < sizes.length - 1; l++) {
+			Layer layer = layers[l];
+			int numWeights = layer.getNumWeights();
+			weights[l] = ByteBuffer.allocateDirect(numWeights * (floatStorage ? 4 : 8)).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < numWeights; i++) {
+				if (floatStorage) {
+					weights[l].putFloat(i * 4, (float) layer.getWeight(i));
+				} else {
+					weights[l].putDouble(i * 8, layer.getWeight(i));
+				}
+			}
+			if (config.bias) {
+				ByteBuffer bias = ByteBuffer.allocateDirect(sizes[l + 1] * 8).order(ByteOrder.LITTLE_ENDIAN);
+				biasWeights[l] = bias.asDoubleBuffer();
+				for (int j = 0; j < sizes[l + 1]; j++) {
+					biasWeights[l].put(j, layer.getBiasWeight(j));
+				}
+			}
+		}
+		return new MappedNetwork(config, sizes, weights, biasWeights);
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one input
+	 *
+	 * @param input 入力: one value per input node
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(double[] input) {
+		if (input.length != sizes[0]) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		double[][] values = activations.get();
+		System.arraycopy(input, 0, values[0], 0, input.length);
+		for (int l = 0; l < sizes.length - 1; l++) {
+			double[] parent = values[l];
+			double[] child = values[l + 1];
+			int numParentNeurons = sizes[l];
+			for (int j = 0; j < sizes[l + 1]; j++) {
+				int row = j * numParentNeurons;
+				double sum = floatStorage
+						? Matrix.dotFloats(parent, 0, weights[l], row, numParentNeurons)
+						: Matrix.dotDoubles(parent, 0, weights[l], row, numParentNeurons);
+				if (config.bias) {
+					sum -= biasWeights[l].get(j); // バイアス値は-1: the bias value is -1
+				}
+				child[j] = sum;
+			}
+			config.getActivation(l + 1).apply(child, 0, child.length);
+		}
+		return values[sizes.length - 1].clone();
+	}
+
+	public NeuralNetworkConfig getConfig() {
+		return config;
+	}
+
+}
@@ -0,0 +1,354 @@
+package nn;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 行列演算: dense matrix kernels
+ *
+ * All matrices are row-major double[] arrays, or float[] arrays in single
+ * precision, and a weight matrix may also be held off the heap in a
+ * ByteBuffer. The products are cache blocked so that a tile of each operand
+ * stays resident while the inner loop streams over contiguous memory. The inner loops run on the {@link Kernels} backend
+ * selected at startup.
+ *
+ * @author kenneth cason
+ */
+final class Matrix {
+
+	/*
+	 * ブロックの大きさ: tile edge length, chosen so that three tiles of doubles fit in L1/L2
+	 */
+	static final int BLOCK_SIZE = 64;
+
+	static final Kernels KERNELS = selectKernels();
+
+	private Matrix() {
+	}
+
+	/**
+	 * C = A * B
+	 * @param a　m x k
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiply(double[] a, double[] b, double[] c, int m, int k, int n) {
+		Arrays.fill(c, 0, m * n, 0.0);
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+				int pMax = Math.min(p0 + BLOCK_SIZE, k);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int i = i0; i < iMax; i++) {
+						int cRow = i * n;
+						for (int p = p0; p < pMax; p++) {
+							KERNELS.axpy(a[i * k + p], b, p * n + j0, c, cRow + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A^T * B
+	 * @param a　k x m
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyTransposeA(double[] a, double[] b, double[] c, int k, int m, int n) {
+		Arrays.fill(c, 0, m * n, 0.0);
+		for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+			int pMax = Math.min(p0 + BLOCK_SIZE, k);
+			for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+				int iMax = Math.min(i0 + BLOCK_SIZE, m);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int p = p0; p < pMax; p++) {
+						int aRow = p * m;
+						int bRow = p * n;
+						for (int i = i0; i < iMax; i++) {
+							KERNELS.axpy(a[aRow + i], b, bRow + j0, c, i * n + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B^T
+	 * @param a　m x k
+	 * @param b　n x k
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyTransposeB(double[] a, double[] b, double[] c, int m, int k, int n) {
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+				int jMax = Math.min(j0 + BLOCK_SIZE, n);
+				for (int i = i0; i < iMax; i++) {
+					int aRow = i * k;
+					for (int j = j0; j < jMax; j++) {
+						c[i * n + j] = KERNELS.dot(a, aRow, b, j * k, k);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B in single precision
+	 * @param a　m x k
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiply(float[] a, float[] b, float[] c, int m, int k, int n) {
+		Arrays.fill(c, 0, m * n, 0.0f);
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+				int pMax = Math.min(p0 + BLOCK_SIZE, k);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int i = i0; i < iMax; i++) {
+						int cRow = i * n;
+						for (int p = p0; p < pMax; p++) {
+							KERNELS.axpy(a[i * k + p], b, p * n + j0, c, cRow + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A^T * B in single precision
+	 * @param a　k x m
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyTransposeA(float[] a, float[] b, float[] c, int k, int m, int n) {
+		Arrays.fill(c, 0, m * n, 0.0f);
+		for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+			int pMax = Math.min(p0 + BLOCK_SIZE, k);
+			for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+				int iMax = Math.min(i0 + BLOCK_SIZE, m);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int p = p0; p < pMax; p++) {
+						int aRow = p * m;
+						int bRow = p * n;
+						for (int i = i0; i < iMax; i++) {
+							KERNELS.axpy(a[aRow + i], b, bRow + j0, c, i * n + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B^T in single precision
+	 * @param a　m x k
+	 * @param b　n x k
+	 * @param c　m x n, overwritten
+	 * @param doubleSums 内積を倍精度で累算するか: accumulate the dot products in double
+	 */
+	static void multiplyTransposeB(float[] a, float[] b, float[] c, int m, int k, int n, boolean doubleSums) {
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+				int jMax = Math.min(j0 + BLOCK_SIZE, n);
+				for (int i = i0; i < iMax; i++) {
+					int aRow = i * k;
+					for (int j = j0; j < jMax; j++) {
+						c[i * n + j] = doubleSums
+								? (float) KERNELS.dotDouble(a, aRow, b, j * k, k)
+								: KERNELS.dot(a, aRow, b, j * k, k);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B with B held off the heap as doubles, see {@link Kernels#dotDoubles}
+	 * @param a　m x k
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyDoubles(double[] a, ByteBuffer b, double[] c, int m, int k, int n) {
+		Arrays.fill(c, 0, m * n, 0.0);
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+				int pMax = Math.min(p0 + BLOCK_SIZE, k);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int i = i0; i < iMax; i++) {
+						int cRow = i * n;
+						for (int p = p0; p < pMax; p++) {
+							KERNELS.axpyDoubles(a[i * k + p], b, p * n + j0, c, cRow + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B^T with B held off the heap as doubles
+	 * @param a　m x k
+	 * @param b　n x k
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyTransposeBDoubles(double[] a, ByteBuffer b, double[] c, int m, int k, int n) {
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+				int jMax = Math.min(j0 + BLOCK_SIZE, n);
+				for (int i = i0; i < iMax; i++) {
+					int aRow = i * k;
+					for (int j = j0; j < jMax; j++) {
+						c[i * n + j] = KERNELS.dotDoubles(a, aRow, b, j * k, k);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B in single precision with B held off the heap as floats
+	 * @param a　m x k
+	 * @param b　k x n
+	 * @param c　m x n, overwritten
+	 */
+	static void multiplyFloats(float[] a, ByteBuffer b, float[] c, int m, int k, int n) {
+		Arrays.fill(c, 0, m * n, 0.0f);
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int p0 = 0; p0 < k; p0 += BLOCK_SIZE) {
+				int pMax = Math.min(p0 + BLOCK_SIZE, k);
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int jMax = Math.min(j0 + BLOCK_SIZE, n);
+					for (int i = i0; i < iMax; i++) {
+						int cRow = i * n;
+						for (int p = p0; p < pMax; p++) {
+							KERNELS.axpyFloats(a[i * k + p], b, p * n + j0, c, cRow + j0, jMax - j0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B^T in single precision with B held off the heap as floats
+	 * @param a　m x k
+	 * @param b　n x k
+	 * @param c　m x n, overwritten
+	 * @param doubleSums 内積を倍精度で累算するか: accumulate the dot products in double
+	 */
+	static void multiplyTransposeBFloats(float[] a, ByteBuffer b, float[] c, int m, int k, int n, boolean doubleSums) {
+		for (int i0 = 0; i0 < m; i0 += BLOCK_SIZE) {
+			int iMax = Math.min(i0 + BLOCK_SIZE, m);
+			for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+				int jMax = Math.min(j0 + BLOCK_SIZE, n);
+				for (int i = i0; i < iMax; i++) {
+					int aRow = i * k;
+					for (int j = j0; j < jMax; j++) {
+						c[i * n + j] = doubleSums
+								? (float) KERNELS.dotDoubleFloats(a, aRow, b, j * k, k)
+								: KERNELS.dotFloats(a, aRow, b, j * k, k);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 内積: dot product of two contiguous runs
+	 */
+	static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+		return KERNELS.dot(a, aOffset, b, bOffset, length);
+	}
+
+	static double dot(double[] a, int aOffset, float[] b, int bOffset, int length) {
+		return KERNELS.dot(a, aOffset, b, bOffset, length);
+	}
+
+	static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		return KERNELS.dot(a, aOffset, b, bOffset, length);
+	}
+
+	/**
+	 * 直接バッファとの内積: dot products with doubles or floats held off the heap, see {@link Kernels#dotDoubles}
+	 */
+	static double dotDoubles(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		return KERNELS.dotDoubles(a, aOffset, b, bIndex, length);
+	}
+
+	static double dotFloats(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		return KERNELS.dotFloats(a, aOffset, b, bIndex, length);
+	}
+
+	/**
+	 * y += alpha * x over contiguous runs
+	 */
+	static void axpyDoubles(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+		KERNELS.axpyDoubles(alpha, x, xIndex, y, yOffset, length);
+	}
+
+	static void axpyFloats(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+		KERNELS.axpyFloats(alpha, x, xIndex, y, yOffset, length);
+	}
+
+	static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		KERNELS.axpy(alpha, x, xOffset, y, yOffset, length);
+	}
+
+	static void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+		KERNELS.axpy(alpha, x, xOffset, y, yOffset, length);
+	}
+
+	static void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+		KERNELS.axpy(alpha, x, xOffset, y, yOffset, length);
+	}
+
+	static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+		KERNELS.axpy(alpha, x, xOffset, y, yOffset, length);
+	}
+
+	/**
+	 * シグモイド関数を適用する: apply the sigmoid function to a contiguous run in place
+	 */
+	static void sigmoid(double[] values, int offset, int length) {
+		KERNELS.sigmoid(values, offset, length);
+	}
+
+	static void sigmoid(float[] values, int offset, int length) {
+		KERNELS.sigmoid(values, offset, length);
+	}
+
+	/**
+	 * 計算カーネルを選ぶ: pick the vector backend when the Vector API is available,
+	 * unless the nn.kernels system property says otherwise
+	 */
+	static Kernels selectKernels() {
+		String name = System.getProperty("nn.kernels", "vector");
+		if (!name.equals("scalar")) {
+			try {
+				return (Kernels) Class.forName("nn.VectorKernels").getDeclaredConstructor(boolean.class)
+						.newInstance(name.equals("fast"));
+			} catch (Exception e) {
+				// jdk.incubator.vector is not present
+			} catch (LinkageError e) {
+				// jdk.incubator.vector is not present
+			}
+		}
+		return new ScalarKernels();
+	}
+
+}
@@ -1,5 +1,7 @@
 package nn;
 
+import java.util.Random;
+
 /**
  * 多数中間層のニューラルネットのクラス（誤差逆伝播法）
  * multi-center layer neural network (back-error propagation algorithm)
@@ -13,9 +15,24 @@ public class NeuralNetwork {
 	private Layer[] centerLayers; // 中間層: middle layers
 	
 	private Layer outputLayer; // 出力層: output layer
+	
+	private Layer[] layers; // 全層: all layers, from the input layer to the output layer
+	
+	private Workspace batchWorkspace; // ミニバッチ学習の作業領域: scratch buffers for trainBatch
+	
+	/*
+	 * 各スレッドの推論用の作業領域: per-thread scratch buffers for predict
+	 */
+	private final ThreadLocal<Workspace> predictWorkspace = new ThreadLocal<Workspace>() {
+		protected Workspace initialValue() {
+			return new Workspace(NeuralNetwork.this);
+		}
+	};
 
 	private NeuralNetworkConfig config;
 
+	private TrainingMetrics metrics; // 学習の指標: null unless measuring
+
 	public NeuralNetwork(NeuralNetworkConfig config) {
 		this.config = config;
 		init();
@@ -26,16 +43,17 @@ public class NeuralNetwork {
 	 * initialize the neural network
 	 */
 	private void init() {
-		inputLayer = new Layer();
+		Random rand = new Random(config.seed);
+		inputLayer = new Layer(rand);
 		centerLayers = new Layer[config.numCenterLayers];
 		for (int i = 0; i < config.numCenterLayers; i++) {
-			centerLayers[i] = new Layer();
+			centerLayers[i] = new Layer(rand);
 		}
-		outputLayer = new Layer();
+		outputLayer = new Layer(rand);
 
 		// 出力層: output layer
 		outputLayer.init(config.numOutputNodes,
-				centerLayers[config.numCenterLayers - 1], null, config.bias);
+				centerLayers[config.numCenterLayers - 1], null, config.bias, config.precision, config.offHeap);
 		// 中間層: middle layer
 		for (int i = config.numCenterLayers - 1; i >= 0; i--) {
 			if (i == 0) {
@@ -49,9 +67,9 @@ public class NeuralNetwork {
 					 * 中間層数が一だから、親層＝入力層、子層＝出力層
 					 * because there is only  one center layer / parent layer = input layer, child layer = output layer
 					 */
-					centerLayers[i].init(config.numCenterNodes, inputLayer, outputLayer, config.bias);
+					centerLayers[i].init(config.getLayerSize(i + 1), inputLayer, outputLayer, config.bias, config.precision, config.offHeap);
 				} else {
-					centerLayers[i].init(config.numCenterNodes, inputLayer,centerLayers[i + 1], config.bias);
+					centerLayers[i].init(config.getLayerSize(i + 1), inputLayer,centerLayers[i + 1], config.bias, config.precision, config.offHeap);
 				}
 			} else { // 前層は入力層ではない: previous layer does not have an input layer
 				/*
@@ -59,14 +77,23 @@ public class NeuralNetwork {
 				 * if it is the last of  the center layers, connect to the output layer
 				 */
 				if (i == config.numCenterLayers - 1) {
-					centerLayers[i].init(config.numCenterNodes, centerLayers[i - 1], outputLayer, config.bias);
+					centerLayers[i].init(config.getLayerSize(i + 1), centerLayers[i - 1], outputLayer, config.bias, config.precision, config.offHeap);
 				} else {
-					centerLayers[i].init(config.numCenterNodes, centerLayers[i - 1], centerLayers[i + 1], config.bias);
+					centerLayers[i].init(config.getLayerSize(i + 1), centerLayers[i - 1], centerLayers[i + 1], config.bias, config.precision, config.offHeap);
 				}
 			}
 		}
 		// 入力層: input layer
-		inputLayer.init(config.numInputNodes, null, centerLayers[0],  config.bias);
+		inputLayer.init(config.numInputNodes, null, centerLayers[0],  config.bias, config.precision, config.offHeap);
+		
+		layers = new Layer[config.numCenterLayers + 2];
+		layers[0] = inputLayer;
+		System.arraycopy(centerLayers, 0, layers, 1, config.numCenterLayers);
+		layers[layers.length - 1] = outputLayer;
+		for (int l = 1; l < layers.length; l++) {
+			layers[l].setActivation(config.getActivation(l));
+		}
+		setOptimizer(config.optimizer);
 		setLearningRate(config.learningRate);
 	}
 
@@ -75,6 +102,14 @@ public class NeuralNetwork {
 	 * propagate from the input layer to the output layer
 	 */
 	public void feedForward() {
+		if (metrics != null) {
+			long time = System.nanoTime();
+			for (int l = 1; l < layers.length; l++) {
+				layers[l].calculateNeuronValues();
+				time = metrics.record(TrainingMetrics.Phase.FEED_FORWARD, l, time);
+			}
+			return;
+		}
 		inputLayer.calculateNeuronValues();
 		for (Layer l : centerLayers) {
 			l.calculateNeuronValues();
@@ -87,6 +122,10 @@ public class NeuralNetwork {
 	 *  back-propagate from the output layer to the input layer
 	 */
 	public void backPropagate() {
+		if (metrics != null) {
+			backPropagate(metrics);
+			return;
+		}
 		outputLayer.calculateErrors();
 		for (int i = centerLayers.length - 1; i >= 0; i--) {
 			centerLayers[i].calculateErrors();
@@ -95,6 +134,310 @@ public class NeuralNetwork {
 		inputLayer.adjustWeights();
 	}
 
+	/**
+	 * 計測しながら逆向きに伝播する: backPropagate, timing every layer
+	 */
+	private void backPropagate(TrainingMetrics metrics) {
+		int last = layers.length - 1;
+		long time = System.nanoTime();
+		outputLayer.calculateErrors();
+		time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, last, time);
+		for (int l = last - 1; l >= 0; l--) {
+			if (l > 0) {
+				layers[l].calculateErrors();
+				time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, l, time);
+			}
+			// 勾配は子層の誤差と値の外積: the gradient is the outer product of the child errors and the values
+			double[] childErrors = layers[l + 1].errors;
+			double[] values = layers[l].values;
+			metrics.setGradientNorm(l, Math.sqrt(Matrix.dot(childErrors, 0, childErrors, 0, childErrors.length)
+					* Matrix.dot(values, 0, values, 0, values.length)));
+			layers[l].adjustWeights();
+			time = metrics.record(TrainingMetrics.Phase.ADJUST_WEIGHTS, l, time);
+		}
+		metrics.addSamples(1);
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one input without touching the network's state,
+	 * so it can be called from many threads at once. The neuron values seen by
+	 * {@link #getOutputs()} are left unchanged. Must not run concurrently with training.
+	 * 
+	 * @param input 入力: one value per input node
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(double[] input) {
+		return predict(input, predictWorkspace.get()).clone();
+	}
+	
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one input using the caller's workspace, without allocating
+	 * 
+	 * @param input 入力: one value per input node
+	 * @param workspace 作業領域: scratch buffers owned by the calling thread
+	 * @return 出力: the workspace's output buffer, valid until the workspace is used again
+	 */
+	public double[] predict(double[] input, Workspace workspace) {
+		if (input.length != inputLayer.getNumNeurons()) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		workspace.setInput(0, input);
+		feedForward(workspace, 1);
+		return workspace.getOutput(0, workspace.outputs);
+	}
+	
+	/**
+	 * 疎な入力に対する出力を予測する
+	 * predict the outputs for one sparse input, given as index/value pairs with
+	 * every other input zero. Only the weights of the non-zero inputs are visited
+	 * on the way to the first center layer. Like {@link #predict(double[])} it
+	 * leaves the network's state unchanged and may be called from many threads.
+	 * 
+	 * @param indices 番号: ascending indices of the non-zero inputs
+	 * @param values 値: one value per index
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(int[] indices, double[] values) {
+		return predict(indices, values, predictWorkspace.get()).clone();
+	}
+	
+	/**
+	 * 疎な入力に対する出力を予測する
+	 * predict the outputs for one sparse input using the caller's workspace, without allocating
+	 * 
+	 * @see #predict(int[], double[])
+	 * @return 出力: the workspace's output buffer, valid until the workspace is used again
+	 */
+	public double[] predict(int[] indices, double[] values, Workspace workspace) {
+		inputLayer.checkSparse(indices, values);
+		if (workspace.floatActivations != null) {
+			inputLayer.feedForwardSparse(indices, values, workspace.floatActivations[1]);
+		} else {
+			inputLayer.feedForwardSparse(indices, values, workspace.activations[1]);
+		}
+		feedForward(workspace, 1, 1);
+		return workspace.getOutput(0, workspace.outputs);
+	}
+	
+	/**
+	 * 作業領域で前向きを伝播する
+	 * propagate the first count rows of the workspace's input activations to its output activations
+	 */
+	void feedForward(Workspace workspace, int count) {
+		feedForward(workspace, 0, count);
+	}
+	
+	/*
+	 * 作業領域で前向きを伝播する: feedForward starting from the activations of layer first
+	 */
+	private void feedForward(Workspace workspace, int first, int count) {
+		for (int l = first; l < layers.length - 1; l++) {
+			if (workspace.floatActivations != null) {
+				layers[l].feedForwardBatch(workspace.floatActivations[l], workspace.floatActivations[l + 1], count);
+			} else {
+				layers[l].feedForwardBatch(workspace.activations[l], workspace.activations[l + 1], count);
+			}
+		}
+	}
+	
+	/**
+	 * ミニバッチで学習する
+	 * train on a mini-batch: the whole batch is propagated forward and backward
+	 * as matrix products and the weights are adjusted once by the mean gradient
+	 * 
+	 * @param inputs 入力: one row of input values per sample
+	 * @param teacherSignals 教師信号: one row of teacher signals per sample
+	 * @return 平均２乗誤差: the mean squared error over the batch, before the weights are adjusted
+	 */
+	public double trainBatch(double[][] inputs, double[][] teacherSignals) {
+		return trainBatch(inputs, teacherSignals, 0, inputs.length);
+	}
+	
+	/**
+	 * ミニバッチで学習する
+	 * train on the mini-batch made of the rows [offset, offset + batchSize)
+	 * 
+	 * @see #trainBatch(double[][], double[][])
+	 */
+	public double trainBatch(double[][] inputs, double[][] teacherSignals, int offset, int batchSize) {
+		Workspace workspace = getBatchWorkspace(batchSize);
+		double error = calculateGradients(workspace, inputs, teacherSignals, offset, batchSize);
+		adjustWeights(workspace, 1.0 / batchSize);
+		return error / batchSize;
+	}
+	
+	/**
+	 * ミニバッチ学習の作業領域: the trainBatch workspace, grown to hold at least batchSize samples
+	 */
+	Workspace getBatchWorkspace(int batchSize) {
+		if (batchWorkspace == null || batchWorkspace.getBatchSize() < batchSize) {
+			batchWorkspace = new Workspace(this, batchSize, true);
+		}
+		return batchWorkspace;
+	}
+	
+	/**
+	 * バッチの勾配を計算する
+	 * propagate the samples [offset, offset + count) forward and backward through
+	 * the workspace, leaving the summed weight gradients in it. The network's
+	 * weights are only read.
+	 * 
+	 * @return 各サンプルの平均２乗誤差の和: the sum over the samples of their mean squared error
+	 */
+	double calculateGradients(Workspace workspace, double[][] inputs, double[][] teacherSignals, int offset, int count) {
+		if (inputs.length != teacherSignals.length) {
+			throw new IllegalArgumentException("The number of inputs and teacher signals do not match.");
+		}
+		int numInputs = inputLayer.getNumNeurons();
+		int numOutputs = outputLayer.getNumNeurons();
+		for (int b = 0; b < count; b++) {
+			if (inputs[offset + b].length != numInputs || teacherSignals[offset + b].length != numOutputs) {
+				throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+			}
+			workspace.setInput(b, inputs[offset + b]);
+			workspace.setTeacherSignal(b, teacherSignals[offset + b]);
+		}
+		return calculateGradients(workspace, count);
+	}
+	
+	/**
+	 * バッチの勾配を計算する
+	 * propagate the first count rows already set in the workspace forward and
+	 * backward, leaving the summed weight gradients in it
+	 * 
+	 * @return 各サンプルの平均２乗誤差の和: the sum over the samples of their mean squared error
+	 */
+	double calculateGradients(Workspace workspace, int count) {
+		int numOutputs = outputLayer.getNumNeurons();
+		TrainingMetrics metrics = this.metrics;
+		long time = metrics != null ? System.nanoTime() : 0;
+		
+		// 前向き: forward
+		for (int l = 0; l < layers.length - 1; l++) {
+			if (workspace.floatActivations != null) {
+				layers[l].feedForwardBatch(workspace.floatActivations[l], workspace.floatActivations[l + 1], count);
+			} else {
+				layers[l].feedForwardBatch(workspace.activations[l], workspace.activations[l + 1], count);
+			}
+			if (metrics != null) {
+				time = metrics.record(TrainingMetrics.Phase.FEED_FORWARD, l + 1, time);
+			}
+		}
+		double error = workspace.sumSquaredError(count);
+		
+		// 逆向き: backward
+		int last = layers.length - 1;
+		if (workspace.floatActivations != null) {
+			float[][] activations = workspace.floatActivations;
+			float[][] errors = workspace.floatErrors;
+			outputLayer.calculateErrorsBatch(activations[last], workspace.floatTeacherSignals, errors[last], count);
+			if (metrics != null) {
+				time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, last, time);
+			}
+			for (int l = last - 1; l >= 0; l--) {
+				if (l > 0) {
+					layers[l].calculateErrorsBatch(activations[l], errors[l + 1], errors[l], count);
+					if (metrics != null) {
+						time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, l, time);
+					}
+				}
+				layers[l].calculateGradientsBatch(activations[l], errors[l + 1],
+						workspace.floatGradients[l], workspace.biasGradients[l], count);
+				if (metrics != null) {
+					time = metrics.record(TrainingMetrics.Phase.CALCULATE_GRADIENTS, l, time);
+				}
+			}
+		} else {
+			double[][] activations = workspace.activations;
+			double[][] errors = workspace.errors;
+			outputLayer.calculateErrorsBatch(activations[last], workspace.teacherSignals, errors[last], count);
+			if (metrics != null) {
+				time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, last, time);
+			}
+			for (int l = last - 1; l >= 0; l--) {
+				if (l > 0) {
+					layers[l].calculateErrorsBatch(activations[l], errors[l + 1], errors[l], count);
+					if (metrics != null) {
+						time = metrics.record(TrainingMetrics.Phase.CALCULATE_ERRORS, l, time);
+					}
+				}
+				layers[l].calculateGradientsBatch(activations[l], errors[l + 1],
+						workspace.gradients[l], workspace.biasGradients[l], count);
+				if (metrics != null) {
+					time = metrics.record(TrainingMetrics.Phase.CALCULATE_GRADIENTS, l, time);
+				}
+			}
+		}
+		if (metrics != null) {
+			metrics.addSamples(count);
+		}
+		return error / numOutputs;
+	}
+	
+	/**
+	 * 入力の誤差を計算する
+	 * the errors of the inputs of the first count rows, propagated back through
+	 * the input layer's weights. Call it after calculateGradients and before the
+	 * weights are adjusted. Only for double storage, on or off the heap.
+	 * 
+	 * @param inputErrors 入力の誤差: count x numInputNodes, overwritten
+	 */
+	void calculateInputErrors(Workspace workspace, int count, double[] inputErrors) {
+		inputLayer.propagateErrorsBatch(workspace.errors[1], inputErrors, count);
+	}
+
+	/**
+	 * 勾配によると、結合荷重を調整する
+	 * adjust every layer's weights by the gradients held in the workspace
+	 * 
+	 * @param scale 勾配の係数: factor applied to the gradients
+	 */
+	void adjustWeights(Workspace workspace, double scale) {
+		TrainingMetrics metrics = this.metrics;
+		for (int l = 0; l < layers.length - 1; l++) {
+			long time = 0;
+			if (metrics != null) {
+				metrics.setGradientNorm(l, scale * gradientNorm(workspace, l));
+				time = System.nanoTime();
+			}
+			if (workspace.floatGradients != null) {
+				layers[l].adjustWeights(workspace.floatGradients[l], workspace.biasGradients[l], scale);
+			} else {
+				layers[l].adjustWeights(workspace.gradients[l], workspace.biasGradients[l], scale);
+			}
+			if (metrics != null) {
+				metrics.record(TrainingMetrics.Phase.ADJUST_WEIGHTS, l, time);
+			}
+		}
+	}
+
+	/**
+	 * 勾配のノルム: the L2 norm of the summed gradient of layer l's weights
+	 */
+	private static double gradientNorm(Workspace workspace, int l) {
+		if (workspace.floatGradients != null) {
+			double sum = 0;
+			for (float g : workspace.floatGradients[l]) {
+				sum += g * g;
+			}
+			return Math.sqrt(sum);
+		}
+		double[] gradients = workspace.gradients[l];
+		return Math.sqrt(Matrix.dot(gradients, 0, gradients, 0, gradients.length));
+	}
+
+	/**
+	 * 結合荷重を写す
+	 * copy every layer's weights from a network built from the same configuration
+	 */
+	void copyWeightsFrom(NeuralNetwork other) {
+		for (int l = 0; l < layers.length; l++) {
+			layers[l].copyWeightsFrom(other.layers[l]);
+		}
+	}
+
 	/**
 	 * 出力と教師信号の平均２乗誤差を計算する
 	 * calculate the average squared error between the
@@ -171,6 +514,20 @@ public class NeuralNetwork {
 		}
 	}
 
+	/**
+	 * 入力層への疎な入力を設定する
+	 * set the input layer from index/value pairs, every other input is zero.
+	 * Until an input is set densely again, {@link #feedForward()} and
+	 * {@link #backPropagate()} only visit the weights of the non-zero inputs, so
+	 * one-hot and bag-of-features inputs cost time proportional to their
+	 * number of non-zeros rather than the number of input nodes.
+	 * 
+	 * @param indices 番号: ascending indices of the non-zero inputs
+	 * @param values 値: one value per index
+	 */
+	public void setSparseInputs(int[] indices, double[] values) {
+		inputLayer.setSparseValues(indices, values);
+	}
 
 	public double getInput(int i) {
 		if (i >= 0 && i < inputLayer.getNumNeurons()) {
@@ -180,10 +537,18 @@ public class NeuralNetwork {
 	}
 
 	public double[] getInputs() {
-		double[] inputs = new double[inputLayer.getNeurons().length];
-		for (int i = 0; i < inputs.length; i++) {
-			inputs[i] = inputLayer.getNeuron(i).getValue();
-		}
+		return getInputs(new double[inputLayer.getNumNeurons()]);
+	}
+
+	/**
+	 * 入力層の各入力を得る
+	 * copy all input values into the caller's array, without allocating
+	 * 
+	 * @param inputs 値: one value per input node, overwritten
+	 * @return inputs
+	 */
+	public double[] getInputs(double[] inputs) {
+		System.arraycopy(inputLayer.values, 0, inputs, 0, inputLayer.getNumNeurons());
 		return inputs;
 	}
 
@@ -242,10 +607,18 @@ public class NeuralNetwork {
 	 * @return values 値: values
 	 */
 	public double[] getOutputs() {
-		double[] outputs = new double[outputLayer.getNeurons().length];
-		for (int i = 0; i < outputs.length; i++) {
-			outputs[i] = outputLayer.getNeuron(i).getValue();
-		}
+		return getOutputs(new double[outputLayer.getNumNeurons()]);
+	}
+
+	/**
+	 * 出力層の各出力を得る
+	 * copy all output values into the caller's array, without allocating
+	 * 
+	 * @param outputs 値: one value per output node, overwritten
+	 * @return outputs
+	 */
+	public double[] getOutputs(double[] outputs) {
+		System.arraycopy(outputLayer.values, 0, outputs, 0, outputLayer.getNumNeurons());
 		return outputs;
 	}
 
@@ -269,7 +642,17 @@ public class NeuralNetwork {
 	 * @return
 	 */
 	public double[][] getOutputsXY() {
-		double[][] outputs = new double[config.outputWidth][config.outputHeight];
+		return getOutputsXY(new double[config.outputWidth][config.outputHeight]);
+	}
+
+	/**
+	 * 出力層の各出力を二次元で得る
+	 * copy all output values into the caller's outputWidth x outputHeight array, without allocating
+	 * 
+	 * @param outputs 値: outputs[x][y], overwritten
+	 * @return outputs
+	 */
+	public double[][] getOutputsXY(double[][] outputs) {
 		for (int y = 0; y < config.outputHeight
 				&& y < outputLayer.getNeurons().length; y++) {
 			for (int x = 0; x < config.outputWidth
@@ -298,12 +681,13 @@ public class NeuralNetwork {
 
 	/**
 	 * 出力層の教師信号を設定する
-	 * set teacher signal values in the output layer
+	 * set teacher signal values in the output layer. The values are copied, so
+	 * the caller may reuse the array for the next sample.
 	 * 
 	 * @param values  全ての教師信号の値: all of the teacher signal values
 	 */
 	public void setTeacherSignals(double[] values) {
-		if (outputLayer.getTeacherSignals().length == values.length) {
+		if (outputLayer.getNumNeurons() == values.length) {
 			outputLayer.setTeacherSignals(values);
 		}
 	}
@@ -339,6 +723,46 @@ public class NeuralNetwork {
 		outputLayer.setLearningRate(rate);
 	}
 
+	/**
+	 * 学習率を更新する
+	 * set the learning rate of an epoch from the configured
+	 * {@link NeuralNetworkConfig#learningRateSchedule}, if there is one.
+	 * Call it before training each epoch.
+	 * 
+	 * @param epoch 世代: 0 for the first epoch, then 1, 2, ...
+	 * @param error 誤差: the mean {@link #calculateError()} of the previous epoch, NaN before the first
+	 * @return 学習率: the learning rate to train the epoch with
+	 */
+	public double updateLearningRate(int epoch, double error) {
+		if (config.learningRateSchedule != null) {
+			setLearningRate(config.learningRateSchedule.getLearningRate(epoch, error));
+		}
+		return config.learningRate;
+	}
+
+	/**
+	 * 最適化手法を設定する
+	 * set the optimizer of every layer, discarding any optimizer state
+	 * 
+	 * @param optimizer 最適化手法: see {@link Optimizers}
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		config.optimizer = optimizer;
+		for (int l = 0; l < layers.length - 1; l++) {
+			layers[l].setOptimizer(optimizer);
+		}
+	}
+
+	/**
+	 * 学習の指標を設定する
+	 * measure training with the given metrics, or stop measuring with null
+	 * 
+	 * @param metrics 学習の指標: created for this network
+	 */
+	public void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	/**
 	 * setters and getter methods
 	 */
@@ -353,6 +777,14 @@ public class NeuralNetwork {
 	public Layer getOutputLayer() {
 		return outputLayer;
 	}
+	
+	Layer[] getLayers() {
+		return layers;
+	}
+	
+	public NeuralNetworkConfig getConfig() {
+		return config;
+	}
 
 	public void setInputWidth(int width) {
 		config.inputWidth = width;
@@ -386,4 +818,8 @@ public class NeuralNetwork {
 		return config.learningRate;
 	}
 
+	public TrainingMetrics getMetrics() {
+		return metrics;
+	}
+
 }
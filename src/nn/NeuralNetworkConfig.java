@@ -1,5 +1,8 @@
 package nn;
 
+import java.util.Arrays;
+import java.util.Random;
+
 public class NeuralNetworkConfig {
 	
 	/**
@@ -17,6 +20,12 @@ public class NeuralNetworkConfig {
 	 */
 	public int numCenterNodes = 10;
 	
+	/**
+	 * 各中間層のノード数: per center layer node counts, e.g. {256, 64}, one per
+	 * center layer. A null array uses numCenterNodes for every center layer.
+	 */
+	public int[] centerLayerSizes = null;
+	
 	/**
 	 * 出力層のノード数: number of nodes in the output layer
 	 */
@@ -29,6 +38,40 @@ public class NeuralNetworkConfig {
 	 */
 	public double learningRate = 0.1;
 	
+	/**
+	 * 学習率のスケジュール: changes learningRate each epoch, see {@link LearningRateSchedules}. Null keeps it fixed.
+	 */
+	public LearningRateSchedule learningRateSchedule = null;
+	
+	/**
+	 * 最適化手法: how the weights are updated from their gradients, see {@link Optimizers}
+	 */
+	public Optimizer optimizer = Optimizers.sgd();
+	
+	/**
+	 * 精度: precision of the weights and activations
+	 */
+	public Precision precision = Precision.DOUBLE;
+	
+	/**
+	 * ヒープ外の結合荷重: keep the weight matrices, bias weights and optimizer state
+	 * in direct buffers outside the Java heap, so the heap and the garbage
+	 * collector's work stay flat however wide the network. Trains exactly like
+	 * the heap arrays. Each matrix is limited to 2 GB.
+	 */
+	public boolean offHeap = false;
+	
+	/**
+	 * 活性化関数: activation function of every center layer and the output layer
+	 */
+	public Activation activation = Activations.SIGMOID;
+	
+	/**
+	 * 層ごとの活性化関数: per layer activation functions, one per center layer and
+	 * then one for the output layer. Null entries, or a null array, use activation.
+	 */
+	public Activation[] activations = null;
+	
 	public int inputWidth = 1;
 	
 	public int inputHeight = 1;
@@ -36,5 +79,95 @@ public class NeuralNetworkConfig {
 	public int outputWidth = 1;
 	
 	public int outputHeight = 1;
+	
+	/**
+	 * 乱数の種: seed for the weight initialization, random unless set
+	 */
+	public long seed = new Random().nextLong();
+	
+	/**
+	 * 各層のノード数を設定する
+	 * set every layer's size at once, from the input layer to the output layer,
+	 * e.g. setLayerSizes(1300, 256, 64, 8)
+	 */
+	public void setLayerSizes(int... sizes) {
+		if (sizes.length < 3) {
+			throw new IllegalArgumentException("Need an input, at least one center and an output layer size: "
+					+ sizes.length);
+		}
+		numInputNodes = sizes[0];
+		numCenterLayers = sizes.length - 2;
+		centerLayerSizes = Arrays.copyOfRange(sizes, 1, sizes.length - 1);
+		numOutputNodes = sizes[sizes.length - 1];
+	}
+
+	/**
+	 * 層のノード数: the number of nodes in a layer
+	 * @param layer 層の番号: 0 for the input layer up to numCenterLayers + 1 for the output layer
+	 */
+	public int getLayerSize(int layer) {
+		if (layer == 0) {
+			return numInputNodes;
+		}
+		if (layer == numCenterLayers + 1) {
+			return numOutputNodes;
+		}
+		if (centerLayerSizes != null) {
+			if (centerLayerSizes.length != numCenterLayers) {
+				throw new IllegalArgumentException("centerLayerSizes has " + centerLayerSizes.length
+						+ " entries for " + numCenterLayers + " center layers");
+			}
+			return centerLayerSizes[layer - 1];
+		}
+		return numCenterNodes;
+	}
+
+	/**
+	 * 各層のノード数: the number of nodes in every layer, from the input layer to the output layer
+	 */
+	public int[] getLayerSizes() {
+		int[] sizes = new int[numCenterLayers + 2];
+		for (int l = 0; l < sizes.length; l++) {
+			sizes[l] = getLayerSize(l);
+		}
+		return sizes;
+	}
+
+	/**
+	 * 複製: a shallow copy of this configuration
+	 */
+	NeuralNetworkConfig copy() {
+		NeuralNetworkConfig copy = new NeuralNetworkConfig();
+		copy.numInputNodes = numInputNodes;
+		copy.numCenterLayers = numCenterLayers;
+		copy.numCenterNodes = numCenterNodes;
+		copy.centerLayerSizes = centerLayerSizes;
+		copy.numOutputNodes = numOutputNodes;
+		copy.bias = bias;
+		copy.learningRate = learningRate;
+		copy.learningRateSchedule = learningRateSchedule;
+		copy.optimizer = optimizer;
+		copy.precision = precision;
+		copy.offHeap = offHeap;
+		copy.activation = activation;
+		copy.activations = activations;
+		copy.inputWidth = inputWidth;
+		copy.inputHeight = inputHeight;
+		copy.outputWidth = outputWidth;
+		copy.outputHeight = outputHeight;
+		copy.seed = seed;
+		return copy;
+	}
+
+	/**
+	 * 層の活性化関数: the activation function of a layer
+	 * @param layer 層の番号: 1 for the first center layer up to numCenterLayers + 1 for the output layer
+	 */
+	public Activation getActivation(int layer) {
+		if (activations != null && activations[layer - 1] != null) {
+			return activations[layer - 1];
+		}
+		return activation;
+	}
 
 }
@@ -0,0 +1,402 @@
+package nn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ニューラルネットの保存・読み込み: binary model files
+ *
+ * A model file is a fixed {@value #HEADER_SIZE} byte header holding the
+ * {@link NeuralNetworkConfig}, followed by the activation function of every
+ * layer after the input layer, the size of every center layer and then by
+ * the weight matrix of every layer
+ * from the input layer onwards, each immediately followed by its bias weights
+ * when the network uses a bias. Everything is little-endian and every array
+ * starts on an 8 byte boundary, so the arrays can be read straight out of a
+ * memory-mapped file. Networks with float storage ({@link Precision#FLOAT} and
+ * {@link Precision#MIXED}) write their weight matrices as 4 byte floats, each
+ * padded to the next 8 byte boundary; bias weights are always doubles.
+ *
+ * <pre>
+ *  0 int    magic "NNET"
+ *  4 int    version
+ *  8 int    numInputNodes, numCenterLayers, numCenterNodes, numOutputNodes
+ * 24 int    bias (0 or 1), inputWidth, inputHeight, outputWidth, outputHeight
+ * 44 int    precision (Precision ordinal, 0 = DOUBLE)
+ * 48 double learningRate
+ * 56 long   seed
+ * 64 int    activation (Activations ordinal) per center layer and the output layer
+ *    int    numNodes per center layer, (padding)
+ *           weights[numChildNeurons x numNeurons] (padding) (biasWeights[numChildNeurons]) per layer
+ * </pre>
+ *
+ * Version 3 files have no center layer sizes, every center layer has
+ * numCenterNodes nodes. Version 2 files have no activations either and always
+ * use the sigmoid.
+ *
+ * Version 1 files stored each weight matrix transposed, numNeurons x
+ * numChildNeurons. They can still be loaded, but not mapped.
+ *
+ * @author kenneth cason
+ */
+public class NeuralNetworkIO {
+
+	static final int MAGIC = 0x4E4E4554; // "NNET"
+
+	static final int VERSION = 4;
+
+	static final int HEADER_SIZE = 64;
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private NeuralNetworkIO() {
+	}
+
+	/**
+	 * ニューラルネットを保存する: write the network's config and weights to a file
+	 */
+	public static void save(NeuralNetwork network, File file) throws IOException {
+		NeuralNetworkConfig config = network.getConfig();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(config.numInputNodes);
+			buffer.putInt(config.numCenterLayers);
+			buffer.putInt(config.numCenterNodes);
+			buffer.putInt(config.numOutputNodes);
+			buffer.putInt(config.bias ? 1 : 0);
+			buffer.putInt(config.inputWidth);
+			buffer.putInt(config.inputHeight);
+			buffer.putInt(config.outputWidth);
+			buffer.putInt(config.outputHeight);
+			buffer.putInt(config.precision.ordinal());
+			buffer.putDouble(config.learningRate);
+			buffer.putLong(config.seed);
+			for (int l = 1; l <= config.numCenterLayers + 1; l++) {
+				Activation activation = config.getActivation(l);
+				if (!(activation instanceof Activations)) {
+					throw new IllegalArgumentException("Only the built-in Activations can be saved: " + activation);
+				}
+				buffer.putInt(((Activations) activation).ordinal());
+			}
+			for (int l = 1; l <= config.numCenterLayers; l++) {
+				buffer.putInt(config.getLayerSize(l));
+			}
+			buffer.putInt(0); // 2 * numCenterLayers + 1 ints, always padded
+
+
+			Layer[] layers = network.getLayers();
+			for (int l = 0; l < layers.length - 1; l++) {
+				if (layers[l].weightBuffer != null) {
+					write(channel, buffer, layers[l].weightBuffer);
+				} else if (layers[l].floatWeights != null) {
+					write(channel, buffer, layers[l].floatWeights);
+				} else {
+					write(channel, buffer, layers[l].weights);
+				}
+				if (layers[l].biasWeightBuffer != null) {
+					write(channel, buffer, layers[l].biasWeightBuffer);
+				} else if (config.bias) {
+					write(channel, buffer, layers[l].biasWeights);
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * ニューラルネットを読み込む
+	 * read a network from a file into a new, trainable NeuralNetwork. The file is
+	 * memory-mapped and each weight matrix is copied onto the heap in one bulk read.
+	 */
+	public static NeuralNetwork load(File file) throws IOException {
+		return load(file, false);
+	}
+
+	/**
+	 * ニューラルネットを読み込む
+	 * read a network from a file into a new, trainable NeuralNetwork. The file is
+	 * memory-mapped, and with offHeap each weight matrix is copied from the
+	 * mapping straight into the network's direct buffers without passing
+	 * through the heap, see {@link NeuralNetworkConfig#offHeap}.
+	 */
+	public static NeuralNetwork load(File file, boolean offHeap) throws IOException {
+		ByteBuffer buffer = mapFile(file);
+		NeuralNetworkConfig config = readConfig(buffer, file);
+		config.offHeap = offHeap;
+		NeuralNetwork network = new NeuralNetwork(config);
+		Layer[] layers = network.getLayers();
+		boolean transposed = buffer.getInt(4) == 1 && !config.precision.isFloatStorage();
+		int offset = dataOffset(config, buffer.getInt(4));
+		for (int l = 0; l < layers.length - 1; l++) {
+			Layer layer = layers[l];
+			if (transposed) {
+				double[] weights = new double[layer.getNumWeights()];
+				offset = read(buffer, offset, weights);
+				double[] rows = new double[weights.length];
+				transpose(weights, rows, layer.getNumNeurons(), layers[l + 1].getNumNeurons());
+				layer.setWeights(rows);
+			} else if (layer.weightBuffer != null) {
+				layer.weightBuffer.put(0, buffer, offset, layer.weightBuffer.capacity());
+				offset += config.precision.isFloatStorage() ? floatBytes(layer.getNumWeights()) : layer.weightBuffer.capacity();
+			} else if (layer.floatWeights != null) {
+				FloatBuffer weights = floatSlice(buffer, offset, layer.floatWeights.length);
+				weights.get(layer.floatWeights);
+				offset += floatBytes(layer.floatWeights.length);
+			} else {
+				offset = read(buffer, offset, layer.weights);
+			}
+			if (layer.biasWeightBuffer != null) {
+				layer.biasWeightBuffer.put(0, buffer, offset, layer.biasWeightBuffer.capacity());
+				offset += layer.biasWeightBuffer.capacity();
+			} else if (config.bias) {
+				offset = read(buffer, offset, layer.biasWeights);
+			}
+		}
+		return network;
+	}
+
+	/**
+	 * ニューラルネットをメモリマップする
+	 * memory-map a network file for inference. The weights are read in place from
+	 * the mapped file and are never copied onto the heap.
+	 */
+	public static MappedNetwork map(File file) throws IOException {
+		ByteBuffer buffer = mapFile(file);
+		NeuralNetworkConfig config = readConfig(buffer, file);
+		if (buffer.getInt(4) < 2) {
+			throw new IOException("Version " + buffer.getInt(4) + " files cannot be mapped, load and save them again: " + file);
+		}
+		int[] sizes = config.getLayerSizes();
+		boolean floatStorage = config.precision.isFloatStorage();
+		ByteBuffer[] weights = new ByteBuffer[sizes.length - 1];
+		DoubleBuffer[] biasWeights = new DoubleBuffer[sizes.length - 1];
+		int offset = dataOffset(config, buffer.getInt(4));
+		for (int l = 0; l < sizes.length - 1; l++) {
+			int numWeights = sizes[l] * sizes[l + 1];
+			int numBytes = floatStorage ? numWeights * 4 : numWeights * 8;
+			weights[l] = byteSlice(buffer, offset, numBytes);
+			offset += floatStorage ? floatBytes(numWeights) : numBytes;
+			if (config.bias) {
+				biasWeights[l] = slice(buffer, offset, sizes[l + 1]);
+				offset += sizes[l + 1] * 8;
+			}
+		}
+		return new MappedNetwork(config, sizes, weights, biasWeights);
+	}
+
+	private static MappedByteBuffer mapFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return buffer;
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	private static NeuralNetworkConfig readConfig(ByteBuffer buffer, File file) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a neural network file: " + file);
+		}
+		int version = buffer.getInt(4);
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported neural network file version " + version + ": " + file);
+		}
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = buffer.getInt(8);
+		config.numCenterLayers = buffer.getInt(12);
+		config.numCenterNodes = buffer.getInt(16);
+		config.numOutputNodes = buffer.getInt(20);
+		config.bias = buffer.getInt(24) != 0;
+		config.inputWidth = buffer.getInt(28);
+		config.inputHeight = buffer.getInt(32);
+		config.outputWidth = buffer.getInt(36);
+		config.outputHeight = buffer.getInt(40);
+		int precision = buffer.getInt(44);
+		if (precision < 0 || precision >= Precision.values().length) {
+			throw new IOException("Unsupported precision " + precision + ": " + file);
+		}
+		config.precision = Precision.values()[precision];
+		config.learningRate = buffer.getDouble(48);
+		config.seed = buffer.getLong(56);
+
+		if (version >= 3) {
+			if (buffer.capacity() < dataOffset(config, version)) {
+				throw new IOException("Corrupt neural network file, truncated header: " + file);
+			}
+			config.activations = new Activation[config.numCenterLayers + 1];
+			for (int l = 0; l < config.activations.length; l++) {
+				int activation = buffer.getInt(HEADER_SIZE + 4 * l);
+				if (activation < 0 || activation >= Activations.values().length) {
+					throw new IOException("Unsupported activation " + activation + ": " + file);
+				}
+				config.activations[l] = Activations.values()[activation];
+			}
+		}
+		if (version >= 4) {
+			config.centerLayerSizes = new int[config.numCenterLayers];
+			for (int l = 0; l < config.numCenterLayers; l++) {
+				config.centerLayerSizes[l] = buffer.getInt(HEADER_SIZE + 4 * (config.numCenterLayers + 1 + l));
+				if (config.centerLayerSizes[l] < 1) {
+					throw new IOException("Corrupt neural network file, center layer size "
+							+ config.centerLayerSizes[l] + ": " + file);
+				}
+			}
+		}
+
+		long expected = dataOffset(config, version);
+		int[] sizes = config.getLayerSizes();
+		for (int l = 0; l < sizes.length - 1; l++) {
+			long numWeights = (long) sizes[l] * sizes[l + 1];
+			expected += config.precision.isFloatStorage() ? floatBytes(numWeights) : 8L * numWeights;
+			if (config.bias) {
+				expected += 8L * sizes[l + 1];
+			}
+		}
+		if (buffer.capacity() != expected) {
+			throw new IOException("Corrupt neural network file, expected " + expected
+					+ " bytes but found " + buffer.capacity() + ": " + file);
+		}
+		return config;
+	}
+
+	/*
+	 * 結合荷重の位置: where the weights start, after the header, the activations and the center layer sizes
+	 */
+	private static int dataOffset(NeuralNetworkConfig config, int version) {
+		if (version < 3) {
+			return HEADER_SIZE;
+		}
+		int numInts = config.numCenterLayers + 1;
+		if (version >= 4) {
+			numInts += config.numCenterLayers;
+		}
+		return HEADER_SIZE + ((4 * numInts + 7) & ~7);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+		for (double value : values) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+			}
+			buffer.putDouble(value);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException {
+		for (float value : values) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+			}
+			buffer.putFloat(value);
+		}
+		if (values.length % 2 != 0) {
+			// 8バイト境界まで埋める: pad to the next 8 byte boundary
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+			}
+			buffer.putFloat(0f);
+		}
+	}
+
+	/*
+	 * 直接バッファを書く: write the little-endian bytes of an off-heap array as they
+	 * are, padding floats to the next 8 byte boundary
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, ByteBuffer values) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+		ByteBuffer bytes = values.duplicate();
+		bytes.clear();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		if (values.capacity() % 8 != 0) {
+			buffer.putFloat(0f);
+		}
+	}
+
+	/**
+	 * 転置: to[n x m] = from[m x n]^T
+	 */
+	private static void transpose(double[] from, double[] to, int m, int n) {
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < n; j++) {
+				to[j * m + i] = from[i * n + j];
+			}
+		}
+	}
+
+	private static int read(ByteBuffer buffer, int offset, double[] values) {
+		slice(buffer, offset, values.length).get(values);
+		return offset + values.length * 8;
+	}
+
+	private static ByteBuffer byteSlice(ByteBuffer buffer, int offset, int numBytes) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + numBytes);
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static DoubleBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + length * 8);
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+
+	private static FloatBuffer floatSlice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + length * 4);
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+
+	/**
+	 * 単精度の配列のバイト数: bytes taken by length floats, padded to 8 byte alignment
+	 */
+	private static int floatBytes(int length) {
+		return (int) floatBytes((long) length);
+	}
+
+	private static long floatBytes(long length) {
+		return (length * 4 + 7) & ~7L;
+	}
+
+}
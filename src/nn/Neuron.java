@@ -1,28 +1,30 @@
 package nn;
 
 
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Neuron
+ *
+ * 層の値と重み行列へのビュー: a view onto the values and weight matrix of its layer.
+ * The values and weights themselves are stored in primitive arrays owned by the
+ * {@link Layer}, so reading or writing through a Neuron never boxes.
+ *
  * @author Kenneth Cason
  * @version 1.0
  */
 
 public class Neuron {
 
-	private double value; // this contains the value of this node
-	
-	private double learningRateCoefficient; // learning rate * learning rate coefficient = total learning rate
-	
-	private LinkedList<Neuron> links; // the links to other nodes
+	private final Layer layer; // the layer that owns this node's storage
 
-	private LinkedList<Double> weights; // weights 
+	private final int index; // the index of this node within its layer
 
-	public Neuron() {
-		value = 0;
-		links = new LinkedList<Neuron>();
-		weights = new LinkedList<Double>();
+	Neuron(Layer layer, int index) {
+		this.layer = layer;
+		this.index = index;
 	}
 
 	/**
@@ -30,7 +32,7 @@ public class Neuron {
 	 * @Return double - the value
 	 */
 	public double getValue() {
-		return value;
+		return layer.values[index];
 	}
 
 	/**
@@ -38,118 +40,107 @@ public class Neuron {
 	 * @Param double - the value
 	 */
 	public void setValue(double val) {
-		value = val;
+		layer.values[index] = val;
+		layer.numActive = -1; // 密な値: the values are dense again
 	}
-	
+
 	/**
-	 * 
+	 * 学習率係数を設定する: scale the learning rate of the weights from this neuron
+	 * to the next layer, 1 by default. The bias weights are not scaled.
 	 * @param rate
 	 */
 	public void setLearningRateCoefficient(double rate) {
-		learningRateCoefficient = rate;
+		layer.learningRateCoefficients[index] = rate;
 	}
 
 	/**
-	 * 
+	 *
 	 * @return
 	 */
 	public double getLearningRateCoefficient() {
-		return learningRateCoefficient;
+		return layer.learningRateCoefficients[index];
 	}
-	
+
 	/**
 	 * setWeight - sets a specific weight
-	 * @Param int - the specific array
+	 * @Param int - the index of the linked node
 	 * @Param double the value of the weights
 	 */
 	public void setWeight(int i, double weight) {
-		weights.set(i, weight);
+		layer.setWeight(i * layer.getNumNeurons() + index, weight);
 	}
-	
+
 	/**
-	 * setWeights - set bias weights
-	 * @Param LinkedList<Double> weights
+	 * setWeights - sets all the links weights
+	 * @Param double[] weights, one per linked node
 	 */
-	public void setWeights(LinkedList<Double> _weights) {
-		weights = _weights;
+	public void setWeights(double[] weights) {
+		for (int i = 0; i < getNumLinks(); i++) {
+			setWeight(i, weights[i]);
+		}
 	}
-	
+
 	/**
 	 * getWeight - returns a specific weight
 	 * @Param int - the weight to return
 	 * @Return double - the nodes weight
 	 */
 	public double getWeight(int i) {
-		return weights.get(i);
+		return layer.getWeight(i * layer.getNumNeurons() + index);
 	}
-	
+
 	/**
-	 * getWeights - returns all the links weights
-	 * @Return LinkedList<MLLNode> - the integer LinkedList<MLLNode> of weights
+	 * getWeights - returns a copy of all the links weights
+	 * @Return double[] - the weights, one per linked node
 	 */
-	public LinkedList<Double> getWeights() {
+	public double[] getWeights() {
+		double[] weights = new double[getNumLinks()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = getWeight(i);
+		}
 		return weights;
 	}
 
 	/**
-	 * connectNode - connect to another node
-	 * @Param MLLNode -  node 
+	 * getNumLinks - returns the number of linked nodes
+	 * @Return int - the number of nodes in the child layer
 	 */
-	public void connectNode(Neuron node) {
-		links.add(node);
-		weights.add(0.0);
+	public int getNumLinks() {
+		return layer.childLayer == null ? 0 : layer.childLayer.getNumNeurons();
 	}
 
 	/**
 	 * getAllLinked - returns all the linked elements
-	 * @Return LinkedList<MLLNode> - the linked elements
+	 * @Return List<Neuron> - the linked elements
 	 */
-	public LinkedList<Neuron> getAllLinked() {
-		return links;
+	public List<Neuron> getAllLinked() {
+		if (layer.childLayer == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(layer.childLayer.getNeurons()));
 	}
 
 	/**
 	 * get - returns a specific linked element
 	 * @Param int - which element to return
-	 * @Return MLLNode - the specific linked element
+	 * @Return Neuron - the specific linked element
 	 */
 	public Neuron get(int i) {
-		return links.get(i);
+		return layer.childLayer.getNeuron(i);
 	}
-	
-	/**
-	 * deletedLinkedElement - deletes a specific linked element
-	 * @Param int - which element to delete
-	 * @Return double - the linked element being deleted
-	 */
-	public Neuron remove(int i) {
-		weights.remove(i);
-		return links.remove(i);
-	}
-	
-	/**
-	 * deleteAllLinks - deletes all links
-	 * @Return LinkedList<MLLNode> - returns all the deleted elements
-	 */
-	public LinkedList<Neuron> deleteAllLinks() {
-		LinkedList<Neuron> temp = links;
-		links.clear();
-		weights.clear();
-		return temp;
-	}
-	
+
 	/**
 	 * isEqual - compare 2 pieces of value
 	 * @Para double - the value to compare
 	 * @Return boolean - returns true if equal, else false
 	 */
 	public boolean isEqual(double value) {
-	    if (this.value == value) {
+	    if (getValue() == value) {
 		    return true;
 		}
 		return false;
 	}
-	
+
 	/**
 	 * compare - compare 2 pieces of value
 	 * @Para double - the value to compare
@@ -157,7 +148,7 @@ public class Neuron {
 	 * between values
 	 */
 	public double compare(double value) {
-		return Math.abs(this.value - value);
+		return Math.abs(getValue() - value);
 	}
 
 }
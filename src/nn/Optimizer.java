@@ -0,0 +1,77 @@
+package nn;
+
+/**
+ * 最適化手法: how a layer turns its gradients into weight updates
+ *
+ * The gradients handed to an optimizer already point downhill, the way this
+ * network's errors (teacher signal minus output) do, so plain gradient
+ * descent is weights += learningRate * gradient. Any per-weight state lives
+ * in {@link #getNumStates()} arrays parallel to the weights, owned by the
+ * layer and indexed exactly like the weights, and is updated in the same
+ * pass as the weights themselves. Learning rate coefficients scale each
+ * weight's step, not its gradient, so they mean the same for every
+ * optimizer. See {@link Optimizers} for the built-in optimizers.
+ *
+ * @author kenneth cason
+ */
+public interface Optimizer {
+
+	/**
+	 * 状態の数: number of state arrays kept per weight array
+	 */
+	int getNumStates();
+
+	/**
+	 * 設定: the hyperparameters, compared with those saved in a checkpoint
+	 * before its state is resumed. The default has none.
+	 */
+	default double[] getParameters() {
+		return new double[0];
+	}
+
+	/**
+	 * 結合荷重を更新する
+	 * update weights[offset, offset + length) by the gradient
+	 * alpha * gradient[gradientOffset + i]
+	 *
+	 * @param state 状態: getNumStates() arrays parallel to weights
+	 * @param coefficients 学習率係数: learning rate coefficients of weights[offset + i], or null for all 1
+	 * @param step 更新の回数: 1 for the first update of the weights, then 2, ...
+	 */
+	void update(double[] weights, int offset, int length, double alpha, double[] gradient, int gradientOffset,
+			double[][] state, double learningRate, double[] coefficients, int step);
+
+	void update(float[] weights, int offset, int length, double alpha, float[] gradient, int gradientOffset,
+			float[][] state, double learningRate, double[] coefficients, int step);
+
+	/**
+	 * 疎な結合荷重を更新する
+	 * update weights[offset + indices[k]] for k in [0, count) by the gradient
+	 * alpha * gradient[indices[k]], exactly as updating each of them alone would.
+	 * One call covers a whole row of a layer whose values were set sparsely, so
+	 * anything depending only on the step is computed once per row. The built-in
+	 * optimizers override the default, which updates one weight at a time with
+	 * its coefficient folded into the learning rate, so it allocates nothing.
+	 *
+	 * @param indices 番号: ascending column indices, at least count of them
+	 * @param coefficients 学習率係数: learning rate coefficients indexed like the gradient, or null for all 1
+	 */
+	default void update(double[] weights, int offset, int[] indices, int count, double alpha, double[] gradient,
+			double[][] state, double learningRate, double[] coefficients, int step) {
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			double rate = coefficients != null ? learningRate * coefficients[i] : learningRate;
+			update(weights, offset + i, 1, alpha, gradient, i, state, rate, null, step);
+		}
+	}
+
+	default void update(float[] weights, int offset, int[] indices, int count, double alpha, float[] gradient,
+			float[][] state, double learningRate, double[] coefficients, int step) {
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			double rate = coefficients != null ? learningRate * coefficients[i] : learningRate;
+			update(weights, offset + i, 1, alpha, gradient, i, state, rate, null, step);
+		}
+	}
+
+}
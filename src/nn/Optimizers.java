@@ -0,0 +1,353 @@
+package nn;
+
+/**
+ * 組み込みの最適化手法: the built-in optimizers
+ *
+ * @author kenneth cason
+ */
+public final class Optimizers {
+
+	private Optimizers() {
+	}
+
+	/**
+	 * 確率的勾配降下法: plain gradient descent, the original update
+	 */
+	public static Optimizer sgd() {
+		return new Sgd();
+	}
+
+	/**
+	 * 慣性項: gradient descent with momentum, v = momentum * v + g, w += learningRate * v
+	 */
+	public static Optimizer momentum(double momentum) {
+		return new Momentum(momentum, false);
+	}
+
+	/**
+	 * ネステロフの加速勾配法: Nesterov momentum, v = momentum * v + g, w += learningRate * (g + momentum * v)
+	 */
+	public static Optimizer nesterov(double momentum) {
+		return new Momentum(momentum, true);
+	}
+
+	/**
+	 * RMSProp: s = decay * s + (1 - decay) * g^2, w += learningRate * g / (sqrt(s) + epsilon)
+	 */
+	public static Optimizer rmsProp(double decay, double epsilon) {
+		return new RmsProp(decay, epsilon);
+	}
+
+	public static Optimizer rmsProp() {
+		return rmsProp(0.9, 1e-8);
+	}
+
+	/**
+	 * Adam: bias-corrected moving averages of the gradient and its square
+	 */
+	public static Optimizer adam(double beta1, double beta2, double epsilon) {
+		return new Adam(beta1, beta2, epsilon);
+	}
+
+	public static Optimizer adam() {
+		return adam(0.9, 0.999, 1e-8);
+	}
+
+	/*
+	 * 重みの学習率: the learning rate of weight i, scaled by its coefficient
+	 */
+	private static double rate(double learningRate, double[] coefficients, int i) {
+		return coefficients == null ? learningRate : learningRate * coefficients[i];
+	}
+
+	private static class Sgd implements Optimizer {
+
+		public int getNumStates() {
+			return 0;
+		}
+
+		public void update(double[] weights, int offset, int length, double alpha, double[] gradient,
+				int gradientOffset, double[][] state, double learningRate, double[] coefficients, int step) {
+			if (coefficients == null) {
+				Matrix.axpy(learningRate * alpha, gradient, gradientOffset, weights, offset, length);
+				return;
+			}
+			double rate = learningRate * alpha;
+			for (int i = 0; i < length; i++) {
+				weights[offset + i] += rate * coefficients[i] * gradient[gradientOffset + i];
+			}
+		}
+
+		public void update(float[] weights, int offset, int length, double alpha, float[] gradient,
+				int gradientOffset, float[][] state, double learningRate, double[] coefficients, int step) {
+			if (coefficients == null) {
+				Matrix.axpy((float) (learningRate * alpha), gradient, gradientOffset, weights, offset, length);
+				return;
+			}
+			double rate = learningRate * alpha;
+			for (int i = 0; i < length; i++) {
+				weights[offset + i] += (float) (rate * coefficients[i] * gradient[gradientOffset + i]);
+			}
+		}
+
+		public void update(double[] weights, int offset, int[] indices, int count, double alpha, double[] gradient,
+				double[][] state, double learningRate, double[] coefficients, int step) {
+			double rate = learningRate * alpha;
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				weights[offset + i] += (coefficients == null ? rate : rate * coefficients[i]) * gradient[i];
+			}
+		}
+
+		public void update(float[] weights, int offset, int[] indices, int count, double alpha, float[] gradient,
+				float[][] state, double learningRate, double[] coefficients, int step) {
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				if (coefficients == null) {
+					weights[offset + i] += (float) (learningRate * alpha) * gradient[i];
+				} else {
+					weights[offset + i] += (float) (learningRate * alpha * coefficients[i] * gradient[i]);
+				}
+			}
+		}
+
+		public String toString() {
+			return "sgd";
+		}
+
+	}
+
+	private static class Momentum implements Optimizer {
+
+		private final double momentum;
+
+		private final boolean nesterov;
+
+		Momentum(double momentum, boolean nesterov) {
+			this.momentum = momentum;
+			this.nesterov = nesterov;
+		}
+
+		public int getNumStates() {
+			return 1;
+		}
+
+		public void update(double[] weights, int offset, int length, double alpha, double[] gradient,
+				int gradientOffset, double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] velocity = state[0];
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double v = momentum * velocity[offset + i] + g;
+				velocity[offset + i] = v;
+				weights[offset + i] += rate(learningRate, coefficients, i) * (nesterov ? g + momentum * v : v);
+			}
+		}
+
+		public void update(float[] weights, int offset, int length, double alpha, float[] gradient,
+				int gradientOffset, float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] velocity = state[0];
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double v = momentum * velocity[offset + i] + g;
+				velocity[offset + i] = (float) v;
+				weights[offset + i] += (float) (rate(learningRate, coefficients, i) * (nesterov ? g + momentum * v : v));
+			}
+		}
+
+		public void update(double[] weights, int offset, int[] indices, int count, double alpha, double[] gradient,
+				double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] velocity = state[0];
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double v = momentum * velocity[offset + i] + g;
+				velocity[offset + i] = v;
+				weights[offset + i] += rate(learningRate, coefficients, i) * (nesterov ? g + momentum * v : v);
+			}
+		}
+
+		public void update(float[] weights, int offset, int[] indices, int count, double alpha, float[] gradient,
+				float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] velocity = state[0];
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double v = momentum * velocity[offset + i] + g;
+				velocity[offset + i] = (float) v;
+				weights[offset + i] += (float) (rate(learningRate, coefficients, i) * (nesterov ? g + momentum * v : v));
+			}
+		}
+
+		public double[] getParameters() {
+			return new double[] {momentum, nesterov ? 1 : 0};
+		}
+
+		public String toString() {
+			return (nesterov ? "nesterov(" : "momentum(") + momentum + ")";
+		}
+
+	}
+
+	private static class RmsProp implements Optimizer {
+
+		private final double decay;
+
+		private final double epsilon;
+
+		RmsProp(double decay, double epsilon) {
+			this.decay = decay;
+			this.epsilon = epsilon;
+		}
+
+		public int getNumStates() {
+			return 1;
+		}
+
+		public void update(double[] weights, int offset, int length, double alpha, double[] gradient,
+				int gradientOffset, double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] squares = state[0];
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double s = decay * squares[offset + i] + (1 - decay) * g * g;
+				squares[offset + i] = s;
+				weights[offset + i] += rate(learningRate, coefficients, i) * g / (Math.sqrt(s) + epsilon);
+			}
+		}
+
+		public void update(float[] weights, int offset, int length, double alpha, float[] gradient,
+				int gradientOffset, float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] squares = state[0];
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double s = decay * squares[offset + i] + (1 - decay) * g * g;
+				squares[offset + i] = (float) s;
+				weights[offset + i] += (float) (rate(learningRate, coefficients, i) * g / (Math.sqrt(s) + epsilon));
+			}
+		}
+
+		public void update(double[] weights, int offset, int[] indices, int count, double alpha, double[] gradient,
+				double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] squares = state[0];
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double s = decay * squares[offset + i] + (1 - decay) * g * g;
+				squares[offset + i] = s;
+				weights[offset + i] += rate(learningRate, coefficients, i) * g / (Math.sqrt(s) + epsilon);
+			}
+		}
+
+		public void update(float[] weights, int offset, int[] indices, int count, double alpha, float[] gradient,
+				float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] squares = state[0];
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double s = decay * squares[offset + i] + (1 - decay) * g * g;
+				squares[offset + i] = (float) s;
+				weights[offset + i] += (float) (rate(learningRate, coefficients, i) * g / (Math.sqrt(s) + epsilon));
+			}
+		}
+
+		public double[] getParameters() {
+			return new double[] {decay, epsilon};
+		}
+
+		public String toString() {
+			return "rmsProp(" + decay + ", " + epsilon + ")";
+		}
+
+	}
+
+	private static class Adam implements Optimizer {
+
+		private final double beta1;
+
+		private final double beta2;
+
+		private final double epsilon;
+
+		Adam(double beta1, double beta2, double epsilon) {
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.epsilon = epsilon;
+		}
+
+		public int getNumStates() {
+			return 2;
+		}
+
+		public void update(double[] weights, int offset, int length, double alpha, double[] gradient,
+				int gradientOffset, double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] means = state[0];
+			double[] squares = state[1];
+			// 偏りの補正: the bias corrections folded into the step size
+			double rate = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double m = beta1 * means[offset + i] + (1 - beta1) * g;
+				double s = beta2 * squares[offset + i] + (1 - beta2) * g * g;
+				means[offset + i] = m;
+				squares[offset + i] = s;
+				weights[offset + i] += rate(rate, coefficients, i) * m / (Math.sqrt(s) + epsilon);
+			}
+		}
+
+		public void update(float[] weights, int offset, int length, double alpha, float[] gradient,
+				int gradientOffset, float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] means = state[0];
+			float[] squares = state[1];
+			double rate = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+			for (int i = 0; i < length; i++) {
+				double g = alpha * gradient[gradientOffset + i];
+				double m = beta1 * means[offset + i] + (1 - beta1) * g;
+				double s = beta2 * squares[offset + i] + (1 - beta2) * g * g;
+				means[offset + i] = (float) m;
+				squares[offset + i] = (float) s;
+				weights[offset + i] += (float) (rate(rate, coefficients, i) * m / (Math.sqrt(s) + epsilon));
+			}
+		}
+
+		public void update(double[] weights, int offset, int[] indices, int count, double alpha, double[] gradient,
+				double[][] state, double learningRate, double[] coefficients, int step) {
+			double[] means = state[0];
+			double[] squares = state[1];
+			double rate = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double m = beta1 * means[offset + i] + (1 - beta1) * g;
+				double s = beta2 * squares[offset + i] + (1 - beta2) * g * g;
+				means[offset + i] = m;
+				squares[offset + i] = s;
+				weights[offset + i] += rate(rate, coefficients, i) * m / (Math.sqrt(s) + epsilon);
+			}
+		}
+
+		public void update(float[] weights, int offset, int[] indices, int count, double alpha, float[] gradient,
+				float[][] state, double learningRate, double[] coefficients, int step) {
+			float[] means = state[0];
+			float[] squares = state[1];
+			double rate = learningRate * Math.sqrt(1 - Math.pow(beta2, step)) / (1 - Math.pow(beta1, step));
+			for (int k = 0; k < count; k++) {
+				int i = indices[k];
+				double g = alpha * gradient[i];
+				double m = beta1 * means[offset + i] + (1 - beta1) * g;
+				double s = beta2 * squares[offset + i] + (1 - beta2) * g * g;
+				means[offset + i] = (float) m;
+				squares[offset + i] = (float) s;
+				weights[offset + i] += (float) (rate(rate, coefficients, i) * m / (Math.sqrt(s) + epsilon));
+			}
+		}
+
+		public double[] getParameters() {
+			return new double[] {beta1, beta2, epsilon};
+		}
+
+		public String toString() {
+			return "adam(" + beta1 + ", " + beta2 + ", " + epsilon + ")";
+		}
+
+	}
+
+}
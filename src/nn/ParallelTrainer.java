@@ -0,0 +1,194 @@
+package nn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * 並列学習: data-parallel mini-batch trainer
+ *
+ * Each mini-batch is split into one contiguous shard per thread. Every shard is
+ * propagated through its own {@link Workspace}, reading the network's weights
+ * but never writing them, so the weights act as a shared read-only snapshot
+ * while the gradients are being computed. The per-thread gradients are then
+ * summed in shard order and applied to the layers in a single update.
+ *
+ * Because the sharding and the summation order depend only on the batch size
+ * and the number of threads, training is deterministic for a fixed
+ * {@link NeuralNetworkConfig#seed} and thread count.
+ *
+ * @author kenneth cason
+ */
+public class ParallelTrainer {
+
+	private final NeuralNetwork network;
+
+	private final int numThreads;
+
+	private final ForkJoinPool pool;
+
+	private Workspace[] workspaces; // 各スレッドの作業領域: one workspace per shard
+
+	public ParallelTrainer(NeuralNetwork network) {
+		this(network, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param network 学習するニューラルネット: the network to train
+	 * @param numThreads スレッド数: number of threads, and shards per batch
+	 */
+	public ParallelTrainer(NeuralNetwork network, int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+		}
+		this.network = network;
+		this.numThreads = numThreads;
+		this.pool = new ForkJoinPool(numThreads);
+		this.workspaces = new Workspace[numThreads];
+	}
+
+	/**
+	 * ミニバッチで並列に学習する
+	 * train on a mini-batch, computing the gradients of its shards in parallel
+	 * and adjusting the weights once by the mean gradient
+	 *
+	 * @param inputs 入力: one row of input values per sample
+	 * @param teacherSignals 教師信号: one row of teacher signals per sample
+	 * @return 平均２乗誤差: the mean squared error over the batch, before the weights are adjusted
+	 */
+	public double trainBatch(double[][] inputs, double[][] teacherSignals) {
+		return trainBatch(inputs, teacherSignals, 0, inputs.length);
+	}
+
+	/**
+	 * ミニバッチで並列に学習する
+	 * train on the mini-batch made of the rows [offset, offset + batchSize)
+	 *
+	 * @see #trainBatch(double[][], double[][])
+	 */
+	public double trainBatch(final double[][] inputs, final double[][] teacherSignals, int offset, int batchSize) {
+		final int numShards = Math.min(numThreads, batchSize);
+		ensureCapacity((batchSize + numShards - 1) / numShards);
+
+		List<Callable<Double>> shards = new ArrayList<Callable<Double>>(numShards);
+		for (int s = 0; s < numShards; s++) {
+			final Workspace workspace = workspaces[s];
+			final int from = offset + shardStart(s, numShards, batchSize);
+			final int to = offset + shardStart(s + 1, numShards, batchSize);
+			shards.add(new Callable<Double>() {
+				public Double call() {
+					return network.calculateGradients(workspace, inputs, teacherSignals, from, to - from);
+				}
+			});
+		}
+		double error = 0;
+		for (Double shardError : invokeAll(shards)) {
+			error += shardError;
+		}
+
+		reduceGradients(numShards);
+		network.adjustWeights(workspaces[0], 1.0 / batchSize);
+		return error / batchSize;
+	}
+
+	/**
+	 * 各シャードの勾配を最初の作業領域に足し合わせる
+	 * sum the gradients of every shard into the first workspace. Each layer's
+	 * gradients are reduced in parallel, always adding the shards in order.
+	 */
+	private void reduceGradients(final int numShards) {
+		if (numShards == 1) {
+			return;
+		}
+		final boolean floatGradients = workspaces[0].floatGradients != null;
+		int numLayers = workspaces[0].biasGradients.length;
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for (int l = 0; l < numLayers; l++) {
+			final double[] gradients = floatGradients ? null : workspaces[0].gradients[l];
+			final float[] floatGradientsOfLayer = floatGradients ? workspaces[0].floatGradients[l] : null;
+			final double[] biasGradients = workspaces[0].biasGradients[l];
+			final int layer = l;
+			int numGradients = floatGradients ? floatGradientsOfLayer.length : gradients.length;
+			int numChunks = Math.min(numThreads, numGradients);
+			for (int c = 0; c < numChunks; c++) {
+				final int from = shardStart(c, numChunks, numGradients);
+				final int to = shardStart(c + 1, numChunks, numGradients);
+				final boolean reduceBias = c == 0;
+				tasks.add(new Callable<Double>() {
+					public Double call() {
+						for (int s = 1; s < numShards; s++) {
+							if (floatGradients) {
+								float[] shardGradients = workspaces[s].floatGradients[layer];
+								for (int i = from; i < to; i++) {
+									floatGradientsOfLayer[i] += shardGradients[i];
+								}
+							} else {
+								double[] shardGradients = workspaces[s].gradients[layer];
+								for (int i = from; i < to; i++) {
+									gradients[i] += shardGradients[i];
+								}
+							}
+							if (reduceBias) {
+								double[] shardBiasGradients = workspaces[s].biasGradients[layer];
+								for (int i = 0; i < biasGradients.length; i++) {
+									biasGradients[i] += shardBiasGradients[i];
+								}
+							}
+						}
+						return null;
+					}
+				});
+			}
+		}
+		invokeAll(tasks);
+	}
+
+	private void ensureCapacity(int shardSize) {
+		for (int s = 0; s < numThreads; s++) {
+			if (workspaces[s] == null || workspaces[s].getBatchSize() < shardSize) {
+				workspaces[s] = new Workspace(network, shardSize, true);
+			}
+		}
+	}
+
+	private static int shardStart(int shard, int numShards, int length) {
+		return (int) ((long) shard * length / numShards);
+	}
+
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		return results;
+	}
+
+	public NeuralNetwork getNetwork() {
+		return network;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * スレッドプールを終了する: shut down the thread pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,144 @@
+package nn;
+
+import java.util.Arrays;
+
+/**
+ * プーリング層: max or average pooling over square windows of every channel
+ *
+ * @author kenneth cason
+ */
+public class PoolingLayer extends FeatureLayer {
+
+	/**
+	 * プーリングの種類: how a window is reduced to one value
+	 */
+	public enum Type {
+		/** 最大値: the largest value of the window */
+		MAX,
+		/** 平均値: the mean of the window */
+		AVERAGE
+	}
+
+	private final Type type;
+
+	private final int size;
+
+	private final int stride;
+
+	/**
+	 * 重ならない窓: non-overlapping size x size windows
+	 */
+	public PoolingLayer(Type type, int size) {
+		this(type, size, size);
+	}
+
+	/**
+	 * @param type 種類: max or average
+	 * @param size 窓の大きさ: width and height of each window
+	 * @param stride 歩幅: distance between neighbouring windows
+	 */
+	public PoolingLayer(Type type, int size, int stride) {
+		if (size < 1 || stride < 1) {
+			throw new IllegalArgumentException("Invalid pooling: size " + size + ", stride " + stride);
+		}
+		this.type = type;
+		this.size = size;
+		this.stride = stride;
+	}
+
+	@Override
+	void initOutput() {
+		// 窓は入力に収まる: a window larger than the map would read the next channel
+		if (inputWidth < size || inputHeight < size) {
+			throw new IllegalArgumentException("Pooling window " + size + " does not fit a " + inputHeight + "x"
+					+ inputWidth + " input");
+		}
+		outputChannels = inputChannels;
+		outputWidth = (inputWidth - size) / stride + 1;
+		outputHeight = (inputHeight - size) / stride + 1;
+	}
+
+	@Override
+	double[][] newScratch(int batchSize) {
+		return new double[0][];
+	}
+
+	@Override
+	void forward(double[] inputs, double[] outputs, int count, double[][] scratch) {
+		int numMaps = count * inputChannels;
+		int inputMapSize = inputWidth * inputHeight;
+		int outputMapSize = outputWidth * outputHeight;
+		for (int m = 0; m < numMaps; m++) {
+			int input = m * inputMapSize;
+			int output = m * outputMapSize;
+			for (int y = 0; y < outputHeight; y++) {
+				for (int x = 0; x < outputWidth; x++) {
+					int window = input + y * stride * inputWidth + x * stride;
+					double value = type == Type.MAX ? Double.NEGATIVE_INFINITY : 0.0;
+					for (int wy = 0; wy < size; wy++) {
+						for (int wx = 0; wx < size; wx++) {
+							double v = inputs[window + wy * inputWidth + wx];
+							value = type == Type.MAX ? Math.max(value, v) : value + v;
+						}
+					}
+					outputs[output + y * outputWidth + x] = type == Type.MAX ? value : value / (size * size);
+				}
+			}
+		}
+	}
+
+	/*
+	 * 最大値の位置は前向きの結果から探し直す: max pooling finds the winning input
+	 * again by comparing against the forward output, so nothing is stored
+	 */
+	@Override
+	void backward(double[] inputs, double[] outputs, double[] outputErrors, double[] inputErrors, int count,
+			double[][] scratch) {
+		if (inputErrors == null) {
+			return;
+		}
+		int numMaps = count * inputChannels;
+		int inputMapSize = inputWidth * inputHeight;
+		int outputMapSize = outputWidth * outputHeight;
+		Arrays.fill(inputErrors, 0, numMaps * inputMapSize, 0.0);
+		for (int m = 0; m < numMaps; m++) {
+			int input = m * inputMapSize;
+			int output = m * outputMapSize;
+			for (int y = 0; y < outputHeight; y++) {
+				for (int x = 0; x < outputWidth; x++) {
+					int window = input + y * stride * inputWidth + x * stride;
+					double error = outputErrors[output + y * outputWidth + x];
+					if (type == Type.MAX) {
+						double max = outputs[output + y * outputWidth + x];
+						search:
+						for (int wy = 0; wy < size; wy++) {
+							for (int wx = 0; wx < size; wx++) {
+								int i = window + wy * inputWidth + wx;
+								if (inputs[i] == max) {
+									inputErrors[i] += error;
+									break search;
+								}
+							}
+						}
+					} else {
+						error /= size * size;
+						for (int wy = 0; wy < size; wy++) {
+							for (int wx = 0; wx < size; wx++) {
+								inputErrors[window + wy * inputWidth + wx] += error;
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,34 @@
+package nn;
+
+/**
+ * 精度: numeric precision of a network's weights and activations
+ *
+ * @author kenneth cason
+ */
+public enum Precision {
+
+	/**
+	 * 倍精度: weights, activations and sums are all double
+	 */
+	DOUBLE,
+
+	/**
+	 * 単精度: weights, batched activations and sums are all float. This halves
+	 * the weight memory and doubles the SIMD lanes of the hot loops.
+	 */
+	FLOAT,
+
+	/**
+	 * 混合精度: stored like {@link #FLOAT}, but the dot products of the
+	 * forward pass are accumulated in double
+	 */
+	MIXED;
+
+	/**
+	 * 重みをfloatで保存するか: whether weights are stored as float
+	 */
+	public boolean isFloatStorage() {
+		return this != DOUBLE;
+	}
+
+}
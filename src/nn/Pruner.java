@@ -0,0 +1,96 @@
+package nn;
+
+import java.util.Arrays;
+
+/**
+ * 枝刈り: post-training magnitude pruning of a trained network
+ *
+ * {@link #prune(NeuralNetwork, double)} drops the given fraction of each
+ * layer's weights, smallest magnitude first, and produces a
+ * {@link SparseNetwork} holding only the weights that remain.
+ *
+ * @author kenneth cason
+ */
+public class Pruner {
+
+	private Pruner() {
+	}
+
+	/**
+	 * 枝刈りする
+	 * prune the smallest weights of every layer
+	 *
+	 * @param network 学習済みのニューラルネット: a trained network, any precision
+	 * @param fraction 刈る割合: the fraction of each layer's weights to drop, in [0, 1)
+	 * @return 疎なニューラルネット: an inference-only copy of the network
+	 */
+	public static SparseNetwork prune(NeuralNetwork network, double fraction) {
+		if (!(fraction >= 0 && fraction < 1)) {
+			throw new IllegalArgumentException("fraction must be in [0, 1): " + fraction);
+		}
+		NeuralNetworkConfig config = network.getConfig();
+		Layer[] layers = network.getLayers();
+		int numWeightLayers = layers.length - 1;
+		int[] sizes = new int[layers.length];
+		for (int l = 0; l < layers.length; l++) {
+			sizes[l] = layers[l].getNumNeurons();
+		}
+
+		int[][] rowStarts = new int[numWeightLayers][];
+		int[][] columns = new int[numWeightLayers][];
+		double[][] weights = new double[numWeightLayers][];
+		double[][] biases = config.bias ? new double[numWeightLayers][] : null;
+		for (int l = 0; l < numWeightLayers; l++) {
+			Layer layer = layers[l];
+			int numWeights = layer.getNumWeights();
+			int numPruned = (int) (fraction * numWeights);
+
+			// 閾値: the largest magnitude pruned, and how many weights of exactly that magnitude go
+			double[] magnitudes = new double[numWeights];
+			for (int i = 0; i < numWeights; i++) {
+				magnitudes[i] = Math.abs(layer.getWeight(i));
+			}
+			Arrays.sort(magnitudes);
+			double threshold = numPruned > 0 ? magnitudes[numPruned - 1] : -1;
+			int numTiesPruned = numPruned;
+			for (int i = 0; i < numPruned && magnitudes[i] < threshold; i++) {
+				numTiesPruned--;
+			}
+
+			// 親ニューロンごとの行: one row per parent neuron, the matrix stores one row per child neuron
+			int numParentNeurons = sizes[l];
+			int numChildNeurons = sizes[l + 1];
+			rowStarts[l] = new int[numParentNeurons + 1];
+			columns[l] = new int[numWeights - numPruned];
+			weights[l] = new double[numWeights - numPruned];
+			int k = 0;
+			for (int i = 0; i < numParentNeurons; i++) {
+				rowStarts[l][i] = k;
+				for (int j = 0; j < numChildNeurons; j++) {
+					double weight = layer.getWeight(j * numParentNeurons + i);
+					double magnitude = Math.abs(weight);
+					if (magnitude < threshold) {
+						continue;
+					}
+					if (magnitude == threshold && numTiesPruned > 0) {
+						numTiesPruned--;
+						continue;
+					}
+					columns[l][k] = j;
+					weights[l][k] = weight;
+					k++;
+				}
+			}
+			rowStarts[l][numParentNeurons] = k;
+			if (config.bias) {
+				// バイアス値は-1: the bias value is -1
+				biases[l] = new double[numChildNeurons];
+				for (int j = 0; j < numChildNeurons; j++) {
+					biases[l][j] = layer.biasValues[j] * layer.getBiasWeight(j);
+				}
+			}
+		}
+		return new SparseNetwork(config, sizes, rowStarts, columns, weights, biases);
+	}
+
+}
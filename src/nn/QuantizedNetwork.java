@@ -0,0 +1,136 @@
+package nn;
+
+/**
+ * 量子化されたニューラルネット: an inference-only network with int8 weights
+ *
+ * Every weight matrix is stored as signed bytes with one scale per layer, and
+ * the activations feeding each layer are quantized to signed bytes with a
+ * scale calibrated by {@link Quantizer}. Each neuron's sum is accumulated in
+ * int, the bias is added in the same integer units, and only then is the sum
+ * scaled back to a double for the layer's activation function. A quantized matrix is an eighth of
+ * the size of the double one, so far larger networks stay in cache.
+ * {@link #predict(double[])} does not modify any shared state and may be
+ * called from many threads at once.
+ *
+ * @author kenneth cason
+ */
+public class QuantizedNetwork {
+
+	static final int MAX_VALUE = 127; // int8の最大値: quantized values lie in [-127, 127]
+
+	private final NeuralNetworkConfig config;
+
+	private final int[] sizes; // 各層の神経数: number of neurons per layer
+
+	private final byte[][] weights; // 結合荷重: numChildNeurons x numNeurons per layer
+
+	private final double[] weightScales; // 重みの尺度: weight = weights[l][i] * weightScales[l]
+
+	private final double[] activationScales; // 活性値の尺度: activation = quantized * activationScales[l]
+
+	private final int[][] biases; // バイアス: in units of weightScales[l] * activationScales[l], or null
+
+	/*
+	 * 各スレッドの活性値: per-thread quantized activations
+	 */
+	private final ThreadLocal<byte[][]> activations = new ThreadLocal<byte[][]>() {
+		protected byte[][] initialValue() {
+			byte[][] values = new byte[sizes.length - 1][];
+			for (int l = 0; l < sizes.length - 1; l++) {
+				values[l] = new byte[sizes[l]];
+			}
+			return values;
+		}
+	};
+
+	/*
+	 * 各スレッドの和: per-thread sums of each layer, before quantizing
+	 */
+	private final ThreadLocal<double[][]> sums = new ThreadLocal<double[][]>() {
+		protected double[][] initialValue() {
+			double[][] values = new double[sizes.length][];
+			for (int l = 1; l < sizes.length; l++) {
+				values[l] = new double[sizes[l]];
+			}
+			return values;
+		}
+	};
+
+	QuantizedNetwork(NeuralNetworkConfig config, int[] sizes, byte[][] weights, double[] weightScales,
+			double[] activationScales, int[][] biases) {
+		this.config = config;
+		this.sizes = sizes;
+		this.weights = weights;
+		this.weightScales = weightScales;
+		this.activationScales = activationScales;
+		this.biases = biases;
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one input
+	 *
+	 * @param input 入力: one value per input node
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(double[] input) {
+		if (input.length != sizes[0]) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		byte[][] values = activations.get();
+		double[][] layerSums = sums.get();
+		quantize(input, activationScales[0], values[0]);
+		for (int l = 0; l < sizes.length - 1; l++) {
+			byte[] parent = values[l];
+			byte[] w = weights[l];
+			double[] child = layerSums[l + 1];
+			int numParentNeurons = sizes[l];
+			double scale = weightScales[l] * activationScales[l];
+			for (int j = 0; j < child.length; j++) {
+				int sum = Matrix.dot(parent, 0, w, j * numParentNeurons, numParentNeurons);
+				if (biases != null) {
+					sum += biases[l][j];
+				}
+				child[j] = sum * scale;
+			}
+			config.getActivation(l + 1).apply(child, 0, child.length);
+			if (l < sizes.length - 2) {
+				quantize(child, activationScales[l + 1], values[l + 1]);
+			}
+		}
+		return layerSums[sizes.length - 1].clone();
+	}
+
+	/**
+	 * 量子化されたサイズ: bytes taken by the quantized weights and biases
+	 */
+	public long getSizeInBytes() {
+		long size = 0;
+		for (int l = 0; l < weights.length; l++) {
+			size += weights[l].length;
+			if (biases != null) {
+				size += 4L * biases[l].length;
+			}
+		}
+		return size;
+	}
+
+	public NeuralNetworkConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * 量子化する: round value / scale to the nearest int8, saturating
+	 */
+	static byte quantize(double value, double scale) {
+		long q = Math.round(value / scale);
+		return (byte) Math.max(-MAX_VALUE, Math.min(MAX_VALUE, q));
+	}
+
+	static void quantize(double[] values, double scale, byte[] to) {
+		for (int i = 0; i < values.length; i++) {
+			to[i] = quantize(values[i], scale);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package nn;
+
+/**
+ * 量子化: post-training int8 quantization of a trained network
+ *
+ * {@link #quantize(NeuralNetwork, double[][])} scales every weight matrix
+ * symmetrically by its largest magnitude, runs a calibration set through the
+ * network to find the largest activation reaching each layer, and produces a
+ * {@link QuantizedNetwork}. {@link #evaluate(NeuralNetwork, QuantizedNetwork, double[][])}
+ * reports how far the quantized outputs drift from the original ones.
+ *
+ * @author kenneth cason
+ */
+public class Quantizer {
+
+	private Quantizer() {
+	}
+
+	/**
+	 * 量子化する
+	 * quantize a trained network to int8
+	 *
+	 * @param network 学習済みのニューラルネット: a trained network, any precision
+	 * @param calibrationInputs 較正データ: representative inputs, one row per sample
+	 * @return 量子化されたニューラルネット: an inference-only copy of the network
+	 */
+	public static QuantizedNetwork quantize(NeuralNetwork network, double[][] calibrationInputs) {
+		if (calibrationInputs.length == 0) {
+			throw new IllegalArgumentException("At least one calibration input is needed.");
+		}
+		NeuralNetworkConfig config = network.getConfig();
+		Layer[] layers = network.getLayers();
+		int numWeightLayers = layers.length - 1;
+		int[] sizes = new int[layers.length];
+		for (int l = 0; l < layers.length; l++) {
+			sizes[l] = layers[l].getNumNeurons();
+		}
+
+		// 較正: calibrate the largest activation reaching each layer
+		double[] maxActivations = new double[numWeightLayers];
+		Workspace workspace = new Workspace(network);
+		for (double[] input : calibrationInputs) {
+			network.predict(input, workspace);
+			for (int l = 0; l < numWeightLayers; l++) {
+				for (int i = 0; i < sizes[l]; i++) {
+					double value = workspace.floatActivations != null
+							? workspace.floatActivations[l][i] : workspace.activations[l][i];
+					maxActivations[l] = Math.max(maxActivations[l], Math.abs(value));
+				}
+			}
+		}
+
+		byte[][] weights = new byte[numWeightLayers][];
+		double[] weightScales = new double[numWeightLayers];
+		double[] activationScales = new double[numWeightLayers];
+		int[][] biases = config.bias ? new int[numWeightLayers][] : null;
+		for (int l = 0; l < numWeightLayers; l++) {
+			Layer layer = layers[l];
+			double maxWeight = 0;
+			for (int i = 0; i < layer.getNumWeights(); i++) {
+				maxWeight = Math.max(maxWeight, Math.abs(layer.getWeight(i)));
+			}
+			weightScales[l] = scale(maxWeight);
+			activationScales[l] = scale(maxActivations[l]);
+			weights[l] = new byte[layer.getNumWeights()];
+			for (int i = 0; i < weights[l].length; i++) {
+				weights[l][i] = QuantizedNetwork.quantize(layer.getWeight(i), weightScales[l]);
+			}
+			if (config.bias) {
+				// バイアス値は-1、整数の単位で: the bias value is -1, in accumulator units
+				biases[l] = new int[sizes[l + 1]];
+				double unit = weightScales[l] * activationScales[l];
+				for (int j = 0; j < sizes[l + 1]; j++) {
+					biases[l][j] = (int) Math.round(layer.biasValues[j] * layer.getBiasWeight(j) / unit);
+				}
+			}
+		}
+		return new QuantizedNetwork(config, sizes, weights, weightScales, activationScales, biases);
+	}
+
+	/**
+	 * 量子化の誤差を評価する
+	 * compare the quantized network against the original on a set of inputs. The
+	 * original outputs are those {@link NeuralNetwork#getOutputs()} gives after
+	 * {@link NeuralNetwork#feedForward()}, computed through
+	 * {@link NeuralNetwork#predict(double[])} so the network's state is untouched.
+	 */
+	public static Report evaluate(NeuralNetwork network, QuantizedNetwork quantized, double[][] inputs) {
+		double maxError = 0;
+		double sumError = 0;
+		int numOutputs = 0;
+		int numAgreeing = 0;
+		for (double[] input : inputs) {
+			double[] expected = network.predict(input);
+			double[] actual = quantized.predict(input);
+			for (int i = 0; i < expected.length; i++) {
+				double error = Math.abs(expected[i] - actual[i]);
+				maxError = Math.max(maxError, error);
+				sumError += error;
+			}
+			numOutputs += expected.length;
+			if (argmax(expected) == argmax(actual)) {
+				numAgreeing++;
+			}
+		}
+		return new Report(inputs.length, maxError, numOutputs == 0 ? 0 : sumError / numOutputs,
+				inputs.length == 0 ? 1 : (double) numAgreeing / inputs.length);
+	}
+
+	/*
+	 * 尺度: the scale mapping [-max, max] onto [-127, 127]
+	 */
+	private static double scale(double max) {
+		return max == 0 ? 1.0 : max / QuantizedNetwork.MAX_VALUE;
+	}
+
+	private static int argmax(double[] values) {
+		int max = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[max]) {
+				max = i;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * 量子化の誤差: accuracy of a quantized network relative to the original
+	 */
+	public static class Report {
+
+		private final int numSamples;
+
+		private final double maxError;
+
+		private final double meanError;
+
+		private final double agreement;
+
+		Report(int numSamples, double maxError, double meanError, double agreement) {
+			this.numSamples = numSamples;
+			this.maxError = maxError;
+			this.meanError = meanError;
+			this.agreement = agreement;
+		}
+
+		public int getNumSamples() {
+			return numSamples;
+		}
+
+		/**
+		 * 最大絶対誤差: the largest absolute difference of any output
+		 */
+		public double getMaxError() {
+			return maxError;
+		}
+
+		/**
+		 * 平均絶対誤差: the mean absolute difference over all outputs
+		 */
+		public double getMeanError() {
+			return meanError;
+		}
+
+		/**
+		 * 一致率: the fraction of samples whose largest output is the same node
+		 */
+		public double getAgreement() {
+			return agreement;
+		}
+
+		public String toString() {
+			return "samples = " + numSamples + ", max error = " + maxError
+					+ ", mean error = " + meanError + ", agreement = " + agreement;
+		}
+
+	}
+
+}
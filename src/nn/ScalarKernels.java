@@ -0,0 +1,142 @@
+package nn;
+
+import java.nio.ByteBuffer;
+
+/**
+ * スカラーの計算カーネル: plain loops, vectorized only as far as the JIT manages
+ *
+ * @author kenneth cason
+ */
+class ScalarKernels implements Kernels {
+
+	public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	public void sigmoid(double[] values, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			values[i] = 1.0 / (1 + Math.exp(-values[i]));
+		}
+	}
+
+	public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		float sum = 0.0f;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public double dotDouble(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += (double) a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public double dot(double[] a, int aOffset, float[] b, int bOffset, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	public void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	public void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] = (float) (y[yOffset + i] + alpha * x[xOffset + i]);
+		}
+	}
+
+	public void sigmoid(float[] values, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			values[i] = (float) (1.0 / (1 + Math.exp(-values[i])));
+		}
+	}
+
+	public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		int sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	public double dotDoubles(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b.getDouble((bIndex + i) * 8);
+		}
+		return sum;
+	}
+
+	public double dotFloats(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b.getFloat((bIndex + i) * 4);
+		}
+		return sum;
+	}
+
+	public float dotFloats(float[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		float sum = 0.0f;
+		for (int i = 0; i < length; i++) {
+			sum += a[aOffset + i] * b.getFloat((bIndex + i) * 4);
+		}
+		return sum;
+	}
+
+	public double dotDoubleFloats(float[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		double sum = 0.0;
+		for (int i = 0; i < length; i++) {
+			sum += (double) a[aOffset + i] * b.getFloat((bIndex + i) * 4);
+		}
+		return sum;
+	}
+
+	public void axpyDoubles(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x.getDouble((xIndex + i) * 8);
+		}
+	}
+
+	public void axpyFloats(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x.getFloat((xIndex + i) * 4);
+		}
+	}
+
+	public void axpyFloats(float alpha, ByteBuffer x, int xIndex, float[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += alpha * x.getFloat((xIndex + i) * 4);
+		}
+	}
+
+	public String getName() {
+		return "scalar";
+	}
+
+}
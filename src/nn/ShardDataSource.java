@@ -0,0 +1,188 @@
+package nn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * シャードの学習データ: memory-mapped {@link DatasetShards}
+ *
+ * Every shard is mapped read-only and samples are read in place: only the
+ * page cache holds the data, so the dataset may be far larger than the heap.
+ * Samples are numbered across the shards in order. Besides serving as a
+ * {@link DataSource}, the shards can train a network directly, copying each
+ * sample straight from the mapping into the network's batch workspace, in a
+ * shuffled order that needs only one int per sample.
+ *
+ * @author kenneth cason
+ */
+public class ShardDataSource implements DataSource {
+
+	private final int numInputs;
+
+	private final int numOutputs;
+
+	private final DoubleBuffer[] shards; // 各シャードのサンプル: the samples of each shard
+
+	private final int[] starts; // 各シャードの最初のサンプル番号: first sample of each shard, then size()
+
+	private int[] order; // サンプルの順番: the sample order of trainEpoch
+
+	public ShardDataSource(List<File> files) throws IOException {
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is needed.");
+		}
+		shards = new DoubleBuffer[files.size()];
+		starts = new int[files.size() + 1];
+		int numInputs = -1;
+		int numOutputs = -1;
+		for (int s = 0; s < files.size(); s++) {
+			File file = files.get(s);
+			ByteBuffer buffer = map(file);
+			if (buffer.capacity() < DatasetShards.HEADER_SIZE || buffer.getInt(0) != DatasetShards.MAGIC) {
+				throw new IOException("Not a dataset shard: " + file);
+			}
+			if (buffer.getInt(4) != DatasetShards.VERSION) {
+				throw new IOException("Unsupported dataset shard version " + buffer.getInt(4) + ": " + file);
+			}
+			if (s == 0) {
+				numInputs = buffer.getInt(8);
+				numOutputs = buffer.getInt(12);
+			} else if (buffer.getInt(8) != numInputs || buffer.getInt(12) != numOutputs) {
+				throw new IOException("Shard dimensions differ from the first shard's: " + file);
+			}
+			int numSamples = buffer.getInt(16);
+			long expected = DatasetShards.HEADER_SIZE + 8L * (numInputs + numOutputs) * numSamples;
+			if (buffer.capacity() != expected) {
+				throw new IOException("Corrupt dataset shard, expected " + expected
+						+ " bytes but found " + buffer.capacity() + ": " + file);
+			}
+			buffer.position(DatasetShards.HEADER_SIZE);
+			shards[s] = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			starts[s + 1] = starts[s] + numSamples;
+		}
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+	}
+
+	public int size() {
+		return starts[starts.length - 1];
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	public void read(int index, double[] input, double[] teacherSignal) {
+		int s = shard(index);
+		int position = offset(s, index);
+		shards[s].get(position, input, 0, numInputs);
+		shards[s].get(position + numInputs, teacherSignal, 0, numOutputs);
+	}
+
+	/**
+	 * 入力のビュー: the inputs of one sample, read in place from the mapping
+	 */
+	public DoubleBuffer getInput(int index) {
+		int s = shard(index);
+		return shards[s].slice(offset(s, index), numInputs);
+	}
+
+	/**
+	 * 教師信号のビュー: the teacher signals of one sample, read in place from the mapping
+	 */
+	public DoubleBuffer getTeacherSignal(int index) {
+		int s = shard(index);
+		return shards[s].slice(offset(s, index) + numInputs, numOutputs);
+	}
+
+	/**
+	 * 一エポック学習する
+	 * train the network on every sample once, in mini-batches. Each sample is
+	 * copied from the mapping straight into the network's batch workspace.
+	 *
+	 * @param shuffle 乱数: shuffles the sample order when not null
+	 * @return 平均２乗誤差: the mean squared error over the epoch
+	 */
+	public double trainEpoch(NeuralNetwork network, int batchSize, Random shuffle) {
+		if (network.getInputLayer().getNumNeurons() != numInputs
+				|| network.getOutputLayer().getNumNeurons() != numOutputs) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		if (order == null) {
+			order = new int[size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+		}
+		if (shuffle != null) {
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = shuffle.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+		}
+		double error = 0;
+		for (int from = 0; from < order.length; from += batchSize) {
+			int count = Math.min(batchSize, order.length - from);
+			Workspace workspace = network.getBatchWorkspace(count);
+			for (int b = 0; b < count; b++) {
+				int index = order[from + b];
+				int s = shard(index);
+				int position = offset(s, index);
+				workspace.setInput(b, shards[s], position, numInputs);
+				workspace.setTeacherSignal(b, shards[s], position + numInputs, numOutputs);
+			}
+			error += network.calculateGradients(workspace, count);
+			network.adjustWeights(workspace, 1.0 / count);
+		}
+		return order.length == 0 ? 0 : error / order.length;
+	}
+
+	/*
+	 * サンプルのシャード: the shard holding a sample
+	 */
+	private int shard(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Sample " + index + " of " + size());
+		}
+		int low = 0;
+		int high = shards.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	private int offset(int shard, int index) {
+		return (index - starts[shard]) * (numInputs + numOutputs);
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+}
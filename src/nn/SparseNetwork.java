@@ -0,0 +1,167 @@
+package nn;
+
+import java.util.Arrays;
+
+/**
+ * 疎なニューラルネット: an inference-only network with pruned weights in CSR form
+ *
+ * Each weight matrix keeps only the weights that survived
+ * {@link Pruner#prune(NeuralNetwork, double)}, stored in compressed sparse rows
+ * with one row per parent neuron: row i lists the child neurons that neuron i
+ * still feeds and the weights to them. Propagating a layer therefore visits
+ * only the non-zero activations and, for each of them, only its remaining
+ * weights, so the work shrinks with both the pruning and the sparsity of the
+ * input. {@link #predict(double[])} and {@link #predict(int[], double[])} do
+ * not modify any shared state and may be called from many threads at once.
+ *
+ * @author kenneth cason
+ */
+public class SparseNetwork {
+
+	private final NeuralNetworkConfig config;
+
+	private final int[] sizes; // 各層の神経数: number of neurons per layer
+
+	private final int[][] rowStarts; // 行の開始: row i of layer l is [rowStarts[l][i], rowStarts[l][i + 1])
+
+	private final int[][] columns; // 子ニューロンの番号: the child neuron of each stored weight
+
+	private final double[][] weights; // 結合荷重: the stored weights, row by row
+
+	private final double[][] biases; // バイアス: biasValue * biasWeight per child neuron, or null
+
+	/*
+	 * 各スレッドの活性値: per-thread activation buffers
+	 */
+	private final ThreadLocal<double[][]> activations = new ThreadLocal<double[][]>() {
+		protected double[][] initialValue() {
+			double[][] values = new double[sizes.length][];
+			for (int l = 0; l < sizes.length; l++) {
+				values[l] = new double[sizes[l]];
+			}
+			return values;
+		}
+	};
+
+	SparseNetwork(NeuralNetworkConfig config, int[] sizes, int[][] rowStarts, int[][] columns, double[][] weights,
+			double[][] biases) {
+		this.config = config;
+		this.sizes = sizes;
+		this.rowStarts = rowStarts;
+		this.columns = columns;
+		this.weights = weights;
+		this.biases = biases;
+	}
+
+	/**
+	 * 入力に対する出力を予測する
+	 * predict the outputs for one input, skipping the zero inputs
+	 *
+	 * @param input 入力: one value per input node
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(double[] input) {
+		if (input.length != sizes[0]) {
+			throw new IllegalArgumentException("The Input dimensions do not match precisely.");
+		}
+		double[][] values = activations.get();
+		initSums(0, values[1]);
+		for (int i = 0; i < input.length; i++) {
+			if (input[i] != 0) {
+				addRow(0, i, input[i], values[1]);
+			}
+		}
+		return feedForward(values);
+	}
+
+	/**
+	 * 疎な入力に対する出力を予測する
+	 * predict the outputs for one sparse input, given as index/value pairs with every other input zero
+	 *
+	 * @param indices 番号: ascending indices of the non-zero inputs
+	 * @param values 値: one value per index
+	 * @return 出力: a new array holding one value per output node
+	 */
+	public double[] predict(int[] indices, double[] values) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("Got " + indices.length + " indices but " + values.length + " values.");
+		}
+		double[][] layerValues = activations.get();
+		initSums(0, layerValues[1]);
+		for (int k = 0; k < indices.length; k++) {
+			if (indices[k] < 0 || indices[k] >= sizes[0]) {
+				throw new IllegalArgumentException("Index out of range [0, " + sizes[0] + "): " + indices[k]);
+			}
+			addRow(0, indices[k], values[k], layerValues[1]);
+		}
+		return feedForward(layerValues);
+	}
+
+	/*
+	 * 第一中間層から前向きに伝播する: apply the first activation and propagate on to the output layer
+	 */
+	private double[] feedForward(double[][] values) {
+		config.getActivation(1).apply(values[1], 0, sizes[1]);
+		for (int l = 1; l < sizes.length - 1; l++) {
+			double[] parent = values[l];
+			double[] child = values[l + 1];
+			initSums(l, child);
+			for (int i = 0; i < sizes[l]; i++) {
+				if (parent[i] != 0) {
+					addRow(l, i, parent[i], child);
+				}
+			}
+			config.getActivation(l + 1).apply(child, 0, child.length);
+		}
+		return values[sizes.length - 1].clone();
+	}
+
+	private void initSums(int l, double[] child) {
+		if (biases != null) {
+			System.arraycopy(biases[l], 0, child, 0, child.length);
+		} else {
+			Arrays.fill(child, 0.0);
+		}
+	}
+
+	/*
+	 * 一行を足す: add value times the remaining weights of parent neuron i to the child sums
+	 */
+	private void addRow(int l, int i, double value, double[] child) {
+		int[] c = columns[l];
+		double[] w = weights[l];
+		for (int k = rowStarts[l][i]; k < rowStarts[l][i + 1]; k++) {
+			child[c[k]] += value * w[k];
+		}
+	}
+
+	/**
+	 * 残った重みの数: number of weights kept after pruning, over every layer
+	 */
+	public long getNumWeights() {
+		long numWeights = 0;
+		for (double[] w : weights) {
+			numWeights += w.length;
+		}
+		return numWeights;
+	}
+
+	/**
+	 * 疎なサイズ: bytes taken by the stored weights, their indices and the biases
+	 */
+	public long getSizeInBytes() {
+		long size = 0;
+		for (int l = 0; l < weights.length; l++) {
+			size += 8L * weights[l].length + 4L * columns[l].length + 4L * rowStarts[l].length;
+			if (biases != null) {
+				size += 8L * biases[l].length;
+			}
+		}
+		return size;
+	}
+
+	public NeuralNetworkConfig getConfig() {
+		return config;
+	}
+
+}
@@ -0,0 +1,571 @@
+package nn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 早期終了付きの学習: trains epoch after epoch until a budget runs out
+ *
+ * Each epoch trains on the training rows in mini-batches. Its weights are
+ * then copied into a snapshot network and scored on the validation rows by a
+ * background thread while the next epoch trains, so validation costs no
+ * training time. Training stops when
+ * <ul>
+ * <li>the validation error reaches {@link #setTargetError(double)},</li>
+ * <li>it has not improved for {@link #setPatience(int)} epochs,</li>
+ * <li>{@link #setMaxEpochs(int)} epochs have been trained, or</li>
+ * <li>{@link #setTimeLimit(long, TimeUnit)} has passed,</li>
+ * </ul>
+ * and the network is left holding the weights of the epoch with the lowest
+ * validation error. Because a validation result arrives one epoch late, the
+ * network trains one epoch past the one that reaches the target error or runs
+ * out of patience; that epoch is not validated and its weights are discarded.
+ * Optimizer state is not rolled back with the weights.
+ *
+ * The learning rate follows {@link NeuralNetworkConfig#learningRateSchedule},
+ * fed with each epoch's training error. If the network has
+ * {@link TrainingMetrics}, every epoch is closed on them, reporting the
+ * latest validation error, which is that of the epoch before. A trainer is
+ * driven by a single thread.
+ *
+ * With {@link #setCheckpoint(File, int)} the whole state of the run is copied
+ * between two epochs and written to a file by a background thread while
+ * training goes on; a checkpoint falling due while the previous one is still
+ * being written is skipped rather than waited for. {@link #resume(File, double[][], double[][])}
+ * continues from such a file, after the process died for instance, and trains
+ * exactly as the uninterrupted run would have.
+ *
+ * @author kenneth cason
+ */
+public class Trainer {
+
+	/**
+	 * 終了の理由: why training stopped
+	 */
+	public enum StopReason {
+		/** 目標誤差: the validation error reached the target */
+		TARGET_ERROR,
+		/** 改善なし: the validation error stopped improving */
+		PATIENCE,
+		/** 最大世代数: the epoch budget ran out */
+		MAX_EPOCHS,
+		/** 時間切れ: the time budget ran out */
+		TIME_LIMIT
+	}
+
+	private final NeuralNetwork network;
+
+	private final ParallelTrainer parallelTrainer; // 並列学習: trains the batches if set
+
+	private int batchSize = 32;
+
+	private int maxEpochs = 10000;
+
+	private int patience = 100;
+
+	private long timeLimitNanos = Long.MAX_VALUE;
+
+	private double targetError = 0.0;
+
+	private double validationSplit = 0.0;
+
+	private Random shuffle;
+
+	private File checkpointFile; // 途中経過のファイル: null unless checkpointing
+
+	private int checkpointInterval;
+
+	public Trainer(NeuralNetwork network) {
+		this.network = network;
+		this.parallelTrainer = null;
+	}
+
+	/**
+	 * @param trainer 並列学習: trains each mini-batch across its threads
+	 */
+	public Trainer(ParallelTrainer trainer) {
+		this.network = trainer.getNetwork();
+		this.parallelTrainer = trainer;
+	}
+
+	/**
+	 * 学習する
+	 * train, holding out the last validationSplit of the rows for validation.
+	 * With no validation rows the training rows are validated instead.
+	 *
+	 * @param inputs 入力: one row of input values per sample
+	 * @param teacherSignals 教師信号: one row of teacher signals per sample
+	 */
+	public Result train(double[][] inputs, double[][] teacherSignals) {
+		return train(inputs, teacherSignals, null);
+	}
+
+	/**
+	 * 再開する
+	 * continue the run saved in a checkpoint, holding out validation rows like
+	 * {@link #train(double[][], double[][])}. Given the same rows, and a network
+	 * and trainer configured as for the original run, training continues bit for
+	 * bit as if it had never stopped; the shuffle continues as saved. A stateful
+	 * {@link NeuralNetworkConfig#learningRateSchedule} must be fresh, it is fed
+	 * the errors of the epochs already trained again.
+	 *
+	 * @param checkpoint 途中経過のファイル: written by a trainer with {@link #setCheckpoint(File, int)}
+	 */
+	public Result resume(File checkpoint, double[][] inputs, double[][] teacherSignals) throws IOException {
+		return train(inputs, teacherSignals, Checkpoint.read(checkpoint));
+	}
+
+	/**
+	 * 再開する
+	 * continue the run saved in a checkpoint on the given training and validation rows
+	 *
+	 * @see #resume(File, double[][], double[][])
+	 */
+	public Result resume(File checkpoint, double[][] inputs, double[][] teacherSignals, double[][] validationInputs,
+			double[][] validationSignals) throws IOException {
+		return train(inputs, teacherSignals, validationInputs, validationSignals, Checkpoint.read(checkpoint));
+	}
+
+	private Result train(double[][] inputs, double[][] teacherSignals, Checkpoint from) {
+		if (inputs.length != teacherSignals.length) {
+			throw new IllegalArgumentException("The number of inputs and teacher signals do not match.");
+		}
+		int numTraining = inputs.length - (int) Math.round(inputs.length * validationSplit);
+		if (numTraining == 0) {
+			throw new IllegalArgumentException("No training rows left after the validation split: " + validationSplit);
+		}
+		double[][] trainInputs = new double[numTraining][];
+		double[][] trainSignals = new double[numTraining][];
+		System.arraycopy(inputs, 0, trainInputs, 0, numTraining);
+		System.arraycopy(teacherSignals, 0, trainSignals, 0, numTraining);
+		if (numTraining == inputs.length) {
+			return train(trainInputs, trainSignals, inputs, teacherSignals, from);
+		}
+		double[][] validationInputs = new double[inputs.length - numTraining][];
+		double[][] validationSignals = new double[inputs.length - numTraining][];
+		System.arraycopy(inputs, numTraining, validationInputs, 0, validationInputs.length);
+		System.arraycopy(teacherSignals, numTraining, validationSignals, 0, validationSignals.length);
+		return train(trainInputs, trainSignals, validationInputs, validationSignals, from);
+	}
+
+	/**
+	 * 学習する
+	 * train on the training rows, stopping early on the validation rows
+	 */
+	public Result train(double[][] inputs, double[][] teacherSignals, double[][] validationInputs,
+			double[][] validationSignals) {
+		return train(inputs, teacherSignals, validationInputs, validationSignals, null);
+	}
+
+	private Result train(double[][] rows, double[][] rowSignals, final double[][] validationInputs,
+			final double[][] validationSignals, Checkpoint from) {
+		if (rows.length != rowSignals.length || validationInputs.length != validationSignals.length) {
+			throw new IllegalArgumentException("The number of inputs and teacher signals do not match.");
+		}
+		if (rows.length == 0 || validationInputs.length == 0) {
+			throw new IllegalArgumentException("Training and validation rows must not be empty.");
+		}
+		NeuralNetwork best = snapshotNetwork();
+		NeuralNetwork candidate = snapshotNetwork();
+		final Workspace workspace = new Workspace(candidate, Math.min(batchSize, validationInputs.length));
+
+		double bestError = Double.POSITIVE_INFINITY;
+		int bestEpoch = -1;
+		double trainingError = Double.NaN;
+		int epoch = 0;
+		double[] scheduleErrors = new double[16]; // 学習率の入力: the error fed to the schedule at each epoch
+		int[] order = null; // 行の順番: order[i] is the row trained i-th, when shuffling
+		if (from != null) {
+			from.restore(network, best);
+			for (int e = 0; e < from.epoch; e++) {
+				network.updateLearningRate(e, from.trainingErrors[e]);
+			}
+			network.setLearningRate(from.learningRate);
+			epoch = from.epoch;
+			trainingError = from.trainingError;
+			bestEpoch = from.bestEpoch;
+			bestError = from.bestError;
+			scheduleErrors = Arrays.copyOf(from.trainingErrors, Math.max(16, epoch));
+			shuffle = from.shuffle;
+			order = from.order;
+			if (order != null && order.length != rows.length) {
+				throw new IllegalArgumentException("The checkpoint was trained on " + order.length + " rows, not "
+						+ rows.length + ".");
+			}
+		}
+		double[][] inputs = rows;
+		double[][] teacherSignals = rowSignals;
+		if (shuffle != null) {
+			// 行の参照だけを並べ替える: only the row references are shuffled
+			if (order == null) {
+				order = new int[rows.length];
+				for (int i = 0; i < order.length; i++) {
+					order[i] = i;
+				}
+			}
+			inputs = new double[rows.length][];
+			teacherSignals = new double[rows.length][];
+			arrange(order, rows, rowSignals, inputs, teacherSignals);
+		}
+
+		long start = System.nanoTime();
+		ExecutorService validator = newDaemonExecutor("Trainer validation");
+		ExecutorService writer = checkpointFile != null ? newDaemonExecutor("Trainer checkpoint") : null;
+		Checkpoint checkpoint = null;
+		Future<Void> writing = null;
+		Future<Double> pending = null;
+		int pendingEpoch = -1;
+		if (epoch > 0) {
+			// 最後の世代の検証を再び始める: validate the checkpoint's last epoch again
+			candidate.copyWeightsFrom(network);
+			pending = validate(validator, candidate, workspace, validationInputs, validationSignals);
+			pendingEpoch = epoch - 1;
+		}
+		int firstEpoch = epoch;
+		StopReason reason = null;
+		try {
+			while (reason == null) {
+				if (writer != null && epoch > firstEpoch && epoch % checkpointInterval == 0
+						&& (writing == null || writing.isDone())) {
+					if (writing != null) {
+						get(writing);
+					}
+					if (checkpoint == null) {
+						checkpoint = new Checkpoint(network);
+					}
+					checkpoint.epoch = epoch;
+					checkpoint.trainingError = trainingError;
+					checkpoint.bestEpoch = bestEpoch;
+					checkpoint.bestError = bestError;
+					checkpoint.capture(network, best, shuffle, order, scheduleErrors);
+					final Checkpoint captured = checkpoint;
+					writing = writer.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							captured.write(checkpointFile);
+							return null;
+						}
+					});
+				}
+				if (epoch >= maxEpochs) {
+					reason = StopReason.MAX_EPOCHS;
+					break;
+				}
+				if (epoch == scheduleErrors.length) {
+					scheduleErrors = Arrays.copyOf(scheduleErrors, 2 * epoch);
+				}
+				scheduleErrors[epoch] = trainingError;
+				network.updateLearningRate(epoch, trainingError);
+				if (shuffle != null) {
+					shuffle(order);
+					arrange(order, rows, rowSignals, inputs, teacherSignals);
+				}
+				trainingError = trainEpoch(inputs, teacherSignals);
+				TrainingMetrics metrics = network.getMetrics();
+				if (pending != null) {
+					double error = get(pending);
+					if (metrics != null) {
+						metrics.setValidationError(error);
+					}
+					if (error < bestError) {
+						bestError = error;
+						bestEpoch = pendingEpoch;
+						NeuralNetwork swap = best;
+						best = candidate;
+						candidate = swap;
+					}
+					if (bestError <= targetError) {
+						reason = StopReason.TARGET_ERROR;
+					} else if (pendingEpoch - bestEpoch >= patience) {
+						reason = StopReason.PATIENCE;
+					}
+				}
+				if (metrics != null) {
+					metrics.endEpoch(trainingError);
+				}
+				if (reason == null) {
+					candidate.copyWeightsFrom(network);
+					pending = validate(validator, candidate, workspace, validationInputs, validationSignals);
+					pendingEpoch = epoch;
+				} else {
+					pending = null; // 終了の後の世代: the epoch past the one that ended training is not validated
+				}
+				epoch++;
+				if (reason == null && System.nanoTime() - start >= timeLimitNanos) {
+					reason = StopReason.TIME_LIMIT;
+				}
+			}
+			if (pending != null) {
+				double error = get(pending);
+				if (network.getMetrics() != null) {
+					network.getMetrics().setValidationError(error);
+				}
+				if (error < bestError) {
+					bestError = error;
+					bestEpoch = pendingEpoch;
+					best = candidate;
+				}
+			}
+			if (writing != null) {
+				get(writing);
+			}
+		} finally {
+			validator.shutdownNow();
+			if (writer != null) {
+				writer.shutdown(); // 書き込み中の途中経過は完成させる: let a checkpoint being written finish
+			}
+		}
+		network.copyWeightsFrom(best);
+		return new Result(reason, epoch, bestEpoch, bestError, trainingError, System.nanoTime() - start);
+	}
+
+	/**
+	 * 一エポック学習する: one pass over the training rows, returning its mean squared error
+	 */
+	private double trainEpoch(double[][] inputs, double[][] teacherSignals) {
+		double error = 0;
+		for (int offset = 0; offset < inputs.length; offset += batchSize) {
+			int count = Math.min(batchSize, inputs.length - offset);
+			if (parallelTrainer != null) {
+				error += parallelTrainer.trainBatch(inputs, teacherSignals, offset, count) * count;
+			} else {
+				error += network.trainBatch(inputs, teacherSignals, offset, count) * count;
+			}
+		}
+		return error / inputs.length;
+	}
+
+	private static Future<Double> validate(ExecutorService validator, final NeuralNetwork snapshot,
+			final Workspace workspace, final double[][] inputs, final double[][] teacherSignals) {
+		return validator.submit(new Callable<Double>() {
+			public Double call() {
+				return validationError(snapshot, workspace, inputs, teacherSignals);
+			}
+		});
+	}
+
+	/**
+	 * 検証誤差: the mean squared error of a snapshot over the validation rows
+	 */
+	private static double validationError(NeuralNetwork snapshot, Workspace workspace, double[][] inputs,
+			double[][] teacherSignals) {
+		double[] outputs = workspace.outputs;
+		double error = 0;
+		for (int offset = 0; offset < inputs.length; offset += workspace.getBatchSize()) {
+			int count = Math.min(workspace.getBatchSize(), inputs.length - offset);
+			for (int b = 0; b < count; b++) {
+				workspace.setInput(b, inputs[offset + b]);
+			}
+			snapshot.feedForward(workspace, count);
+			for (int b = 0; b < count; b++) {
+				workspace.getOutput(b, outputs);
+				double[] signals = teacherSignals[offset + b];
+				for (int i = 0; i < outputs.length; i++) {
+					error += Math.pow(outputs[i] - signals[i], 2);
+				}
+			}
+		}
+		return error / (inputs.length * (double) outputs.length);
+	}
+
+	/**
+	 * 複製のネットワーク: a network shaped like the trained one, to hold snapshots of its weights
+	 */
+	private NeuralNetwork snapshotNetwork() {
+		NeuralNetworkConfig config = network.getConfig().copy();
+		config.optimizer = Optimizers.sgd(); // 状態を持たない: no optimizer state to allocate
+		NeuralNetwork snapshot = new NeuralNetwork(config);
+		snapshot.copyWeightsFrom(network);
+		return snapshot;
+	}
+
+	private void shuffle(int[] order) {
+		for (int i = order.length - 1; i > 0; i--) {
+			int j = shuffle.nextInt(i + 1);
+			int row = order[i];
+			order[i] = order[j];
+			order[j] = row;
+		}
+	}
+
+	private static void arrange(int[] order, double[][] rows, double[][] rowSignals, double[][] inputs,
+			double[][] teacherSignals) {
+		for (int i = 0; i < order.length; i++) {
+			inputs[i] = rows[order[i]];
+			teacherSignals[i] = rowSignals[order[i]];
+		}
+	}
+
+	private static ExecutorService newDaemonExecutor(final String name) {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting on a background thread", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * ミニバッチの大きさ: samples per weight update, 32 by default
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * 最大世代数: the most epochs to train, 10000 by default
+	 */
+	public void setMaxEpochs(int maxEpochs) {
+		this.maxEpochs = maxEpochs;
+	}
+
+	/**
+	 * 我慢: how many epochs past the best one to train before giving up, 100 by default
+	 */
+	public void setPatience(int patience) {
+		if (patience < 1) {
+			throw new IllegalArgumentException("patience must be at least 1: " + patience);
+		}
+		this.patience = patience;
+	}
+
+	/**
+	 * 制限時間: stop starting new epochs once this much time has passed, unlimited by default
+	 */
+	public void setTimeLimit(long timeLimit, TimeUnit unit) {
+		this.timeLimitNanos = unit.toNanos(timeLimit);
+	}
+
+	/**
+	 * 目標誤差: stop once the validation error is at most this, 0 by default
+	 */
+	public void setTargetError(double targetError) {
+		this.targetError = targetError;
+	}
+
+	/**
+	 * 検証の割合: the fraction of rows, taken from the end, that
+	 * {@link #train(double[][], double[][])} holds out for validation, 0 by default
+	 */
+	public void setValidationSplit(double validationSplit) {
+		if (validationSplit < 0 || validationSplit >= 1) {
+			throw new IllegalArgumentException("validationSplit must be in [0, 1): " + validationSplit);
+		}
+		this.validationSplit = validationSplit;
+	}
+
+	/**
+	 * 順番を混ぜる: shuffle the training rows before every epoch
+	 *
+	 * @param seed 乱数の種: seed of the shuffle
+	 */
+	public void setShuffle(long seed) {
+		this.shuffle = new Random(seed);
+	}
+
+	/**
+	 * 途中経過を保存する: write a checkpoint of the run every given number of epochs
+	 *
+	 * @param file 途中経過のファイル: replaced by each checkpoint, see {@link #resume(File, double[][], double[][])}
+	 * @param everyEpochs 間隔: epochs between checkpoints
+	 */
+	public void setCheckpoint(File file, int everyEpochs) {
+		if (everyEpochs < 1) {
+			throw new IllegalArgumentException("everyEpochs must be at least 1: " + everyEpochs);
+		}
+		this.checkpointFile = file;
+		this.checkpointInterval = everyEpochs;
+	}
+
+	/**
+	 * 学習の結果: how a training run ended
+	 */
+	public static class Result {
+
+		private final StopReason stopReason;
+
+		private final int numEpochs;
+
+		private final int bestEpoch;
+
+		private final double bestValidationError;
+
+		private final double trainingError;
+
+		private final long elapsedNanos;
+
+		Result(StopReason stopReason, int numEpochs, int bestEpoch, double bestValidationError, double trainingError,
+				long elapsedNanos) {
+			this.stopReason = stopReason;
+			this.numEpochs = numEpochs;
+			this.bestEpoch = bestEpoch;
+			this.bestValidationError = bestValidationError;
+			this.trainingError = trainingError;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public StopReason getStopReason() {
+			return stopReason;
+		}
+
+		/**
+		 * 学習した世代数: epochs trained, including any discarded ones
+		 */
+		public int getNumEpochs() {
+			return numEpochs;
+		}
+
+		/**
+		 * 最良の世代: the epoch, counted from 0, whose weights the network was left with
+		 */
+		public int getBestEpoch() {
+			return bestEpoch;
+		}
+
+		/**
+		 * 最良の検証誤差: the validation error of the best epoch
+		 */
+		public double getBestValidationError() {
+			return bestValidationError;
+		}
+
+		/**
+		 * 学習誤差: the mean squared error of the last epoch trained
+		 */
+		public double getTrainingError() {
+			return trainingError;
+		}
+
+		public long getElapsedTime(TimeUnit unit) {
+			return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+	}
+
+}
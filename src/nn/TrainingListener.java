@@ -0,0 +1,20 @@
+package nn;
+
+/**
+ * 学習の監視: a sink for training metrics, called once per epoch
+ *
+ * Listeners are called on the training thread, so a slow listener slows
+ * training down; hand the numbers off to another thread to export them.
+ *
+ * @author kenneth cason
+ */
+public interface TrainingListener {
+
+	/**
+	 * 一エポック終わった: an epoch has been trained
+	 *
+	 * @param metrics 指標: read the epoch's figures from it before returning
+	 */
+	void epochCompleted(TrainingMetrics metrics);
+
+}
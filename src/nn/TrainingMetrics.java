@@ -0,0 +1,286 @@
+package nn;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 学習の指標: per-layer timings, throughput, allocation, gradient norms and errors of training
+ *
+ * Attach with {@link NeuralNetwork#setMetrics(TrainingMetrics)}. The network
+ * then times each phase of every layer, for per-sample training, trainBatch
+ * and {@link ParallelTrainer} alike, and records the norm of each layer's
+ * weight gradient. Timings are summed over threads, so under a
+ * ParallelTrainer they are CPU time rather than wall-clock time. Epochs are
+ * closed by {@link #endEpoch(double)}, which {@link Trainer} calls for you,
+ * and each one is handed to the {@link TrainingListener}s. The counters can
+ * be read from any thread and exported over JMX with {@link #register(String)}.
+ *
+ * Next to the throughput, each epoch records the bytes allocated by the
+ * thread that closes it, the training thread under Trainer, where the JVM can
+ * count them (HotSpot can). Allocations of ParallelTrainer's workers are not
+ * included.
+ *
+ * Without metrics attached, training does not read the clock at all.
+ *
+ * @author kenneth cason
+ */
+public class TrainingMetrics implements TrainingMetricsMXBean {
+
+	/**
+	 * 学習の段階: the phases timed per layer
+	 */
+	public enum Phase {
+		/** 前向き: computing the layer's values */
+		FEED_FORWARD,
+		/** 誤差: computing the layer's errors */
+		CALCULATE_ERRORS,
+		/** 勾配: computing the gradients of the layer's weights, in batches */
+		CALCULATE_GRADIENTS,
+		/** 更新: updating the layer's weights */
+		ADJUST_WEIGHTS
+	}
+
+	private final int numLayers;
+
+	private final LongAdder[][] nanos; // 時間: [phase][layer]
+
+	private final LongAdder numSamples = new LongAdder();
+
+	private final AtomicLongArray gradientNorms; // 勾配のノルム: the bits of a double per layer
+
+	private final List<TrainingListener> listeners = new CopyOnWriteArrayList<TrainingListener>();
+
+	private volatile int numEpochs;
+
+	private volatile double samplesPerSecond = Double.NaN;
+
+	private volatile long allocatedBytes = -1;
+
+	private volatile double trainingError = Double.NaN;
+
+	private volatile double validationError = Double.NaN;
+
+	private long epochStartNanos; // エポックの開始: when the current epoch began
+
+	private long epochStartSamples; // samples trained before the current epoch
+
+	private long epochStartThread; // the thread that began the current epoch
+
+	private long epochStartAllocatedBytes; // bytes that thread had allocated by then, -1 if unknown
+
+	private ObjectName objectName;
+
+	/**
+	 * @param network 対象のニューラルネット: the network to measure
+	 */
+	public TrainingMetrics(NeuralNetwork network) {
+		this.numLayers = network.getLayers().length;
+		this.nanos = new LongAdder[Phase.values().length][numLayers];
+		for (LongAdder[] phase : nanos) {
+			for (int l = 0; l < numLayers; l++) {
+				phase[l] = new LongAdder();
+			}
+		}
+		this.gradientNorms = new AtomicLongArray(numLayers);
+		reset();
+	}
+
+	/**
+	 * 時間を記録する: add the time since start to a layer's phase
+	 *
+	 * @return 現在時刻: System.nanoTime() now, to start timing the next phase
+	 */
+	long record(Phase phase, int layer, long start) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()][layer].add(now - start);
+		return now;
+	}
+
+	void addSamples(int count) {
+		numSamples.add(count);
+	}
+
+	void setGradientNorm(int layer, double norm) {
+		gradientNorms.set(layer, Double.doubleToLongBits(norm));
+	}
+
+	/**
+	 * 検証誤差を記録する: record a validation error, reported with the next epoch
+	 */
+	public void setValidationError(double error) {
+		this.validationError = error;
+	}
+
+	/**
+	 * エポックを終える
+	 * close an epoch, compute its throughput and notify the listeners
+	 *
+	 * @param error 学習誤差: the epoch's mean squared error
+	 */
+	public synchronized void endEpoch(double error) {
+		long now = System.nanoTime();
+		long samples = numSamples.sum();
+		samplesPerSecond = (samples - epochStartSamples) * 1e9 / Math.max(1, now - epochStartNanos);
+		long bytes = threadAllocatedBytes();
+		// 別のスレッドでは比べられない: counts of different threads cannot be compared, e.g. after a reset over JMX
+		allocatedBytes = bytes >= 0 && epochStartAllocatedBytes >= 0 && epochStartThread == Thread.currentThread().getId()
+				? bytes - epochStartAllocatedBytes : -1;
+		trainingError = error;
+		numEpochs++;
+		for (TrainingListener listener : listeners) {
+			listener.epochCompleted(this);
+		}
+		epochStartNanos = System.nanoTime();
+		epochStartSamples = numSamples.sum();
+		startAllocation();
+	}
+
+	public void addListener(TrainingListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(TrainingListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * JMXに登録する
+	 * register with the platform MBean server as nn:type=TrainingMetrics,name=name
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("nn:type=TrainingMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+		return objectName;
+	}
+
+	/**
+	 * JMXから外す: unregister from the platform MBean server, if registered
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * 段階の時間: nanoseconds spent in a phase, per layer
+	 */
+	public long[] getNanos(Phase phase) {
+		long[] values = new long[numLayers];
+		for (int l = 0; l < numLayers; l++) {
+			values[l] = nanos[phase.ordinal()][l].sum();
+		}
+		return values;
+	}
+
+	public long getNumSamples() {
+		return numSamples.sum();
+	}
+
+	public int getNumEpochs() {
+		return numEpochs;
+	}
+
+	public double getSamplesPerSecond() {
+		return samplesPerSecond;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public double getTrainingError() {
+		return trainingError;
+	}
+
+	public double getValidationError() {
+		return validationError;
+	}
+
+	public double[] getFeedForwardMillis() {
+		return millis(Phase.FEED_FORWARD);
+	}
+
+	public double[] getCalculateErrorsMillis() {
+		return millis(Phase.CALCULATE_ERRORS);
+	}
+
+	public double[] getCalculateGradientsMillis() {
+		return millis(Phase.CALCULATE_GRADIENTS);
+	}
+
+	public double[] getAdjustWeightsMillis() {
+		return millis(Phase.ADJUST_WEIGHTS);
+	}
+
+	public double[] getGradientNorms() {
+		double[] norms = new double[numLayers];
+		for (int l = 0; l < numLayers; l++) {
+			norms[l] = Double.longBitsToDouble(gradientNorms.get(l));
+		}
+		return norms;
+	}
+
+	public synchronized void reset() {
+		for (LongAdder[] phase : nanos) {
+			for (LongAdder adder : phase) {
+				adder.reset();
+			}
+		}
+		numSamples.reset();
+		for (int l = 0; l < numLayers; l++) {
+			gradientNorms.set(l, Double.doubleToLongBits(Double.NaN));
+		}
+		numEpochs = 0;
+		samplesPerSecond = Double.NaN;
+		allocatedBytes = -1;
+		trainingError = Double.NaN;
+		validationError = Double.NaN;
+		epochStartNanos = System.nanoTime();
+		epochStartSamples = 0;
+		startAllocation();
+	}
+
+	private void startAllocation() {
+		epochStartThread = Thread.currentThread().getId();
+		epochStartAllocatedBytes = threadAllocatedBytes();
+	}
+
+	/*
+	 * 割り当てたバイト数: bytes the calling thread has allocated so far, or -1
+	 * where the JVM cannot count them or the jdk.management module is missing
+	 */
+	private static long threadAllocatedBytes() {
+		try {
+			java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+				if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+					return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+				}
+			}
+		} catch (LinkageError e) {
+		}
+		return -1;
+	}
+
+	private double[] millis(Phase phase) {
+		long[] values = getNanos(phase);
+		double[] millis = new double[numLayers];
+		for (int l = 0; l < numLayers; l++) {
+			millis[l] = values[l] / 1e6;
+		}
+		return millis;
+	}
+
+}
@@ -0,0 +1,73 @@
+package nn;
+
+/**
+ * 学習の指標: the JMX view of {@link TrainingMetrics}
+ *
+ * Per-layer arrays have one entry per layer, from the input layer to the
+ * output layer.
+ *
+ * @author kenneth cason
+ */
+public interface TrainingMetricsMXBean {
+
+	/**
+	 * 学習したサンプル数: samples trained on since the last reset
+	 */
+	long getNumSamples();
+
+	/**
+	 * 世代数: epochs completed since the last reset
+	 */
+	int getNumEpochs();
+
+	/**
+	 * 処理量: samples per second over the last epoch
+	 */
+	double getSamplesPerSecond();
+
+	/**
+	 * 割り当て: bytes the training thread allocated over the last epoch, -1 where the JVM cannot count them
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * 学習誤差: mean squared error over the last epoch
+	 */
+	double getTrainingError();
+
+	/**
+	 * 検証誤差: the latest validation error, NaN if none
+	 */
+	double getValidationError();
+
+	/**
+	 * 前向きの時間: milliseconds spent computing each layer's values
+	 */
+	double[] getFeedForwardMillis();
+
+	/**
+	 * 誤差の時間: milliseconds spent computing each layer's errors
+	 */
+	double[] getCalculateErrorsMillis();
+
+	/**
+	 * 勾配の時間: milliseconds spent computing the gradients of each layer's weights, in batches
+	 */
+	double[] getCalculateGradientsMillis();
+
+	/**
+	 * 更新の時間: milliseconds spent updating each layer's weights
+	 */
+	double[] getAdjustWeightsMillis();
+
+	/**
+	 * 勾配のノルム: L2 norm of the latest gradient of each layer's weights
+	 */
+	double[] getGradientNorms();
+
+	/**
+	 * リセット: clear every counter
+	 */
+	void reset();
+
+}
@@ -0,0 +1,291 @@
+package nn;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 学習データのストリーム: streams mini-batches from a {@link DataSource}
+ *
+ * Batches are decoded on background threads into a fixed pool of
+ * {@code prefetch} reusable batches, so at most that many batches are held in
+ * memory and the next ones are being decoded while the current one trains.
+ * Batches are handed out in epoch order; when a seed is set the order of the
+ * samples is shuffled afresh every epoch. A batch that fails to decode ends
+ * its epoch: the error is thrown from {@link #next()} and the following call
+ * starts a new epoch.
+ *
+ * <pre>
+ * TrainingStream stream = new TrainingStream(source, 32, 4, 2);
+ * for (int epoch = 0; epoch &lt; 100; epoch++) {
+ *     double error = stream.trainEpoch(network);
+ * }
+ * stream.close();
+ * </pre>
+ *
+ * A stream is driven by a single thread.
+ *
+ * @author kenneth cason
+ */
+public class TrainingStream {
+
+	private final DataSource source;
+
+	private final int batchSize;
+
+	private final ExecutorService decoders;
+
+	private final Deque<Batch> free = new ArrayDeque<Batch>(); // 空きバッチ: batches ready to be decoded into
+
+	private final Deque<Decode> pending = new ArrayDeque<Decode>(); // 読み込み中: in epoch order
+
+	private final int[] order; // サンプルの順番: sample indices of the current epoch
+
+	private Random shuffle;
+
+	private int numSubmitted = -1; // 読み込みを始めたバッチ数: batches submitted this epoch, -1 between epochs
+
+	private int numBatches;
+
+	/**
+	 * @param source 学習データ: the samples
+	 * @param batchSize バッチサイズ: samples per batch, the last batch of an epoch may be smaller
+	 * @param prefetch 先読み数: batches decoded ahead, and kept in memory
+	 * @param numThreads スレッド数: background decoding threads
+	 */
+	public TrainingStream(DataSource source, int batchSize, int prefetch, int numThreads) {
+		if (batchSize < 1 || prefetch < 1 || numThreads < 1) {
+			throw new IllegalArgumentException("batchSize, prefetch and numThreads must be at least 1");
+		}
+		this.source = source;
+		this.batchSize = batchSize;
+		this.order = new int[source.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		for (int i = 0; i < prefetch; i++) {
+			free.add(new Batch(batchSize, source.getNumInputs(), source.getNumOutputs()));
+		}
+		this.decoders = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "TrainingStream");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 順番を混ぜる: shuffle the samples every epoch, starting from the next one
+	 */
+	public void setShuffle(long seed) {
+		shuffle = new Random(seed);
+	}
+
+	/**
+	 * 次のバッチ
+	 * the next batch of the current epoch, starting a new epoch when none is in
+	 * progress. Give the batch back with {@link #release(Batch)} once done with it.
+	 *
+	 * @return バッチ: or null at the end of the epoch
+	 * @throws IOException 読み込みの失敗: a sample failed to decode; the epoch is abandoned
+	 * @throws IllegalStateException 空きがない: every batch of the pool is held and none was released
+	 */
+	public Batch next() throws IOException {
+		if (numSubmitted < 0) {
+			startEpoch();
+		}
+		if (pending.isEmpty()) {
+			if (numSubmitted < numBatches) {
+				// 返されていない: the epoch is not over, but every batch is held by the caller
+				throw new IllegalStateException("All batches of the pool are held, release one before asking for batch "
+						+ (numSubmitted + 1) + " of " + numBatches);
+			}
+			numSubmitted = -1;
+			return null;
+		}
+		try {
+			Batch batch = pending.peek().get();
+			pending.poll();
+			return batch;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading training data", e);
+		} catch (ExecutionException e) {
+			abandonEpoch();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * バッチを返す: give a batch back, to be decoded into again
+	 */
+	public void release(Batch batch) {
+		free.add(batch);
+		submit();
+	}
+
+	/**
+	 * 一エポック学習する
+	 * train the network on one epoch of mini-batches
+	 *
+	 * @return 平均２乗誤差: the mean squared error over the epoch
+	 */
+	public double trainEpoch(NeuralNetwork network) throws IOException {
+		double error = 0;
+		int count = 0;
+		for (Batch batch = next(); batch != null; batch = next()) {
+			error += network.trainBatch(batch.inputs, batch.teacherSignals, 0, batch.size) * batch.size;
+			count += batch.size;
+			release(batch);
+		}
+		return count == 0 ? 0 : error / count;
+	}
+
+	/**
+	 * 一エポック並列に学習する
+	 * train on one epoch of mini-batches with a parallel trainer
+	 *
+	 * @return 平均２乗誤差: the mean squared error over the epoch
+	 */
+	public double trainEpoch(ParallelTrainer trainer) throws IOException {
+		double error = 0;
+		int count = 0;
+		for (Batch batch = next(); batch != null; batch = next()) {
+			error += trainer.trainBatch(batch.inputs, batch.teacherSignals, 0, batch.size) * batch.size;
+			count += batch.size;
+			release(batch);
+		}
+		return count == 0 ? 0 : error / count;
+	}
+
+	/**
+	 * 読み込みを止める: stop the decoding threads
+	 */
+	public void close() {
+		decoders.shutdownNow();
+	}
+
+	private void startEpoch() {
+		if (shuffle != null) {
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = shuffle.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+		}
+		numBatches = (order.length + batchSize - 1) / batchSize;
+		numSubmitted = 0;
+		submit();
+	}
+
+	/*
+	 * エポックを捨てる: wait for the decodes still running, return their batches
+	 * to the pool, failed ones included, and start a new epoch on the next call
+	 */
+	private void abandonEpoch() {
+		numSubmitted = -1;
+		boolean interrupted = false;
+		while (!pending.isEmpty()) {
+			Decode decode = pending.peek();
+			try {
+				decode.get();
+			} catch (InterruptedException e) {
+				// 書き込み中のバッチは返せない: a batch still being written into cannot be reused yet
+				interrupted = true;
+				continue;
+			} catch (ExecutionException e) {
+			}
+			pending.poll();
+			free.add(decode.batch);
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * 空きバッチに次のバッチを読み込む: start decoding the next batches into the free ones
+	 */
+	private void submit() {
+		while (numSubmitted >= 0 && numSubmitted < numBatches && !free.isEmpty()) {
+			final Batch batch = free.poll();
+			final int from = numSubmitted * batchSize;
+			final int size = Math.min(batchSize, order.length - from);
+			Decode decode = new Decode(batch, new Callable<Batch>() {
+				public Batch call() throws IOException {
+					for (int b = 0; b < size; b++) {
+						source.read(order[from + b], batch.inputs[b], batch.teacherSignals[b]);
+					}
+					batch.size = size;
+					return batch;
+				}
+			});
+			decoders.execute(decode);
+			pending.add(decode);
+			numSubmitted++;
+		}
+	}
+
+	/*
+	 * 読み込み: the decoding of one batch, which keeps the batch so it can go back to the pool if it fails
+	 */
+	private static class Decode extends FutureTask<Batch> {
+
+		final Batch batch;
+
+		Decode(Batch batch, Callable<Batch> callable) {
+			super(callable);
+			this.batch = batch;
+		}
+
+	}
+
+	/**
+	 * バッチ: a reusable mini-batch of samples
+	 */
+	public static class Batch {
+
+		final double[][] inputs;
+
+		final double[][] teacherSignals;
+
+		int size;
+
+		Batch(int capacity, int numInputs, int numOutputs) {
+			inputs = new double[capacity][numInputs];
+			teacherSignals = new double[capacity][numOutputs];
+		}
+
+		/**
+		 * 入力: one row per sample; only the first getSize() rows belong to this batch
+		 */
+		public double[][] getInputs() {
+			return inputs;
+		}
+
+		/**
+		 * 教師信号: one row per sample; only the first getSize() rows belong to this batch
+		 */
+		public double[][] getTeacherSignals() {
+			return teacherSignals;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+	}
+
+}
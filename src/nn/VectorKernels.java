@@ -0,0 +1,266 @@
+package nn;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMDの計算カーネル: explicit SIMD on the Vector API, using the widest
+ * vectors the CPU supports (4 doubles or 8 floats on AVX2, 8 doubles or 16
+ * floats on AVX-512). Each loop runs full vectors over the bulk of the array
+ * and finishes the tail with scalars. The int8 dot product widens bytes to
+ * ints a quarter-width vector at a time, or half of a 64-bit vector at a time
+ * where vectors are only 128 bits wide.
+ *
+ * Loops mixing floats and doubles stay on the scalar loops inherited from
+ * {@link ScalarKernels}. Widening a float vector to doubles changes its shape,
+ * and C2 only keeps such vectors in registers when it inlines the whole
+ * conversion; when it gives up, for instance on a deep call stack, every
+ * iteration allocates, which broke the allocation-free training of the
+ * {@link Precision#FLOAT} and {@link Precision#MIXED} networks.
+ *
+ * By default the sigmoid stays on the scalar Math.exp inherited from
+ * {@link ScalarKernels}: the vector EXP differs from it in the last bit, and
+ * only once compiled, which makes training with a fixed seed irreproducible.
+ * With {@code -Dnn.kernels=fast} the sigmoid runs on the vector EXP as well.
+ *
+ * Only loaded when the jdk.incubator.vector module is present, see {@link Kernels}.
+ *
+ * @author kenneth cason
+ */
+class VectorKernels extends ScalarKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1.0);
+
+	private static final FloatVector FLOAT_ONE = FloatVector.broadcast(FLOAT_SPECIES, 1.0f);
+
+	private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+	/*
+	 * 4分の1の幅のbyte: bytes with as many lanes as INT_SPECIES, for widening to int.
+	 * No shape is narrower than 64 bits, so with 128-bit vectors the bytes fill a
+	 * 64-bit vector instead and are widened in two parts.
+	 */
+	private static final VectorSpecies<Byte> QUARTER_BYTE_SPECIES = VectorSpecies.of(byte.class,
+			VectorShape.forBitSize(Math.max(INT_SPECIES.vectorBitSize() / 4, VectorShape.S_64_BIT.vectorBitSize())));
+
+	private static final int BYTE_PARTS = QUARTER_BYTE_SPECIES.length() / INT_SPECIES.length();
+
+	private final boolean vectorSigmoid; // ベクトルのシグモイド: the sigmoid on the vector EXP, see -Dnn.kernels=fast
+
+	VectorKernels() {
+		this(false);
+	}
+
+	VectorKernels(boolean vectorSigmoid) {
+		this.vectorSigmoid = vectorSigmoid;
+	}
+
+	public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+			DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+			sum = va.fma(vb, sum);
+		}
+		double result = sum(sum);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b[bOffset + i];
+		}
+		return result;
+	}
+
+	public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			vx.fma(va, vy).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		int bound = FLOAT_SPECIES.loopBound(length);
+		FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+		int i = 0;
+		for (; i < bound; i += FLOAT_SPECIES.length()) {
+			FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+			FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+			sum = va.fma(vb, sum);
+		}
+		float result = sum(sum);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b[bOffset + i];
+		}
+		return result;
+	}
+
+	public double dotDoubles(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+			DoubleVector vb = DoubleVector.fromByteBuffer(SPECIES, b, (bIndex + i) * 8, b.order());
+			sum = va.fma(vb, sum);
+		}
+		double result = sum(sum);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b.getDouble((bIndex + i) * 8);
+		}
+		return result;
+	}
+
+	public float dotFloats(float[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+		int bound = FLOAT_SPECIES.loopBound(length);
+		FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+		int i = 0;
+		for (; i < bound; i += FLOAT_SPECIES.length()) {
+			FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+			FloatVector vb = FloatVector.fromByteBuffer(FLOAT_SPECIES, b, (bIndex + i) * 4, b.order());
+			sum = va.fma(vb, sum);
+		}
+		float result = sum(sum);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b.getFloat((bIndex + i) * 4);
+		}
+		return result;
+	}
+
+	public void axpyDoubles(double alpha, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+		int bound = SPECIES.loopBound(length);
+		DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromByteBuffer(SPECIES, x, (xIndex + i) * 8, x.order());
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			vx.fma(va, vy).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += alpha * x.getDouble((xIndex + i) * 8);
+		}
+	}
+
+	public void axpyFloats(float alpha, ByteBuffer x, int xIndex, float[] y, int yOffset, int length) {
+		int bound = FLOAT_SPECIES.loopBound(length);
+		FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+		int i = 0;
+		for (; i < bound; i += FLOAT_SPECIES.length()) {
+			FloatVector vx = FloatVector.fromByteBuffer(FLOAT_SPECIES, x, (xIndex + i) * 4, x.order());
+			FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+			vx.fma(va, vy).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += alpha * x.getFloat((xIndex + i) * 4);
+		}
+	}
+
+	public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+		int bound = FLOAT_SPECIES.loopBound(length);
+		FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+		int i = 0;
+		for (; i < bound; i += FLOAT_SPECIES.length()) {
+			FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+			FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+			vx.fma(va, vy).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	public void sigmoid(double[] values, int offset, int length) {
+		if (!vectorSigmoid) {
+			super.sigmoid(values, offset, length);
+			return;
+		}
+		int bound = SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, values, offset + i);
+			ONE.div(v.neg().lanewise(VectorOperators.EXP).add(1.0)).intoArray(values, offset + i);
+		}
+		for (; i < length; i++) {
+			values[offset + i] = 1.0 / (1 + Math.exp(-values[offset + i]));
+		}
+	}
+
+	public void sigmoid(float[] values, int offset, int length) {
+		if (!vectorSigmoid) {
+			super.sigmoid(values, offset, length);
+			return;
+		}
+		int bound = FLOAT_SPECIES.loopBound(length);
+		int i = 0;
+		for (; i < bound; i += FLOAT_SPECIES.length()) {
+			FloatVector v = FloatVector.fromArray(FLOAT_SPECIES, values, offset + i);
+			FLOAT_ONE.div(v.neg().lanewise(VectorOperators.EXP).add(1.0f)).intoArray(values, offset + i);
+		}
+		for (; i < length; i++) {
+			values[offset + i] = (float) (1.0 / (1 + Math.exp(-values[offset + i])));
+		}
+	}
+
+	public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		int bound = QUARTER_BYTE_SPECIES.loopBound(length);
+		IntVector sum = IntVector.zero(INT_SPECIES);
+		int i = 0;
+		for (; i < bound; i += QUARTER_BYTE_SPECIES.length()) {
+			ByteVector va = ByteVector.fromArray(QUARTER_BYTE_SPECIES, a, aOffset + i);
+			ByteVector vb = ByteVector.fromArray(QUARTER_BYTE_SPECIES, b, bOffset + i);
+			for (int part = 0; part < BYTE_PARTS; part++) {
+				IntVector ia = (IntVector) va.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+				IntVector ib = (IntVector) vb.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+				sum = ia.mul(ib).add(sum);
+			}
+		}
+		// 整数の和は結合的: integer sums associate, so the lanes may be reduced in any order
+		int result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b[bOffset + i];
+		}
+		return result;
+	}
+
+	/*
+	 * 各レーンを順番に足す: add the lanes up in order. reduceLanes(ADD) may
+	 * associate differently once compiled, which would break reproducible training.
+	 */
+	private static double sum(DoubleVector v) {
+		double result = 0.0;
+		for (int i = 0; i < v.length(); i++) {
+			result += v.lane(i);
+		}
+		return result;
+	}
+
+	private static float sum(FloatVector v) {
+		float result = 0.0f;
+		for (int i = 0; i < v.length(); i++) {
+			result += v.lane(i);
+		}
+		return result;
+	}
+
+	public String getName() {
+		return "vector " + SPECIES + (vectorSigmoid ? " with vector sigmoid" : "");
+	}
+
+}
@@ -0,0 +1,217 @@
+package nn;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * 作業領域: scratch buffers for running a batch through a network
+ *
+ * Holds the activations of every layer for up to {@code batchSize} samples,
+ * row-major (one row per sample). Training workspaces additionally hold the
+ * errors of every layer and the weight gradients accumulated from them.
+ * When the network stores its weights as float ({@link Precision#FLOAT} or
+ * {@link Precision#MIXED}) the float arrays are used in place of the double
+ * ones, halving the memory traffic of every batched pass.
+ * A workspace is not thread-safe; use one per thread.
+ *
+ * @author kenneth cason
+ */
+public class Workspace {
+
+	private final int batchSize;
+
+	final double[][] activations;	// 活性値: activations, batchSize x numNeurons per layer
+
+	final double[][] errors;		// 誤差: errors (deltas), batchSize x numNeurons per layer
+
+	final double[] teacherSignals; // 教師信号: batchSize x numOutputNodes
+
+	final double[][] gradients;	// 勾配: weight gradients, numChildNeurons x numNeurons per layer
+
+	final double[][] biasGradients; // バイアス勾配: bias weight gradients, numChildNeurons per layer
+
+	final float[][] floatActivations;	// 単精度の活性値: activations when the weights are float
+
+	final float[][] floatErrors;		// 単精度の誤差: errors when the weights are float
+
+	final float[] floatTeacherSignals; // 単精度の教師信号: teacher signals when the weights are float
+
+	final float[][] floatGradients;	// 単精度の勾配: weight gradients when the weights are float
+
+	final double[] outputs; // 出力: one row of outputs, returned by NeuralNetwork#predict(double[], Workspace)
+
+	/**
+	 * 推論用の作業領域: a workspace for predicting one sample at a time
+	 */
+	public Workspace(NeuralNetwork network) {
+		this(network, 1);
+	}
+
+	/**
+	 * 推論用の作業領域: a workspace for predicting up to batchSize samples at a time
+	 */
+	public Workspace(NeuralNetwork network, int batchSize) {
+		this(network, batchSize, false);
+	}
+
+	Workspace(NeuralNetwork network, int batchSize, boolean training) {
+		this.batchSize = batchSize;
+		Layer[] layers = network.getLayers();
+		int last = layers.length - 1;
+		boolean floatStorage = network.getConfig().precision.isFloatStorage();
+		outputs = new double[layers[last].getNumNeurons()];
+		activations = floatStorage ? null : new double[layers.length][];
+		floatActivations = floatStorage ? new float[layers.length][] : null;
+		for (int l = 0; l < layers.length; l++) {
+			if (floatStorage) {
+				floatActivations[l] = new float[batchSize * layers[l].getNumNeurons()];
+			} else {
+				activations[l] = new double[batchSize * layers[l].getNumNeurons()];
+			}
+		}
+		if (!training) {
+			errors = null;
+			teacherSignals = null;
+			gradients = null;
+			biasGradients = null;
+			floatErrors = null;
+			floatTeacherSignals = null;
+			floatGradients = null;
+			return;
+		}
+		biasGradients = new double[last][];
+		if (floatStorage) {
+			errors = null;
+			teacherSignals = null;
+			gradients = null;
+			floatErrors = new float[layers.length][];
+			floatGradients = new float[last][];
+			floatTeacherSignals = new float[batchSize * layers[last].getNumNeurons()];
+		} else {
+			errors = new double[layers.length][];
+			gradients = new double[last][];
+			teacherSignals = new double[batchSize * layers[last].getNumNeurons()];
+			floatErrors = null;
+			floatGradients = null;
+			floatTeacherSignals = null;
+		}
+		for (int l = 0; l < layers.length; l++) {
+			int numErrors = batchSize * layers[l].getNumNeurons();
+			if (floatStorage) {
+				floatErrors[l] = new float[numErrors];
+			} else {
+				errors[l] = new double[numErrors];
+			}
+			if (l < last) {
+				int numWeights = layers[l].getNumNeurons() * layers[l + 1].getNumNeurons();
+				if (floatStorage) {
+					floatGradients[l] = new float[numWeights];
+				} else {
+					gradients[l] = new double[numWeights];
+				}
+				biasGradients[l] = new double[layers[l + 1].getNumNeurons()];
+			}
+		}
+	}
+
+	/**
+	 * 入力を設定する: copy one sample's inputs into the given row
+	 */
+	void setInput(int row, double[] input) {
+		if (floatActivations != null) {
+			float[] to = floatActivations[0];
+			int offset = row * input.length;
+			for (int i = 0; i < input.length; i++) {
+				to[offset + i] = (float) input[i];
+			}
+		} else {
+			System.arraycopy(input, 0, activations[0], row * input.length, input.length);
+		}
+	}
+
+	/**
+	 * 入力を設定する: copy length inputs starting at from[index] into the given row
+	 */
+	void setInput(int row, DoubleBuffer from, int index, int length) {
+		if (floatActivations != null) {
+			float[] to = floatActivations[0];
+			int offset = row * length;
+			for (int i = 0; i < length; i++) {
+				to[offset + i] = (float) from.get(index + i);
+			}
+		} else {
+			from.get(index, activations[0], row * length, length);
+		}
+	}
+
+	/**
+	 * 教師信号を設定する: copy length teacher signals starting at from[index] into the given row
+	 */
+	void setTeacherSignal(int row, DoubleBuffer from, int index, int length) {
+		if (floatTeacherSignals != null) {
+			int offset = row * length;
+			for (int i = 0; i < length; i++) {
+				floatTeacherSignals[offset + i] = (float) from.get(index + i);
+			}
+		} else {
+			from.get(index, teacherSignals, row * length, length);
+		}
+	}
+
+	/**
+	 * 教師信号を設定する: copy one sample's teacher signals into the given row
+	 */
+	void setTeacherSignal(int row, double[] signal) {
+		if (floatTeacherSignals != null) {
+			int offset = row * signal.length;
+			for (int i = 0; i < signal.length; i++) {
+				floatTeacherSignals[offset + i] = (float) signal[i];
+			}
+		} else {
+			System.arraycopy(signal, 0, teacherSignals, row * signal.length, signal.length);
+		}
+	}
+
+	/**
+	 * 出力を得る: copy the outputs of the given row into output
+	 *
+	 * @return output
+	 */
+	double[] getOutput(int row, double[] output) {
+		if (floatActivations != null) {
+			float[] from = floatActivations[floatActivations.length - 1];
+			int offset = row * output.length;
+			for (int i = 0; i < output.length; i++) {
+				output[i] = from[offset + i];
+			}
+		} else {
+			System.arraycopy(activations[activations.length - 1], row * output.length, output, 0, output.length);
+		}
+		return output;
+	}
+
+	/**
+	 * ２乗誤差の和: the summed squared error of the first count rows against their teacher signals
+	 */
+	double sumSquaredError(int count) {
+		double error = 0;
+		int n = count * outputs.length;
+		if (floatActivations != null) {
+			float[] out = floatActivations[floatActivations.length - 1];
+			for (int i = 0; i < n; i++) {
+				double d = out[i] - floatTeacherSignals[i];
+				error += d * d;
+			}
+		} else {
+			double[] out = activations[activations.length - 1];
+			for (int i = 0; i < n; i++) {
+				error += Math.pow(out[i] - teacherSignals[i], 2);
+			}
+		}
+		return error;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+}
@@ -0,0 +1,121 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ActivationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void fastFunctionsStayWithinTheirBound() {
+		double maxSigmoidError = 0;
+		double maxTanhError = 0;
+		for (double x = -40; x <= 40; x += 0.000731) {
+			double[] values = {x};
+			Activations.FAST_SIGMOID.apply(values, 0, 1);
+			maxSigmoidError = Math.max(maxSigmoidError, Math.abs(values[0] - 1.0 / (1 + Math.exp(-x))));
+			values[0] = x;
+			Activations.FAST_TANH.apply(values, 0, 1);
+			maxTanhError = Math.max(maxTanhError, Math.abs(values[0] - Math.tanh(x)));
+		}
+		assertTrue("sigmoid error = " + maxSigmoidError, maxSigmoidError < 1e-6);
+		assertTrue("tanh error = " + maxTanhError, maxTanhError < 1e-6);
+	}
+
+	@Test
+	public void derivativesMatchFiniteDifferences() {
+		double[] sums = {0.3, -1.2, 2.5, 0.05, -0.4};
+		double[] errors = {0.7, -0.2, 0.1, 0.4, -0.9};
+		double h = 1e-6;
+		for (Activations activation : Activations.values()) {
+			double[] values = sums.clone();
+			activation.apply(values, 0, values.length);
+			double[] actual = errors.clone();
+			activation.derivative(values, actual, 0, values.length);
+
+			for (int j = 0; j < sums.length; j++) {
+				double[] plus = sums.clone();
+				double[] minus = sums.clone();
+				plus[j] += h;
+				minus[j] -= h;
+				activation.apply(plus, 0, plus.length);
+				activation.apply(minus, 0, minus.length);
+				double expected = 0;
+				for (int i = 0; i < sums.length; i++) {
+					expected += (plus[i] - minus[i]) / (2 * h) * errors[i];
+				}
+				// the table functions are piecewise linear, so their slopes are only close
+				double delta = activation == Activations.FAST_SIGMOID || activation == Activations.FAST_TANH ? 1e-3 : 1e-4;
+				assertEquals(activation + " at " + j, expected, actual[j], delta);
+			}
+
+			float[] floatValues = new float[sums.length];
+			float[] floatErrors = new float[sums.length];
+			for (int i = 0; i < sums.length; i++) {
+				floatValues[i] = (float) sums[i];
+				floatErrors[i] = (float) errors[i];
+			}
+			activation.apply(floatValues, 0, floatValues.length);
+			activation.derivative(floatValues, floatErrors, 0, floatValues.length);
+			for (int i = 0; i < sums.length; i++) {
+				assertEquals(activation.toString(), values[i], floatValues[i], 1e-5);
+				assertEquals(activation.toString(), actual[i], floatErrors[i], 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void tanhAndSoftmaxLearnXor() throws IOException {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 10;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 2;
+		config.learningRate = 0.5;
+		config.seed = 11;
+		config.activation = Activations.FAST_TANH;
+		config.activations = new Activation[] {null, Activations.RELU, Activations.SOFTMAX};
+		NeuralNetwork nn = new NeuralNetwork(config);
+		assertEquals(Activations.FAST_TANH, nn.getLayers()[1].getActivation());
+		assertEquals(Activations.RELU, nn.getLayers()[2].getActivation());
+		assertEquals(Activations.SOFTMAX, nn.getOutputLayer().getActivation());
+
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{1.0, 0.0}, {0.0, 1.0}, {0.0, 1.0}, {1.0, 0.0}};
+		double error = Double.MAX_VALUE;
+		for (int count = 0; count < 20000 && error > 0.001; count++) {
+			error = nn.trainBatch(trainData, teacherSignal);
+		}
+		assertTrue("error = " + error, error <= 0.001);
+
+		// the per-sample path agrees with the batched one
+		for (double[] input : trainData) {
+			nn.setInputs(input);
+			nn.feedForward();
+			assertArrayEquals(nn.predict(input), nn.getOutputs(), 1e-12);
+			assertEquals(1.0, nn.getOutputs()[0] + nn.getOutputs()[1], 1e-12);
+		}
+
+		File file = folder.newFile("xor-softmax.nn");
+		NeuralNetworkIO.save(nn, file);
+		NeuralNetwork loaded = NeuralNetworkIO.load(file);
+		MappedNetwork mapped = NeuralNetworkIO.map(file);
+		assertEquals(Activations.SOFTMAX, loaded.getOutputLayer().getActivation());
+		for (double[] input : trainData) {
+			assertArrayEquals(nn.predict(input), loaded.predict(input), 0.0);
+			assertArrayEquals(nn.predict(input), mapped.predict(input), 1e-12);
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package nn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+public class AllocationTest {
+
+	private static final int WARM_UP = 20000;
+
+	private static final int STEPS = 1000;
+
+	@Test
+	public void perSampleTrainingDoesNotAllocate() {
+		for (Precision precision : Precision.values()) {
+			final NeuralNetwork nn = new NeuralNetwork(config(precision));
+			final double[][] inputs = inputs();
+			final double[][] signals = signals();
+			final double[] outputs = new double[2];
+			Runnable step = new Runnable() {
+				int n;
+
+				public void run() {
+					int i = n++ % inputs.length;
+					nn.setInputs(inputs[i]);
+					nn.setTeacherSignals(signals[i]);
+					nn.feedForward();
+					nn.backPropagate();
+					nn.getOutputs(outputs);
+				}
+			};
+			assertEquals(precision.toString(), 0, allocatedBytes(step));
+		}
+	}
+
+	@Test
+	public void sparseTrainingDoesNotAllocate() {
+		final NeuralNetwork nn = new NeuralNetwork(config(Precision.DOUBLE));
+		final int[] indices = {1, 4, 7};
+		final double[] values = {1, 0.5, 1};
+		final double[] signal = {1, 0};
+		assertEquals(0, allocatedBytes(new Runnable() {
+			public void run() {
+				nn.setSparseInputs(indices, values);
+				nn.setTeacherSignals(signal);
+				nn.feedForward();
+				nn.backPropagate();
+			}
+		}));
+	}
+
+	@Test
+	public void defaultSparseUpdateDoesNotAllocate() {
+		NeuralNetworkConfig config = config(Precision.DOUBLE);
+		final Optimizer momentum = Optimizers.momentum(0.9);
+		// 疎な更新を持たない最適化: an optimizer relying on the default indexed update
+		config.optimizer = new Optimizer() {
+			public int getNumStates() {
+				return momentum.getNumStates();
+			}
+
+			public void update(double[] weights, int offset, int length, double alpha, double[] gradient,
+					int gradientOffset, double[][] state, double learningRate, double[] coefficients, int step) {
+				momentum.update(weights, offset, length, alpha, gradient, gradientOffset, state, learningRate,
+						coefficients, step);
+			}
+
+			public void update(float[] weights, int offset, int length, double alpha, float[] gradient,
+					int gradientOffset, float[][] state, double learningRate, double[] coefficients, int step) {
+				momentum.update(weights, offset, length, alpha, gradient, gradientOffset, state, learningRate,
+						coefficients, step);
+			}
+		};
+		final NeuralNetwork nn = new NeuralNetwork(config);
+		nn.getInputLayer().setNeuronLearningRateCoefficient(4, 0.5);
+		final int[] indices = {1, 4, 7};
+		final double[] values = {1, 0.5, 1};
+		final double[] signal = {1, 0};
+		assertEquals(0, allocatedBytes(new Runnable() {
+			public void run() {
+				nn.setSparseInputs(indices, values);
+				nn.setTeacherSignals(signal);
+				nn.feedForward();
+				nn.backPropagate();
+			}
+		}));
+	}
+
+	@Test
+	public void batchTrainingDoesNotAllocate() {
+		for (Precision precision : Precision.values()) {
+			final NeuralNetwork nn = new NeuralNetwork(config(precision));
+			final double[][] inputs = inputs();
+			final double[][] signals = signals();
+			assertEquals(precision.toString(), 0, allocatedBytes(new Runnable() {
+				public void run() {
+					nn.trainBatch(inputs, signals);
+				}
+			}));
+		}
+	}
+
+	@Test
+	public void offHeapTrainingDoesNotAllocate() {
+		for (Precision precision : Precision.values()) {
+			NeuralNetworkConfig config = config(precision);
+			config.offHeap = true;
+			config.optimizer = Optimizers.adam();
+			final NeuralNetwork nn = new NeuralNetwork(config);
+			final double[][] inputs = inputs();
+			final double[][] signals = signals();
+			final int[] indices = {1, 4, 7};
+			final double[] values = {1, 0.5, 1};
+			assertEquals(precision.toString(), 0, allocatedBytes(new Runnable() {
+				int n;
+
+				public void run() {
+					int i = n++ % inputs.length;
+					nn.setInputs(inputs[i]);
+					nn.setTeacherSignals(signals[i]);
+					nn.feedForward();
+					nn.backPropagate();
+					nn.setSparseInputs(indices, values);
+					nn.feedForward();
+					nn.backPropagate();
+					nn.trainBatch(inputs, signals);
+				}
+			}));
+		}
+	}
+
+	@Test
+	public void predictWithWorkspaceDoesNotAllocate() {
+		for (Precision precision : Precision.values()) {
+			final NeuralNetwork nn = new NeuralNetwork(config(precision));
+			final Workspace workspace = new Workspace(nn);
+			final double[][] inputs = inputs();
+			assertEquals(precision.toString(), 0, allocatedBytes(new Runnable() {
+				int n;
+
+				public void run() {
+					nn.predict(inputs[n++ % inputs.length], workspace);
+				}
+			}));
+		}
+	}
+
+	/*
+	 * 割り当てたバイト数: bytes allocated by this thread over STEPS steps after warming up
+	 */
+	private static long allocatedBytes(Runnable step) {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+		for (int i = 0; i < WARM_UP; i++) {
+			step.run();
+		}
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < STEPS; i++) {
+			step.run();
+		}
+		return threads.getThreadAllocatedBytes(thread) - before;
+	}
+
+	private static NeuralNetworkConfig config(Precision precision) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numInputNodes = 10;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 16;
+		config.numOutputNodes = 2;
+		config.learningRate = 0.1;
+		config.precision = precision;
+		config.seed = 2;
+		return config;
+	}
+
+	private static double[][] inputs() {
+		double[][] inputs = new double[8][10];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i][i] = 1;
+			inputs[i][9 - i] = 0.5;
+		}
+		return inputs;
+	}
+
+	private static double[][] signals() {
+		double[][] signals = new double[8][2];
+		for (int i = 0; i < signals.length; i++) {
+			signals[i][i % 2] = 1;
+		}
+		return signals;
+	}
+
+}
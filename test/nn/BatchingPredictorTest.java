@@ -0,0 +1,44 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BatchingPredictorTest {
+
+	@Test
+	public void matchesPredict() throws Exception {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 5;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 12;
+		config.numOutputNodes = 3;
+		config.bias = true;
+		NeuralNetwork nn = new NeuralNetwork(config);
+
+		BatchingPredictor predictor = new BatchingPredictor(nn, 16, 2, TimeUnit.MILLISECONDS);
+		try {
+			List<double[]> inputs = new ArrayList<double[]>();
+			List<CompletableFuture<double[]>> futures = new ArrayList<CompletableFuture<double[]>>();
+			for (int i = 0; i < 100; i++) {
+				double[] input = new double[config.numInputNodes];
+				for (int j = 0; j < input.length; j++) {
+					input[j] = ((i + 1) * (j + 3) % 17) / 17.0;
+				}
+				inputs.add(input);
+				futures.add(predictor.predict(input));
+			}
+			for (int i = 0; i < inputs.size(); i++) {
+				assertArrayEquals(nn.predict(inputs.get(i)), futures.get(i).get(5, TimeUnit.SECONDS), 1e-12);
+			}
+		} finally {
+			predictor.shutdown();
+		}
+	}
+
+}
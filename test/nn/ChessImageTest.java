@@ -1,8 +1,11 @@
 package nn;
 
+import static org.junit.Assert.assertEquals;
+
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
@@ -56,6 +59,7 @@ public class ChessImageTest {
 		config.numOutputNodes = trainResults[0].length;
 		config.bias = false;
 		config.learningRate = 0.07;
+		config.seed = 1;
 		
 		NeuralNetwork nn = new NeuralNetwork(config);
 		
@@ -68,7 +72,7 @@ public class ChessImageTest {
 		
 	}
 	
-	private double[] loadImageData(String file) {
+	static double[] loadImageData(String file) {
 		double[] data = null;
 		try {
 			BufferedImage originalImage = ImageIO.read(Thread.currentThread().getContextClassLoader().getResource(file));
@@ -87,30 +91,17 @@ public class ChessImageTest {
 	}
 
 	private void run(NeuralNetwork nn, double[][] trainData, double[][] trainResults) {
-		double maxError = 0.01;
-		double error = Double.MAX_VALUE;
-		
-		int count = 0;
+		// 学習に上限を設ける: bounded, so a network that never converges fails instead of spinning
+		Trainer trainer = new Trainer(nn);
+		trainer.setBatchSize(1);
+		trainer.setTargetError(0.01);
+		trainer.setMaxEpochs(20000);
+		trainer.setTimeLimit(2, TimeUnit.MINUTES);
 		System.out.println("Begin trainings");
-		while(error > maxError) {
-			error = 0;
-			for(int i = 0; i < trainData.length; i++) {
-				for(int j = 0; j < trainData[i].length; j++) {
-					nn.setInput(j, trainData[i][j]);
-				}
-				for(int j = 0; j < trainResults[i].length; j++) {
-					nn.setTeacherSignal(j, trainResults[i][j]);
-				}
-				nn.feedForward();
-				error += nn.calculateError();
-				nn.backPropagate();
-			}
-			count++;
-			error /= trainData.length;
-			if(count % 100 == 0)  {
-				System.out.println("[" + count + "] error = " + error);
-			}
-		}
+		Trainer.Result result = trainer.train(trainData, trainResults);
+		System.out.println("[" + result.getNumEpochs() + "] error = " + result.getBestValidationError()
+				+ " (" + result.getStopReason() + ")");
+		assertEquals(Trainer.StopReason.TARGET_ERROR, result.getStopReason());
 
 		for(int i = 0; i < trainData.length; i++) {
 			testNN(nn, trainData[i]);
@@ -119,12 +110,9 @@ public class ChessImageTest {
 	}
 	
 	private void testNN(NeuralNetwork nn, double[] trainData) {
-		for(int j = 0; j < trainData.length; j++) {
-			nn.setInput(j, trainData[j]);
-		}
-		nn.feedForward();
-		for(int j = 0; j < nn.getOutputs().length; j++) {
-			if(nn.getOutput(j) > 0.4) {
+		double[] outputs = nn.predict(trainData);
+		for(int j = 0; j < outputs.length; j++) {
+			if(outputs[j] > 0.4) {
 				System.out.print("1 ");
 			} else {
 				System.out.print("0 ");
@@ -0,0 +1,151 @@
+package nn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ConvolutionalNetworkTest {
+
+	@Test
+	public void gradientsMatchFiniteDifferences() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.inputWidth = 8;
+		config.inputHeight = 8;
+		config.numInputNodes = 2 * 8 * 8;
+		config.numCenterNodes = 4;
+		config.numOutputNodes = 2;
+		config.bias = true;
+		config.learningRate = 1e-3;
+		config.seed = 11;
+		ConvolutionLayer first = new ConvolutionLayer(3, 3, Activations.TANH);
+		ConvolutionLayer second = new ConvolutionLayer(2, 3, 2, 1, Activations.SIGMOID);
+		ConvolutionalNetwork cnn = new ConvolutionalNetwork(config, first,
+				new PoolingLayer(PoolingLayer.Type.MAX, 2), second, new PoolingLayer(PoolingLayer.Type.AVERAGE, 2));
+		assertEquals(2, cnn.getNetwork().getInputLayer().getNumNeurons());
+
+		Random rand = new Random(3);
+		double[][] inputs = new double[3][config.numInputNodes];
+		double[][] signals = new double[3][2];
+		for (int b = 0; b < inputs.length; b++) {
+			for (int i = 0; i < inputs[b].length; i++) {
+				inputs[b][i] = rand.nextDouble();
+			}
+			signals[b][0] = rand.nextDouble();
+			signals[b][1] = rand.nextDouble();
+		}
+
+		double[][] parameters = {first.weights, first.biasWeights, second.weights, second.biasWeights};
+		double[][] expected = new double[parameters.length][];
+		for (int p = 0; p < parameters.length; p++) {
+			expected[p] = new double[parameters[p].length];
+			for (int i = 0; i < parameters[p].length; i++) {
+				double w = parameters[p][i];
+				parameters[p][i] = w + 1e-6;
+				double plus = loss(cnn, inputs, signals);
+				parameters[p][i] = w - 1e-6;
+				double minus = loss(cnn, inputs, signals);
+				parameters[p][i] = w;
+				// 勾配降下の一歩: one plain gradient descent step on the mean loss
+				expected[p][i] = w - config.learningRate * (plus - minus) / 2e-6 / inputs.length;
+			}
+		}
+		cnn.trainBatch(inputs, signals);
+		for (int p = 0; p < parameters.length; p++) {
+			for (int i = 0; i < parameters[p].length; i++) {
+				assertEquals("parameter " + p + "[" + i + "]", expected[p][i], parameters[p][i], 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void learnsLineOrientation() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.inputWidth = 8;
+		config.inputHeight = 8;
+		config.numInputNodes = 64;
+		config.numCenterNodes = 8;
+		config.numOutputNodes = 2;
+		config.bias = true;
+		config.learningRate = 0.01;
+		config.optimizer = Optimizers.adam();
+		config.seed = 2;
+		ConvolutionalNetwork cnn = new ConvolutionalNetwork(config, new ConvolutionLayer(4, 3, Activations.RELU),
+				new PoolingLayer(PoolingLayer.Type.MAX, 2));
+
+		Random rand = new Random(5);
+		double[][] inputs = new double[16][];
+		double[][] signals = new double[16][];
+		for (int epoch = 0; epoch < 300; epoch++) {
+			for (int b = 0; b < inputs.length; b++) {
+				signals[b] = new double[2];
+				inputs[b] = line(rand, signals[b]);
+			}
+			cnn.trainBatch(inputs, signals);
+		}
+		int correct = 0;
+		for (int i = 0; i < 200; i++) {
+			double[] signal = new double[2];
+			double[] output = cnn.predict(line(rand, signal));
+			if ((output[0] > output[1]) == (signal[0] > signal[1])) {
+				correct++;
+			}
+		}
+		assertTrue("correct = " + correct, correct >= 190);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPoolingWindowsLargerThanTheInput() {
+		// 5x5の窓は3x3に収まらない: (3 - 5) / 4 + 1 truncates to 1
+		new ConvolutionalNetwork(smallConfig(2), new PoolingLayer(PoolingLayer.Type.MAX, 5, 4));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsKernelsLargerThanThePaddedInput() {
+		new ConvolutionalNetwork(smallConfig(1), new ConvolutionLayer(2, 5, 3, 0, Activations.RELU));
+	}
+
+	/*
+	 * 3x3の入力: a network config for channels x 3 x 3 inputs
+	 */
+	private static NeuralNetworkConfig smallConfig(int channels) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.inputWidth = 3;
+		config.inputHeight = 3;
+		config.numInputNodes = channels * 3 * 3;
+		config.numCenterNodes = 2;
+		config.numOutputNodes = 1;
+		return config;
+	}
+
+	/*
+	 * 縦線か横線: a noisy 8x8 image of a horizontal or a vertical line
+	 */
+	private static double[] line(Random rand, double[] signal) {
+		double[] image = new double[64];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = rand.nextDouble() * 0.2;
+		}
+		boolean horizontal = rand.nextBoolean();
+		int position = rand.nextInt(8);
+		for (int i = 0; i < 8; i++) {
+			image[horizontal ? position * 8 + i : i * 8 + position] = 1.0;
+		}
+		signal[horizontal ? 0 : 1] = 1.0;
+		return image;
+	}
+
+	private static double loss(ConvolutionalNetwork cnn, double[][] inputs, double[][] signals) {
+		double loss = 0;
+		for (int b = 0; b < inputs.length; b++) {
+			double[] output = cnn.predict(inputs[b]);
+			for (int o = 0; o < output.length; o++) {
+				loss += 0.5 * Math.pow(signals[b][o] - output[o], 2);
+			}
+		}
+		return loss;
+	}
+
+}
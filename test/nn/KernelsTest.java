@@ -0,0 +1,219 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KernelsTest {
+
+	private final Kernels scalar = new ScalarKernels();
+
+	private final Kernels selected = Matrix.KERNELS;
+
+	@Test
+	public void selectedKernelsMatchScalar() {
+		System.out.println("kernels: " + selected.getName());
+		Random rand = new Random(1);
+		for (int length = 0; length < 40; length++) {
+			double[] a = randomArray(rand, length + 3);
+			double[] b = randomArray(rand, length + 5);
+			assertEquals(scalar.dot(a, 3, b, 5, length), selected.dot(a, 3, b, 5, length), 1e-12);
+
+			double[] expected = b.clone();
+			double[] actual = b.clone();
+			scalar.axpy(0.7, a, 3, expected, 5, length);
+			selected.axpy(0.7, a, 3, actual, 5, length);
+			assertArrayEquals(expected, actual, 1e-12);
+
+			expected = a.clone();
+			actual = a.clone();
+			scalar.sigmoid(expected, 3, length);
+			selected.sigmoid(actual, 3, length);
+			assertArrayEquals(expected, actual, 1e-12);
+		}
+	}
+
+	@Test
+	public void vectorSigmoidMatchesScalar() {
+		assumeTrue(selected instanceof VectorKernels);
+		Kernels fast = new VectorKernels(true);
+		Random rand = new Random(5);
+		for (int length = 0; length < 40; length++) {
+			double[] expected = randomArray(rand, length + 3);
+			double[] actual = expected.clone();
+			scalar.sigmoid(expected, 3, length);
+			fast.sigmoid(actual, 3, length);
+			assertArrayEquals(expected, actual, 1e-12);
+
+			float[] expectedFloats = new float[expected.length];
+			for (int i = 0; i < expected.length; i++) {
+				expectedFloats[i] = (float) (rand.nextDouble() * 8 - 4);
+			}
+			float[] actualFloats = expectedFloats.clone();
+			scalar.sigmoid(expectedFloats, 3, length);
+			fast.sigmoid(actualFloats, 3, length);
+			assertArrayEquals(expectedFloats, actualFloats, 1e-6f);
+		}
+	}
+
+	@Test
+	public void int8DotMatchesScalar() {
+		Random rand = new Random(3);
+		for (int length = 0; length < 100; length++) {
+			byte[] a = new byte[length + 3];
+			byte[] b = new byte[length + 5];
+			rand.nextBytes(a);
+			rand.nextBytes(b);
+			assertEquals(scalar.dot(a, 3, b, 5, length), selected.dot(a, 3, b, 5, length));
+		}
+	}
+
+	@Test
+	public void bufferDotMatchesScalar() {
+		Random rand = new Random(4);
+		for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+			for (int length = 0; length < 40; length++) {
+				double[] a = randomArray(rand, length + 3);
+				double[] b = randomArray(rand, length + 5);
+				ByteBuffer doubles = ByteBuffer.allocateDirect(b.length * 8).order(order);
+				ByteBuffer floats = ByteBuffer.allocateDirect(b.length * 4).order(order);
+				for (int i = 0; i < b.length; i++) {
+					doubles.putDouble(i * 8, b[i]);
+					floats.putFloat(i * 4, (float) b[i]);
+				}
+				double expected = scalar.dot(a, 3, b, 5, length);
+				assertEquals(expected, scalar.dotDoubles(a, 3, doubles, 5, length), 1e-12);
+				assertEquals(expected, selected.dotDoubles(a, 3, doubles, 5, length), 1e-12);
+				assertEquals(scalar.dotFloats(a, 3, floats, 5, length), selected.dotFloats(a, 3, floats, 5, length), 1e-12);
+				assertEquals(expected, selected.dotFloats(a, 3, floats, 5, length), 1e-4 * (length + 1));
+			}
+		}
+	}
+
+	@Test
+	public void bufferKernelsMatchArrays() {
+		Random rand = new Random(6);
+		for (Kernels kernels : new Kernels[] {scalar, selected}) {
+			for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+				for (int length = 0; length < 40; length++) {
+					double[] x = randomArray(rand, length + 5);
+					float[] floatX = new float[x.length];
+					ByteBuffer doubles = ByteBuffer.allocateDirect(x.length * 8).order(order);
+					ByteBuffer floats = ByteBuffer.allocateDirect(x.length * 4).order(order);
+					for (int i = 0; i < x.length; i++) {
+						floatX[i] = (float) x[i];
+						doubles.putDouble(i * 8, x[i]);
+						floats.putFloat(i * 4, floatX[i]);
+					}
+					double[] y = randomArray(rand, length + 3);
+					float[] floatY = new float[y.length];
+					for (int i = 0; i < y.length; i++) {
+						floatY[i] = (float) y[i];
+					}
+					// 同じ計算: exactly the same arithmetic as the array kernels, so training off the heap is bit-for-bit the same
+					assertEquals(kernels.dot(floatY, 3, floatX, 5, length), kernels.dotFloats(floatY, 3, floats, 5, length), 0.0f);
+					assertEquals(kernels.dotDouble(floatY, 3, floatX, 5, length),
+							kernels.dotDoubleFloats(floatY, 3, floats, 5, length), 0.0);
+
+					double[] expected = y.clone();
+					double[] actual = y.clone();
+					kernels.axpy(0.7, x, 5, expected, 3, length);
+					kernels.axpyDoubles(0.7, doubles, 5, actual, 3, length);
+					assertArrayEquals(expected, actual, 0.0);
+					kernels.axpy(0.3, floatX, 5, expected, 3, length);
+					kernels.axpyFloats(0.3, floats, 5, actual, 3, length);
+					assertArrayEquals(expected, actual, 0.0);
+
+					float[] expectedFloats = floatY.clone();
+					float[] actualFloats = floatY.clone();
+					kernels.axpy(0.7f, floatX, 5, expectedFloats, 3, length);
+					kernels.axpyFloats(0.7f, floats, 5, actualFloats, 3, length);
+					assertArrayEquals(expectedFloats, actualFloats, 0.0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void multiply() {
+		Random rand = new Random(2);
+		int m = 70, k = 130, n = 67;
+		double[] a = randomArray(rand, m * k);
+		double[] b = randomArray(rand, k * n);
+		double[] c = new double[m * n];
+		Matrix.multiply(a, b, c, m, k, n);
+		for (int i = 0; i < m; i++) {
+			for (int j = 0; j < n; j++) {
+				double sum = 0;
+				for (int p = 0; p < k; p++) {
+					sum += a[i * k + p] * b[p * n + j];
+				}
+				assertEquals(sum, c[i * n + j], 1e-9);
+			}
+		}
+	}
+
+	/*
+	 * 128ビットのベクトル: with 128-bit vectors (NEON, AVX) the int8 bytes fit no
+	 * quarter-width shape, which must not cost the double and float kernels their vectors
+	 */
+	@Test
+	public void narrowVectorsKeepVectorKernels() throws IOException, InterruptedException {
+		assumeTrue(selected instanceof VectorKernels);
+		Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+				"--add-modules", "jdk.incubator.vector", "-XX:MaxVectorSize=16",
+				"-cp", System.getProperty("java.class.path"), NarrowVectors.class.getName())
+				.redirectErrorStream(true).start();
+		String kernels = null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			for (String line; (line = in.readLine()) != null;) {
+				if (line.startsWith("kernels: ")) {
+					kernels = line.substring("kernels: ".length());
+				}
+			}
+		}
+		assertEquals(0, process.waitFor());
+		assertEquals("vector Species[double, 2, S_128_BIT]", kernels);
+	}
+
+	/*
+	 * 狭いベクトルで動く: run in a JVM with -XX:MaxVectorSize=16, exit 1 if the int8 dot goes wrong
+	 */
+	public static class NarrowVectors {
+
+		public static void main(String[] args) {
+			System.out.println("kernels: " + Matrix.KERNELS.getName());
+			Kernels scalar = new ScalarKernels();
+			Random rand = new Random(3);
+			for (int length = 0; length < 100; length++) {
+				byte[] a = new byte[length + 3];
+				byte[] b = new byte[length + 5];
+				rand.nextBytes(a);
+				rand.nextBytes(b);
+				if (scalar.dot(a, 3, b, 5, length) != Matrix.KERNELS.dot(a, 3, b, 5, length)) {
+					System.exit(1);
+				}
+			}
+		}
+
+	}
+
+	private double[] randomArray(Random rand, int length) {
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = rand.nextDouble() * 8 - 4;
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,81 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LearningRateScheduleTest {
+
+	@Test
+	public void fixedSchedules() {
+		LearningRateSchedule step = LearningRateSchedules.step(0.4, 10, 0.5);
+		assertEquals(0.4, step.getLearningRate(0, Double.NaN), 1e-15);
+		assertEquals(0.4, step.getLearningRate(9, 1.0), 1e-15);
+		assertEquals(0.2, step.getLearningRate(10, 1.0), 1e-15);
+		assertEquals(0.1, step.getLearningRate(25, 1.0), 1e-15);
+
+		LearningRateSchedule exponential = LearningRateSchedules.exponential(0.4, 0.9);
+		assertEquals(0.4 * 0.9 * 0.9 * 0.9, exponential.getLearningRate(3, 1.0), 1e-15);
+
+		LearningRateSchedule cosine = LearningRateSchedules.cosine(0.4, 0.1, 100);
+		assertEquals(0.4, cosine.getLearningRate(0, Double.NaN), 1e-15);
+		assertEquals(0.25, cosine.getLearningRate(50, 1.0), 1e-15);
+		assertEquals(0.1, cosine.getLearningRate(100, 1.0), 1e-15);
+		assertEquals(0.1, cosine.getLearningRate(500, 1.0), 1e-15);
+
+		LearningRateSchedule warmUp = LearningRateSchedules.warmUp(4, LearningRateSchedules.step(0.4, 10, 0.5));
+		double[] rates = new double[16];
+		for (int epoch = 0; epoch < rates.length; epoch++) {
+			rates[epoch] = warmUp.getLearningRate(epoch, 1.0);
+		}
+		assertArrayEquals(new double[] {0.1, 0.2, 0.3, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.4, 0.2, 0.2},
+				rates, 1e-15);
+	}
+
+	@Test
+	public void reduceOnPlateau() {
+		LearningRateSchedule plateau = LearningRateSchedules.reduceOnPlateau(0.4, 0.5, 2, 0.0, 0.15);
+		assertEquals(0.4, plateau.getLearningRate(0, Double.NaN), 1e-15);
+		double[] errors = {1.0, 0.9, 0.9, 0.95, 0.9, 0.8, 0.85, 0.85, 0.85, 0.85, 0.85, 0.85};
+		double[] expected = {0.4, 0.4, 0.4, 0.4, 0.2, 0.2, 0.2, 0.2, 0.15, 0.15, 0.15, 0.15};
+		double[] rates = new double[errors.length];
+		for (int i = 0; i < errors.length; i++) {
+			rates[i] = plateau.getLearningRate(i + 1, errors[i]);
+		}
+		assertArrayEquals(expected, rates, 1e-15);
+	}
+
+	@Test
+	public void networkFollowsSchedule() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 2;
+		config.numCenterNodes = 8;
+		config.bias = true;
+		config.seed = 3;
+		config.learningRate = 0.8;
+		config.learningRateSchedule = LearningRateSchedules.reduceOnPlateau(0.8, 0.5, 5);
+		NeuralNetwork nn = new NeuralNetwork(config);
+		double[][] inputs = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] signals = {{0.0}, {1.0}, {1.0}, {0.0}};
+
+		double error = Double.NaN;
+		for (int epoch = 0; epoch < 3000; epoch++) {
+			double rate = nn.updateLearningRate(epoch, error);
+			assertEquals(rate, nn.getLearningRate(), 0.0);
+			assertEquals(rate, nn.getOutputLayer().getLearningRate(), 0.0);
+			error = 0;
+			for (int i = 0; i < inputs.length; i++) {
+				nn.setInputs(inputs[i]);
+				nn.setTeacherSignals(signals[i]);
+				nn.feedForward();
+				error += nn.calculateError();
+				nn.backPropagate();
+			}
+			error /= inputs.length;
+		}
+		assertTrue("error = " + error, error < 0.01);
+	}
+
+}
@@ -0,0 +1,154 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NeuralNetworkIOTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void saveAndLoad() throws IOException {
+		NeuralNetwork nn = trainedNetwork();
+		File file = folder.newFile("xor.nn");
+		NeuralNetworkIO.save(nn, file);
+
+		NeuralNetwork loaded = NeuralNetworkIO.load(file);
+		assertEquals(nn.getConfig().numCenterLayers, loaded.getConfig().numCenterLayers);
+		assertEquals(nn.getConfig().seed, loaded.getConfig().seed);
+		assertEquals(nn.getLearningRate(), loaded.getLearningRate(), 0.0);
+		for (int l = 0; l < nn.getLayers().length - 1; l++) {
+			assertArrayEquals(nn.getLayers()[l].weights, loaded.getLayers()[l].weights, 0.0);
+			assertArrayEquals(nn.getLayers()[l].biasWeights, loaded.getLayers()[l].biasWeights, 0.0);
+		}
+	}
+
+	@Test
+	public void mapMatchesPredict() throws IOException {
+		NeuralNetwork nn = trainedNetwork();
+		File file = folder.newFile("xor.nn");
+		NeuralNetworkIO.save(nn, file);
+
+		MappedNetwork mapped = NeuralNetworkIO.map(file);
+		double[][] inputs = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		for (double[] input : inputs) {
+			assertArrayEquals(nn.predict(input), mapped.predict(input), 1e-12);
+		}
+	}
+
+	@Test
+	public void saveLoadAndMapFloat() throws IOException {
+		// 5 center nodes give odd sized weight matrices, exercising the padding
+		NeuralNetwork nn = trainedNetwork(Precision.FLOAT, 5);
+		File file = folder.newFile("xor-float.nn");
+		NeuralNetworkIO.save(nn, file);
+
+		NeuralNetwork loaded = NeuralNetworkIO.load(file);
+		assertEquals(Precision.FLOAT, loaded.getConfig().precision);
+		for (int l = 0; l < nn.getLayers().length - 1; l++) {
+			assertArrayEquals(nn.getLayers()[l].floatWeights, loaded.getLayers()[l].floatWeights, 0.0f);
+			assertArrayEquals(nn.getLayers()[l].biasWeights, loaded.getLayers()[l].biasWeights, 0.0);
+		}
+
+		MappedNetwork mapped = NeuralNetworkIO.map(file);
+		double[][] inputs = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		for (double[] input : inputs) {
+			assertArrayEquals(loaded.predict(input), mapped.predict(input), 1e-5);
+		}
+	}
+
+	@Test
+	public void saveLoadAndMapTapered() throws IOException {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.setLayerSizes(2, 7, 3, 1);
+		config.bias = true;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		File file = folder.newFile("tapered.nn");
+		NeuralNetworkIO.save(nn, file);
+
+		NeuralNetwork loaded = NeuralNetworkIO.load(file);
+		assertArrayEquals(new int[] {2, 7, 3, 1}, loaded.getConfig().getLayerSizes());
+		for (int l = 0; l < nn.getLayers().length - 1; l++) {
+			assertArrayEquals(nn.getLayers()[l].weights, loaded.getLayers()[l].weights, 0.0);
+		}
+		MappedNetwork mapped = NeuralNetworkIO.map(file);
+		double[][] inputs = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		for (double[] input : inputs) {
+			assertArrayEquals(nn.predict(input), mapped.predict(input), 1e-12);
+		}
+	}
+
+	@Test
+	public void offHeapCopyMatchesPredict() throws IOException {
+		for (Precision precision : Precision.values()) {
+			NeuralNetworkConfig config = new NeuralNetworkConfig();
+			config.setLayerSizes(37, 21, 5);
+			config.bias = true;
+			config.precision = precision;
+			NeuralNetwork nn = new NeuralNetwork(config);
+			MappedNetwork copy = MappedNetwork.copyOf(nn);
+			File file = folder.newFile("wide-" + precision + ".nn");
+			NeuralNetworkIO.save(nn, file);
+			MappedNetwork mapped = NeuralNetworkIO.map(file);
+
+			Random rand = new Random(1);
+			for (int n = 0; n < 10; n++) {
+				double[] input = new double[37];
+				for (int i = 0; i < input.length; i++) {
+					input[i] = rand.nextDouble();
+				}
+				double[] expected = nn.predict(input);
+				assertArrayEquals(precision.toString(), expected, copy.predict(input), 1e-5);
+				assertArrayEquals(precision.toString(), expected, mapped.predict(input), 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws IOException {
+		File file = folder.newFile("not.nn");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[128]);
+		out.close();
+		try {
+			NeuralNetworkIO.load(file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private NeuralNetwork trainedNetwork() {
+		return trainedNetwork(Precision.DOUBLE, 6);
+	}
+
+	private NeuralNetwork trainedNetwork(Precision precision, int numCenterNodes) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.precision = precision;
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = numCenterNodes;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.5;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{0.0}, {1.0}, {1.0}, {0.0}};
+		for (int epoch = 0; epoch < 100; epoch++) {
+			nn.trainBatch(trainData, teacherSignal);
+		}
+		return nn;
+	}
+
+}
@@ -1,6 +1,16 @@
 package nn;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Ignore;
 import org.junit.Test;
@@ -78,6 +88,164 @@ public class NeuralNetworkTest {
 		}
 	}
 	
+	@Test
+	public void trainBatchOfOneMatchesPerSampleTraining() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 5;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.5;
+		NeuralNetwork perSample = new NeuralNetwork(config);
+		NeuralNetwork batched = new NeuralNetwork(config);
+		copyWeights(perSample, batched);
+		
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{0.0}, {1.0}, {1.0}, {0.0}};
+		for (int epoch = 0; epoch < 50; epoch++) {
+			for (int i = 0; i < trainData.length; i++) {
+				perSample.setInputs(trainData[i]);
+				perSample.setTeacherSignals(teacherSignal[i]);
+				perSample.feedForward();
+				double expected = perSample.calculateError();
+				perSample.backPropagate();
+				perSample.clearAllValues();
+				
+				double actual = batched.trainBatch(new double[][]{trainData[i]}, new double[][]{teacherSignal[i]});
+				assertEquals(expected, actual, 1e-9);
+			}
+		}
+	}
+	
+	@Test
+	public void taperedLayers() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.setLayerSizes(2, 9, 4, 3, 1);
+		config.bias = true;
+		config.learningRate = 0.5;
+		NeuralNetwork perSample = new NeuralNetwork(config);
+		NeuralNetwork batched = new NeuralNetwork(config);
+		assertArrayEquals(new int[] {2, 9, 4, 3, 1}, config.getLayerSizes());
+		for (int l = 0; l < perSample.getLayers().length; l++) {
+			assertEquals(config.getLayerSize(l), perSample.getLayers()[l].getNumNeurons());
+		}
+		assertEquals(9 * 2, perSample.getInputLayer().getNumWeights());
+		assertEquals(4 * 9, perSample.getCenterLayers()[0].getNumWeights());
+		
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{0.0}, {1.0}, {1.0}, {0.0}};
+		for (int epoch = 0; epoch < 50; epoch++) {
+			for (int i = 0; i < trainData.length; i++) {
+				perSample.setInputs(trainData[i]);
+				perSample.setTeacherSignals(teacherSignal[i]);
+				perSample.feedForward();
+				double expected = perSample.calculateError();
+				perSample.backPropagate();
+				
+				double actual = batched.trainBatch(new double[][]{trainData[i]}, new double[][]{teacherSignal[i]});
+				assertEquals(expected, actual, 1e-9);
+			}
+		}
+	}
+	
+	@Test
+	public void trainBatch() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 1;
+		config.numCenterNodes = 20;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.8;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{0.0}, {0.0}, {0.0}, {1.0}};
+		double error = Double.MAX_VALUE;
+		for (int count = 0; count < 100000 && error > 0.001; count++) {
+			error = nn.trainBatch(trainData, teacherSignal);
+		}
+		assertTrue("error = " + error, error <= 0.001);
+	}
+	
+	@Test
+	public void predictMatchesFeedForward() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 6;
+		config.numInputNodes = 3;
+		config.numOutputNodes = 2;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		
+		double[] input = {0.2, 0.7, 0.4};
+		nn.setInputs(input);
+		nn.feedForward();
+		double[] expected = nn.getOutputs();
+		
+		assertArrayEquals(expected, nn.predict(input), 1e-12);
+		assertArrayEquals(expected, nn.predict(input, new Workspace(nn)), 1e-12);
+		// predict does not touch the neuron values
+		assertArrayEquals(expected, nn.getOutputs(), 0.0);
+		assertArrayEquals(input, nn.getInputs(), 0.0);
+	}
+	
+	@Test
+	public void predictConcurrently() throws Exception {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numCenterNodes = 16;
+		config.numInputNodes = 4;
+		config.numOutputNodes = 3;
+		config.bias = true;
+		final NeuralNetwork nn = new NeuralNetwork(config);
+		final double[][] inputs = new double[64][4];
+		final double[][] expected = new double[inputs.length][];
+		for (int i = 0; i < inputs.length; i++) {
+			for (int j = 0; j < 4; j++) {
+				inputs[i][j] = ((i * 7 + j * 3) % 10) / 10.0;
+			}
+			expected[i] = nn.predict(inputs[i]);
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						Workspace workspace = new Workspace(nn);
+						for (int n = 0; n < 1000; n++) {
+							int i = n % inputs.length;
+							if (!Arrays.equals(expected[i], nn.predict(inputs[i], workspace))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private void copyWeights(NeuralNetwork from, NeuralNetwork to) {
+		copyWeights(from.getInputLayer(), to.getInputLayer());
+		for (int i = 0; i < from.getCenterLayers().length; i++) {
+			copyWeights(from.getCenterLayers()[i], to.getCenterLayers()[i]);
+		}
+	}
+	
+	private void copyWeights(Layer from, Layer to) {
+		for (int i = 0; i < from.getNumNeurons(); i++) {
+			to.getNeuron(i).setWeights(from.getNeuron(i).getWeights());
+		}
+	}
+	
 	@Ignore
 	public void sanityCheck() {
 		NeuralNetworkConfig config = new NeuralNetworkConfig();
@@ -105,32 +273,32 @@ public class NeuralNetworkTest {
 			nn.feedForward();
 			System.out.println("FEED FORWARD");
 			System.out.println("V: " + nn.getInputLayer().getNeuron(0).getValue());
-			System.out.println("W: " + nn.getInputLayer().getNeuron(0).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getInputLayer().getNeuron(0).getWeights()));
 			System.out.println("V: " + nn.getInputLayer().getNeuron(1).getValue());
-			System.out.println("W: " + nn.getInputLayer().getNeuron(1).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getInputLayer().getNeuron(1).getWeights()));
 	
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(0).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(0).getWeights()));
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(1).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(1).getWeights()));
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(2).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(2).getWeights()));
 			System.out.println(Arrays.toString(nn.getOutputs()));
 			nn.calculateError();
 			nn.backPropagate();
 			
 			System.out.println("BACK PROPAGATE");
 			System.out.println("V: " + nn.getInputLayer().getNeuron(0).getValue());
-			System.out.println("W: " + nn.getInputLayer().getNeuron(0).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getInputLayer().getNeuron(0).getWeights()));
 			System.out.println("V: " + nn.getInputLayer().getNeuron(1).getValue());
-			System.out.println("W: " + nn.getInputLayer().getNeuron(1).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getInputLayer().getNeuron(1).getWeights()));
 	
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(0).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(0).getWeights()));
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(1).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(1).getWeights()));
 			System.out.println("V: " + nn.getCenterLayers()[0].getNeuron(0).getValue());
-			System.out.println("W: " + nn.getCenterLayers()[0].getNeuron(2).getWeights());
+			System.out.println("W: " + Arrays.toString(nn.getCenterLayers()[0].getNeuron(2).getWeights()));
 			System.out.println(Arrays.toString(nn.getOutputs()));
 			
 			nn.clearAllValues();
@@ -0,0 +1,148 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void trainsExactlyLikeTheHeap() {
+		Random rand = new Random(3);
+		double[][] inputs = new double[12][30];
+		double[][] signals = new double[12][3];
+		for (int i = 0; i < inputs.length; i++) {
+			for (int j = 0; j < inputs[i].length; j++) {
+				inputs[i][j] = rand.nextDouble();
+			}
+			signals[i][i % 3] = 1;
+		}
+		int[] indices = {2, 11, 29};
+		double[] values = {1, 0.5, 0.25};
+		for (Precision precision : Precision.values()) {
+			NeuralNetwork heap = network(precision, false);
+			NeuralNetwork offHeap = network(precision, true);
+			for (NeuralNetwork nn : new NeuralNetwork[] {heap, offHeap}) {
+				for (int i = 0; i < inputs.length; i++) {
+					nn.setInputs(inputs[i]);
+					nn.setTeacherSignals(signals[i]);
+					nn.feedForward();
+					nn.backPropagate();
+					nn.setSparseInputs(indices, values);
+					nn.feedForward();
+					nn.backPropagate();
+				}
+				for (int epoch = 0; epoch < 5; epoch++) {
+					nn.trainBatch(inputs, signals);
+				}
+			}
+
+			for (int l = 0; l < heap.getLayers().length - 1; l++) {
+				Layer expected = heap.getLayers()[l];
+				Layer actual = offHeap.getLayers()[l];
+				assertTrue(actual.isOffHeap() && actual.weightBuffer.isDirect());
+				assertNull(actual.weights);
+				assertNull(actual.floatWeights);
+				assertNull(actual.biasWeights);
+				assertNull(actual.weightStates);
+				assertNull(actual.floatWeightStates);
+				assertNull(actual.biasStates);
+				for (int i = 0; i < expected.getNumWeights(); i++) {
+					assertEquals(precision + " layer " + l, expected.getWeight(i), actual.getWeight(i), 0.0);
+				}
+				for (int j = 0; j < heap.getLayers()[l + 1].getNumNeurons(); j++) {
+					assertEquals(precision + " layer " + l, expected.getBiasWeight(j), actual.getBiasWeight(j), 0.0);
+				}
+			}
+			assertArrayEquals(heap.predict(inputs[0]), offHeap.predict(inputs[0]), 0.0);
+			assertArrayEquals(heap.predict(indices, values), offHeap.predict(indices, values), 0.0);
+		}
+	}
+
+	@Test
+	public void savesLoadsAndCheckpoints() throws IOException {
+		for (Precision precision : Precision.values()) {
+			NeuralNetwork nn = network(precision, true);
+			nn.trainBatch(new double[][] {new double[30]}, new double[][] {{1, 0, 0}});
+			File file = folder.newFile();
+			NeuralNetworkIO.save(nn, file);
+			NeuralNetwork loaded = NeuralNetworkIO.load(file, true);
+			NeuralNetwork heap = NeuralNetworkIO.load(file);
+			assertTrue(loaded.getLayers()[0].isOffHeap());
+			assertEquals(false, heap.getLayers()[0].isOffHeap());
+			assertSameWeights(precision.toString(), nn, loaded);
+			assertSameWeights(precision.toString(), nn, heap);
+
+			Checkpoint checkpoint = new Checkpoint(nn);
+			checkpoint.capture(nn, nn, null, null, new double[0]);
+			NeuralNetwork restored = network(precision, true);
+			checkpoint.restore(restored, restored);
+			assertSameWeights(precision.toString(), nn, restored);
+			Layer layer = nn.getLayers()[1];
+			for (int s = 0; s < layer.weightStateBuffers.length; s++) {
+				assertEquals(layer.weightStateBuffers[s], restored.getLayers()[1].weightStateBuffers[s]);
+				assertEquals(layer.biasStateBuffers[s], restored.getLayers()[1].biasStateBuffers[s]);
+			}
+		}
+	}
+
+	@Test
+	public void wideNetworksStayOffTheHeap() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.setLayerSizes(1000, 1000, 10);
+		config.bias = true;
+		config.optimizer = Optimizers.adam();
+		config.offHeap = true;
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		NeuralNetwork nn = new NeuralNetwork(config);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		// 重みと状態で24MB: 1000 x 1000 weights and two Adam states take 24 MB off the heap
+		assertTrue("allocated " + allocated + " bytes", allocated < 1 << 20);
+		assertEquals(8000000, nn.getInputLayer().weightBuffer.capacity());
+	}
+
+	private static void assertSameWeights(String message, NeuralNetwork expected, NeuralNetwork actual) {
+		for (int l = 0; l < expected.getLayers().length - 1; l++) {
+			Layer layer = expected.getLayers()[l];
+			for (int i = 0; i < layer.getNumWeights(); i++) {
+				assertEquals(message, layer.getWeight(i), actual.getLayers()[l].getWeight(i), 0.0);
+			}
+			for (int j = 0; j < expected.getLayers()[l + 1].getNumNeurons(); j++) {
+				assertEquals(message, layer.getBiasWeight(j), actual.getLayers()[l].getBiasWeight(j), 0.0);
+			}
+		}
+	}
+
+	private static NeuralNetwork network(Precision precision, boolean offHeap) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.setLayerSizes(30, 50, 45, 3);
+		config.bias = true;
+		config.learningRate = 0.05;
+		config.optimizer = Optimizers.adam();
+		config.precision = precision;
+		config.offHeap = offHeap;
+		config.seed = 8;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		nn.getLayers()[1].setNeuronLearningRateCoefficient(4, 0.5);
+		return nn;
+	}
+
+}
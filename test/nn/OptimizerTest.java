@@ -0,0 +1,204 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OptimizerTest {
+
+	private static final double[][] XOR_INPUTS = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+
+	private static final double[][] XOR_SIGNALS = {{0.0}, {1.0}, {1.0}, {0.0}};
+
+	@Test
+	public void everyOptimizerLearnsXor() {
+		Optimizer[] optimizers = {Optimizers.sgd(), Optimizers.momentum(0.9), Optimizers.nesterov(0.9),
+				Optimizers.rmsProp(), Optimizers.adam()};
+		double[] learningRates = {0.8, 0.2, 0.2, 0.01, 0.02};
+		for (Precision precision : Precision.values()) {
+			for (int o = 0; o < optimizers.length; o++) {
+				NeuralNetwork nn = xorNetwork(optimizers[o], learningRates[o], precision);
+				int epochs = epochsToError(nn, 0.001, 100000);
+				assertTrue(optimizers[o] + " " + precision, epochs < 100000);
+			}
+		}
+	}
+
+	@Test
+	public void perSampleTrainingUsesTheOptimizer() {
+		NeuralNetwork nn = xorNetwork(Optimizers.adam(), 0.02, Precision.DOUBLE);
+		double error = Double.MAX_VALUE;
+		for (int epoch = 0; epoch < 20000 && error > 0.001; epoch++) {
+			error = 0;
+			for (int i = 0; i < XOR_INPUTS.length; i++) {
+				nn.setInputs(XOR_INPUTS[i]);
+				nn.setTeacherSignals(XOR_SIGNALS[i]);
+				nn.feedForward();
+				error += nn.calculateError();
+				nn.backPropagate();
+			}
+			error /= XOR_INPUTS.length;
+		}
+		assertTrue("error = " + error, error <= 0.001);
+	}
+
+	@Test
+	public void indexedUpdateMatchesSingleUpdates() {
+		Optimizer[] optimizers = {Optimizers.sgd(), Optimizers.nesterov(0.9), Optimizers.rmsProp(), Optimizers.adam()};
+		int[] indices = {1, 4, 5, 9};
+		double[] gradient = new double[10];
+		float[] floatGradient = new float[10];
+		double[] coefficients = new double[10];
+		for (int i = 0; i < 10; i++) {
+			gradient[i] = Math.sin(i + 1);
+			floatGradient[i] = (float) gradient[i];
+			coefficients[i] = 0.5 + i / 10.0;
+		}
+		for (Optimizer optimizer : optimizers) {
+			for (double[] c : new double[][] {null, coefficients}) {
+				double[] expected = new double[13];
+				double[] actual = new double[13];
+				float[] expectedFloats = new float[13];
+				float[] actualFloats = new float[13];
+				double[][] expectedState = new double[optimizer.getNumStates()][13];
+				double[][] actualState = new double[optimizer.getNumStates()][13];
+				float[][] expectedFloatState = new float[optimizer.getNumStates()][13];
+				float[][] actualFloatState = new float[optimizer.getNumStates()][13];
+				for (int step = 1; step <= 3; step++) {
+					for (int i : indices) {
+						double[] coefficient = c != null ? new double[] {c[i]} : null;
+						optimizer.update(expected, 3 + i, 1, 0.7, gradient, i, expectedState, 0.1, coefficient, step);
+						optimizer.update(expectedFloats, 3 + i, 1, 0.7, floatGradient, i, expectedFloatState, 0.1,
+								coefficient, step);
+					}
+					optimizer.update(actual, 3, indices, indices.length, 0.7, gradient, actualState, 0.1, c, step);
+					optimizer.update(actualFloats, 3, indices, indices.length, 0.7, floatGradient, actualFloatState, 0.1,
+							c, step);
+				}
+				String message = optimizer + (c != null ? " with coefficients" : "");
+				assertArrayEquals(message, expected, actual, 0.0);
+				assertArrayEquals(message, expectedFloats, actualFloats, 0.0f);
+			}
+		}
+	}
+
+	@Test
+	public void zeroCoefficientFreezesWeights() {
+		Optimizer[] optimizers = {Optimizers.sgd(), Optimizers.nesterov(0.9), Optimizers.rmsProp(), Optimizers.adam()};
+		for (Precision precision : Precision.values()) {
+			for (Optimizer optimizer : optimizers) {
+				NeuralNetwork nn = xorNetwork(optimizer, 0.01, precision);
+				Layer input = nn.getInputLayer();
+				int numNeurons = input.getNumNeurons();
+				int numChildNeurons = nn.getCenterLayers()[0].getNumNeurons();
+				input.setNeuronLearningRateCoefficient(1, 0.0);
+				double[] frozen = new double[numChildNeurons];
+				for (int j = 0; j < numChildNeurons; j++) {
+					frozen[j] = input.getWeight(j * numNeurons + 1);
+				}
+				double before = input.getWeight(0);
+				for (int epoch = 0; epoch < 10; epoch++) {
+					nn.trainBatch(XOR_INPUTS, XOR_SIGNALS);
+					nn.setInputs(XOR_INPUTS[epoch % 4]);
+					nn.setTeacherSignals(XOR_SIGNALS[epoch % 4]);
+					nn.feedForward();
+					nn.backPropagate();
+				}
+				for (int j = 0; j < numChildNeurons; j++) {
+					assertEquals(optimizer + " " + precision, frozen[j], input.getWeight(j * numNeurons + 1), 0.0);
+				}
+				assertTrue(optimizer + " " + precision, before != input.getWeight(0));
+			}
+		}
+	}
+
+	@Test
+	public void coefficientsScaleTheLearningRate() {
+		for (Precision precision : Precision.values()) {
+			NeuralNetwork scaled = xorNetwork(Optimizers.sgd(), 0.1, precision, false);
+			NeuralNetwork doubled = xorNetwork(Optimizers.sgd(), 0.2, precision, false);
+			for (Layer layer : scaled.getLayers()) {
+				for (int i = 0; i < layer.getNumNeurons(); i++) {
+					layer.setNeuronLearningRateCoefficient(i, 2.0);
+				}
+			}
+			for (int epoch = 0; epoch < 5; epoch++) {
+				scaled.trainBatch(XOR_INPUTS, XOR_SIGNALS);
+				doubled.trainBatch(XOR_INPUTS, XOR_SIGNALS);
+			}
+			for (int l = 0; l < scaled.getLayers().length - 1; l++) {
+				Layer layer = scaled.getLayers()[l];
+				for (int w = 0; w < layer.getNumWeights(); w++) {
+					assertEquals(precision.toString(), doubled.getLayers()[l].getWeight(w), layer.getWeight(w),
+							precision == Precision.DOUBLE ? 1e-12 : 1e-6);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void adamAndMomentumBeatSgdOnChess() {
+		String[] pieces = {"king", "queen", "rook", "knight", "bishop", "pawn"};
+		double[][] trainData = new double[pieces.length * 2][];
+		double[][] trainResults = new double[pieces.length * 2][8];
+		for (int c = 0; c < 2; c++) {
+			for (int p = 0; p < pieces.length; p++) {
+				int i = c * pieces.length + p;
+				trainData[i] = ChessImageTest.loadImageData("nn/chess/" + (c == 0 ? "black_" : "white_") + pieces[p] + ".png");
+				trainResults[i][c] = 1;
+				trainResults[i][2 + p] = 1;
+			}
+		}
+		int sgd = epochsToError(chessNetwork(Optimizers.sgd(), 0.5), trainData, trainResults, 0.001, 20000);
+		int momentum = epochsToError(chessNetwork(Optimizers.nesterov(0.9), 0.1), trainData, trainResults, 0.001, 20000);
+		int adam = epochsToError(chessNetwork(Optimizers.adam(), 0.01), trainData, trainResults, 0.001, 20000);
+		System.out.println("epochs to 0.001: sgd = " + sgd + ", nesterov = " + momentum + ", adam = " + adam);
+		assertTrue(momentum < sgd);
+		assertTrue(adam < sgd);
+	}
+
+	private NeuralNetwork xorNetwork(Optimizer optimizer, double learningRate, Precision precision) {
+		return xorNetwork(optimizer, learningRate, precision, true);
+	}
+
+	private NeuralNetwork xorNetwork(Optimizer optimizer, double learningRate, Precision precision, boolean bias) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = bias;
+		config.numCenterNodes = 20;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = learningRate;
+		config.optimizer = optimizer;
+		config.precision = precision;
+		config.seed = 4;
+		return new NeuralNetwork(config);
+	}
+
+	private NeuralNetwork chessNetwork(Optimizer optimizer, double learningRate) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 1300;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 15;
+		config.numOutputNodes = 8;
+		config.learningRate = learningRate;
+		config.optimizer = optimizer;
+		config.seed = 7;
+		return new NeuralNetwork(config);
+	}
+
+	private int epochsToError(NeuralNetwork nn, double target, int maxEpochs) {
+		return epochsToError(nn, XOR_INPUTS, XOR_SIGNALS, target, maxEpochs);
+	}
+
+	private int epochsToError(NeuralNetwork nn, double[][] inputs, double[][] signals, double target, int maxEpochs) {
+		for (int epoch = 0; epoch < maxEpochs; epoch++) {
+			if (nn.trainBatch(inputs, signals) <= target) {
+				return epoch;
+			}
+		}
+		return maxEpochs;
+	}
+
+}
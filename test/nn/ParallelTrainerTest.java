@@ -0,0 +1,77 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ParallelTrainerTest {
+
+	private static final double[][] TRAIN_DATA = {
+		{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0},
+		{0.1, 0.9}, {0.9, 0.1}, {0.2, 0.2}, {0.8, 0.8}, {0.5, 0.4}
+	};
+
+	private static final double[][] TEACHER_SIGNAL = {
+		{0.0}, {1.0}, {1.0}, {0.0},
+		{1.0}, {1.0}, {0.0}, {0.0}, {1.0}
+	};
+
+	@Test
+	public void matchesSingleThreadedTrainBatch() {
+		NeuralNetwork expected = new NeuralNetwork(config(42));
+		NeuralNetwork actual = new NeuralNetwork(config(42));
+		ParallelTrainer trainer = new ParallelTrainer(actual, 4);
+		try {
+			for (int epoch = 0; epoch < 100; epoch++) {
+				assertEquals(expected.trainBatch(TRAIN_DATA, TEACHER_SIGNAL),
+						trainer.trainBatch(TRAIN_DATA, TEACHER_SIGNAL), 1e-9);
+			}
+		} finally {
+			trainer.shutdown();
+		}
+		assertWeightsEqual(expected, actual, 1e-9);
+	}
+
+	@Test
+	public void deterministicForFixedSeedAndThreadCount() {
+		NeuralNetwork first = train(7, 3);
+		NeuralNetwork second = train(7, 3);
+		assertWeightsEqual(first, second, 0.0);
+	}
+
+	private NeuralNetwork train(long seed, int numThreads) {
+		NeuralNetwork nn = new NeuralNetwork(config(seed));
+		ParallelTrainer trainer = new ParallelTrainer(nn, numThreads);
+		try {
+			for (int epoch = 0; epoch < 200; epoch++) {
+				trainer.trainBatch(TRAIN_DATA, TEACHER_SIGNAL);
+			}
+		} finally {
+			trainer.shutdown();
+		}
+		return nn;
+	}
+
+	private NeuralNetworkConfig config(long seed) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 8;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.5;
+		config.seed = seed;
+		return config;
+	}
+
+	private void assertWeightsEqual(NeuralNetwork expected, NeuralNetwork actual, double delta) {
+		Layer[] expectedLayers = expected.getLayers();
+		Layer[] actualLayers = actual.getLayers();
+		for (int l = 0; l < expectedLayers.length - 1; l++) {
+			assertArrayEquals(expectedLayers[l].weights, actualLayers[l].weights, delta);
+			assertArrayEquals(expectedLayers[l].biasWeights, actualLayers[l].biasWeights, delta);
+		}
+	}
+
+}
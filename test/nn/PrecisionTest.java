@@ -0,0 +1,93 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PrecisionTest {
+
+	@Test
+	public void floatAndMixedLearnXor() {
+		for (Precision precision : Precision.values()) {
+			NeuralNetworkConfig config = new NeuralNetworkConfig();
+			config.precision = precision;
+			config.bias = true;
+			config.numCenterLayers = 1;
+			config.numCenterNodes = 20;
+			config.numInputNodes = 2;
+			config.numOutputNodes = 1;
+			config.learningRate = 0.8;
+			config.seed = 42;
+			NeuralNetwork nn = new NeuralNetwork(config);
+
+			double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+			double[][] teacherSignal = {{0.0}, {1.0}, {1.0}, {0.0}};
+			double error = Double.MAX_VALUE;
+			for (int count = 0; count < 100000 && error > 0.001; count++) {
+				error = nn.trainBatch(trainData, teacherSignal);
+			}
+			assertTrue(precision + ": error = " + error, error <= 0.001);
+			for (int i = 0; i < trainData.length; i++) {
+				assertEquals(precision.toString(), teacherSignal[i][0], nn.predict(trainData[i])[0], 0.1);
+			}
+		}
+	}
+
+	@Test
+	public void floatTracksDoubleOnChess() {
+		String[] pieces = {"king", "queen", "rook", "knight", "bishop", "pawn"};
+		double[][] trainData = new double[pieces.length * 2][];
+		double[][] trainResults = new double[pieces.length * 2][8];
+		for (int c = 0; c < 2; c++) {
+			for (int p = 0; p < pieces.length; p++) {
+				int i = c * pieces.length + p;
+				trainData[i] = ChessImageTest.loadImageData("nn/chess/" + (c == 0 ? "black_" : "white_") + pieces[p] + ".png");
+				trainResults[i][c] = 1;
+				trainResults[i][2 + p] = 1;
+			}
+		}
+
+		NeuralNetwork reference = chessNetwork(Precision.DOUBLE, trainData, trainResults);
+		for (Precision precision : new Precision[] {Precision.FLOAT, Precision.MIXED}) {
+			NeuralNetwork nn = chessNetwork(precision, trainData, trainResults);
+			for (int i = 0; i < trainData.length; i++) {
+				assertArrayEquals(precision.toString(), reference.predict(trainData[i]), nn.predict(trainData[i]), 0.05);
+			}
+		}
+	}
+
+	@Test
+	public void neuronWeightsUseTheLayersPrecision() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.precision = Precision.FLOAT;
+		config.numInputNodes = 3;
+		config.numCenterNodes = 4;
+		config.numOutputNodes = 2;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		Layer input = nn.getInputLayer();
+		assertEquals(null, input.weights);
+
+		input.getNeuron(1).setWeight(2, 0.1);
+		assertEquals(0.1f, input.floatWeights[2 * 3 + 1], 0.0f);
+		assertEquals((float) 0.1, input.getNeuron(1).getWeight(2), 0.0);
+	}
+
+	private NeuralNetwork chessNetwork(Precision precision, double[][] trainData, double[][] trainResults) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.precision = precision;
+		config.numInputNodes = trainData[0].length;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 15;
+		config.numOutputNodes = trainResults[0].length;
+		config.learningRate = 0.5;
+		config.seed = 7;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		for (int epoch = 0; epoch < 300; epoch++) {
+			nn.trainBatch(trainData, trainResults);
+		}
+		return nn;
+	}
+
+}
@@ -0,0 +1,68 @@
+package nn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class QuantizerTest {
+
+	@Test
+	public void quantizedXorMatchesOriginal() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 8;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.8;
+		config.seed = 3;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		double[][] trainData = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+		double[][] teacherSignal = {{0.0}, {1.0}, {1.0}, {0.0}};
+		for (int epoch = 0; epoch < 5000; epoch++) {
+			nn.trainBatch(trainData, teacherSignal);
+		}
+
+		QuantizedNetwork quantized = Quantizer.quantize(nn, trainData);
+		Quantizer.Report report = Quantizer.evaluate(nn, quantized, trainData);
+		System.out.println("xor: " + report);
+		assertTrue(report.toString(), report.getMaxError() < 0.05);
+		for (int i = 0; i < trainData.length; i++) {
+			assertEquals(teacherSignal[i][0], quantized.predict(trainData[i])[0], 0.2);
+		}
+	}
+
+	@Test
+	public void quantizedChessAgreesWithOriginal() {
+		String[] pieces = {"king", "queen", "rook", "knight", "bishop", "pawn"};
+		double[][] trainData = new double[pieces.length * 2][];
+		double[][] trainResults = new double[pieces.length * 2][8];
+		for (int c = 0; c < 2; c++) {
+			for (int p = 0; p < pieces.length; p++) {
+				int i = c * pieces.length + p;
+				trainData[i] = ChessImageTest.loadImageData("nn/chess/" + (c == 0 ? "black_" : "white_") + pieces[p] + ".png");
+				trainResults[i][c] = 1;
+				trainResults[i][2 + p] = 1;
+			}
+		}
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = trainData[0].length;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 15;
+		config.numOutputNodes = trainResults[0].length;
+		config.learningRate = 0.5;
+		config.seed = 7;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		for (int epoch = 0; epoch < 300; epoch++) {
+			nn.trainBatch(trainData, trainResults);
+		}
+
+		QuantizedNetwork quantized = Quantizer.quantize(nn, trainData);
+		Quantizer.Report report = Quantizer.evaluate(nn, quantized, trainData);
+		System.out.println("chess: " + report + ", " + quantized.getSizeInBytes() + " bytes");
+		assertEquals(report.toString(), 1.0, report.getAgreement(), 0.0);
+		assertTrue(report.toString(), report.getMaxError() < 0.1);
+	}
+
+}
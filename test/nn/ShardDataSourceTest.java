@@ -0,0 +1,139 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardDataSourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackWhatWasWritten() throws IOException {
+		CsvDataSource csv = csv(23);
+		List<File> files = DatasetShards.write(csv, folder.getRoot(), "counting", 5);
+		assertEquals(5, files.size());
+		ShardDataSource shards = new ShardDataSource(files);
+		assertEquals(23, shards.size());
+		assertEquals(3, shards.getNumInputs());
+		assertEquals(2, shards.getNumOutputs());
+
+		double[] expectedInput = new double[3];
+		double[] expectedSignal = new double[2];
+		double[] input = new double[3];
+		double[] signal = new double[2];
+		for (int i = 0; i < csv.size(); i++) {
+			csv.read(i, expectedInput, expectedSignal);
+			shards.read(i, input, signal);
+			assertArrayEquals(expectedInput, input, 0.0);
+			assertArrayEquals(expectedSignal, signal, 0.0);
+			for (int j = 0; j < 3; j++) {
+				assertEquals(expectedInput[j], shards.getInput(i).get(j), 0.0);
+			}
+			for (int j = 0; j < 2; j++) {
+				assertEquals(expectedSignal[j], shards.getTeacherSignal(i).get(j), 0.0);
+			}
+		}
+		csv.close();
+	}
+
+	@Test
+	public void trainEpochMatchesTrainBatch() throws IOException {
+		CsvDataSource csv = csv(10);
+		ShardDataSource shards = new ShardDataSource(DatasetShards.write(csv, folder.getRoot(), "counting", 4));
+		double[][] inputs = new double[csv.size()][3];
+		double[][] signals = new double[csv.size()][2];
+		for (int i = 0; i < csv.size(); i++) {
+			csv.read(i, inputs[i], signals[i]);
+		}
+		csv.close();
+
+		for (Precision precision : Precision.values()) {
+			NeuralNetworkConfig config = new NeuralNetworkConfig();
+			config.precision = precision;
+			config.bias = true;
+			config.numInputNodes = 3;
+			config.numCenterNodes = 7;
+			config.numOutputNodes = 2;
+			config.seed = 5;
+			NeuralNetwork expected = new NeuralNetwork(config);
+			NeuralNetwork actual = new NeuralNetwork(config);
+			for (int epoch = 0; epoch < 20; epoch++) {
+				double error = 0;
+				for (int from = 0; from < inputs.length; from += 4) {
+					int count = Math.min(4, inputs.length - from);
+					error += expected.trainBatch(inputs, signals, from, count) * count;
+				}
+				assertEquals(error / inputs.length, shards.trainEpoch(actual, 4, null), 1e-12);
+			}
+			double[] input = {0.3, 0.6, 0.9};
+			assertArrayEquals(expected.predict(input), actual.predict(input), 0.0);
+		}
+	}
+
+	@Test
+	public void shuffledTrainingLearns() throws IOException {
+		File file = folder.newFile("xor.csv");
+		FileWriter out = new FileWriter(file);
+		out.write("0,0,0\n0,1,1\n1,0,1\n1,1,0\n");
+		out.close();
+		CsvDataSource csv = new CsvDataSource(file, 2, 1);
+		ShardDataSource shards = new ShardDataSource(DatasetShards.write(csv, folder.getRoot(), "xor", 3));
+		csv.close();
+
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterNodes = 20;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.8;
+		config.seed = 1;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		Random shuffle = new Random(2);
+		double error = Double.MAX_VALUE;
+		for (int epoch = 0; epoch < 100000 && error > 0.001; epoch++) {
+			error = shards.trainEpoch(nn, 4, shuffle);
+		}
+		assertTrue("error = " + error, error <= 0.001);
+	}
+
+	@Test
+	public void rejectsTruncatedShards() throws IOException {
+		CsvDataSource csv = csv(4);
+		List<File> files = DatasetShards.write(csv, folder.getRoot(), "counting", 4);
+		csv.close();
+		RandomAccessFile raf = new RandomAccessFile(files.get(0), "rw");
+		raf.setLength(raf.length() - 8);
+		raf.close();
+		try {
+			new ShardDataSource(files);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private CsvDataSource csv(int numSamples) throws IOException {
+		File file = folder.newFile("counting-" + numSamples + ".csv");
+		FileWriter out = new FileWriter(file);
+		for (int i = 0; i < numSamples; i++) {
+			out.write((i / 10.0) + "," + (i % 3) + "," + (1 - i / 100.0) + "," + (i % 2) + "," + ((i + 1) % 2) + "\n");
+		}
+		out.close();
+		return new CsvDataSource(file, 3, 2);
+	}
+
+}
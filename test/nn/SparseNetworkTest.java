@@ -0,0 +1,181 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SparseNetworkTest {
+
+	private static final int NUM_INPUTS = 60;
+
+	@Test
+	public void sparseTrainingMatchesDense() {
+		for (Precision precision : new Precision[] {Precision.DOUBLE, Precision.FLOAT}) {
+			NeuralNetwork dense = new NeuralNetwork(config(precision));
+			NeuralNetwork sparse = new NeuralNetwork(config(precision));
+			Random rand = new Random(5);
+			for (int n = 0; n < 200; n++) {
+				int[] indices = randomIndices(rand);
+				double[] values = randomValues(rand, indices.length);
+				double[] signals = {rand.nextInt(2), rand.nextInt(2)};
+
+				dense.setInputs(toDense(indices, values));
+				dense.setTeacherSignals(signals);
+				dense.feedForward();
+				dense.backPropagate();
+
+				sparse.setSparseInputs(indices, values);
+				sparse.setTeacherSignals(signals);
+				sparse.feedForward();
+				sparse.backPropagate();
+
+				assertArrayEquals(dense.getOutputs(), sparse.getOutputs(), 1e-5);
+			}
+			Layer[] denseLayers = dense.getLayers();
+			Layer[] sparseLayers = sparse.getLayers();
+			for (int l = 0; l < denseLayers.length - 1; l++) {
+				for (int i = 0; i < denseLayers[l].getNumWeights(); i++) {
+					assertEquals(precision + " layer " + l, denseLayers[l].getWeight(i), sparseLayers[l].getWeight(i), 1e-5);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sparsePredictMatchesDense() {
+		for (Precision precision : new Precision[] {Precision.DOUBLE, Precision.FLOAT}) {
+			NeuralNetwork nn = new NeuralNetwork(config(precision));
+			Random rand = new Random(6);
+			for (int n = 0; n < 20; n++) {
+				int[] indices = randomIndices(rand);
+				double[] values = randomValues(rand, indices.length);
+				assertArrayEquals(nn.predict(toDense(indices, values)), nn.predict(indices, values), 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void denseInputsReplaceSparseInputs() {
+		NeuralNetwork nn = new NeuralNetwork(config(Precision.DOUBLE));
+		double[] input = randomValues(new Random(7), NUM_INPUTS);
+		nn.setSparseInputs(new int[] {1, 5}, new double[] {1, 1});
+		nn.setInputs(input);
+		nn.feedForward();
+		assertArrayEquals(nn.predict(input), nn.getOutputs(), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsortedIndicesAreRejected() {
+		new NeuralNetwork(config(Precision.DOUBLE)).setSparseInputs(new int[] {5, 1}, new double[] {1, 1});
+	}
+
+	@Test
+	public void unprunedNetworkMatchesOriginal() {
+		NeuralNetwork nn = new NeuralNetwork(config(Precision.DOUBLE));
+		SparseNetwork sparse = Pruner.prune(nn, 0);
+		assertEquals(countWeights(nn), sparse.getNumWeights());
+		Random rand = new Random(8);
+		for (int n = 0; n < 20; n++) {
+			int[] indices = randomIndices(rand);
+			double[] values = randomValues(rand, indices.length);
+			double[] expected = nn.predict(indices, values);
+			assertArrayEquals(expected, sparse.predict(indices, values), 1e-12);
+			assertArrayEquals(expected, sparse.predict(toDense(indices, values)), 1e-12);
+		}
+	}
+
+	@Test
+	public void prunedNetworkDropsTheSmallestWeights() {
+		NeuralNetwork nn = new NeuralNetwork(config(Precision.DOUBLE));
+		SparseNetwork sparse = Pruner.prune(nn, 0.5);
+		assertEquals(countWeights(nn) / 2, sparse.getNumWeights());
+
+		// 同じ重みを零にする: zero the same weights in the dense network, pruned ties go in row order
+		for (Layer layer : nn.getLayers()) {
+			int numWeights = layer.getNumWeights();
+			if (numWeights == 0) {
+				continue;
+			}
+			double[] magnitudes = new double[numWeights];
+			for (int i = 0; i < numWeights; i++) {
+				magnitudes[i] = Math.abs(layer.getWeight(i));
+			}
+			Arrays.sort(magnitudes);
+			double threshold = magnitudes[numWeights / 2 - 1];
+			int numTies = 0;
+			for (int i = 0; i < numWeights / 2; i++) {
+				if (magnitudes[i] == threshold) {
+					numTies++;
+				}
+			}
+			int numParents = layer.getNumNeurons();
+			int numChildren = numWeights / numParents;
+			for (int i = 0; i < numParents; i++) {
+				for (int j = 0; j < numChildren; j++) {
+					double magnitude = Math.abs(layer.getWeight(j * numParents + i));
+					if (magnitude < threshold || (magnitude == threshold && numTies-- > 0)) {
+						layer.setWeight(j * numParents + i, 0);
+					}
+				}
+			}
+		}
+		Random rand = new Random(9);
+		for (int n = 0; n < 20; n++) {
+			double[] input = randomValues(rand, NUM_INPUTS);
+			assertArrayEquals(nn.predict(input), sparse.predict(input), 1e-12);
+		}
+	}
+
+	private static NeuralNetworkConfig config(Precision precision) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numInputNodes = NUM_INPUTS;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 12;
+		config.numOutputNodes = 2;
+		config.learningRate = 0.3;
+		config.precision = precision;
+		config.seed = 4;
+		return config;
+	}
+
+	private static long countWeights(NeuralNetwork nn) {
+		long numWeights = 0;
+		for (Layer layer : nn.getLayers()) {
+			numWeights += layer.getNumWeights();
+		}
+		return numWeights;
+	}
+
+	/*
+	 * 三つの非零の入力: three distinct ascending indices
+	 */
+	private static int[] randomIndices(Random rand) {
+		int[] indices = new int[3];
+		indices[0] = rand.nextInt(NUM_INPUTS / 3);
+		indices[1] = NUM_INPUTS / 3 + rand.nextInt(NUM_INPUTS / 3);
+		indices[2] = 2 * NUM_INPUTS / 3 + rand.nextInt(NUM_INPUTS / 3);
+		return indices;
+	}
+
+	private static double[] randomValues(Random rand, int length) {
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = rand.nextDouble();
+		}
+		return values;
+	}
+
+	private static double[] toDense(int[] indices, double[] values) {
+		double[] dense = new double[NUM_INPUTS];
+		for (int k = 0; k < indices.length; k++) {
+			dense[indices[k]] = values[k];
+		}
+		return dense;
+	}
+
+}
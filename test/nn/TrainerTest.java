@@ -0,0 +1,230 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrainerTest {
+
+	private static final double[][] XOR_INPUTS = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+
+	private static final double[][] XOR_SIGNALS = {{0.0}, {1.0}, {1.0}, {0.0}};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void stopsAtTargetError() {
+		NeuralNetwork nn = xorNetwork();
+		Trainer trainer = new Trainer(nn);
+		trainer.setBatchSize(4);
+		trainer.setTargetError(0.001);
+		Trainer.Result result = trainer.train(XOR_INPUTS, XOR_SIGNALS);
+		assertEquals(Trainer.StopReason.TARGET_ERROR, result.getStopReason());
+		assertTrue(result.getBestValidationError() <= 0.001);
+		assertEquals(result.getNumEpochs() - 2, result.getBestEpoch()); // 最後の世代は捨てる: the last epoch is discarded
+		assertEquals(result.getBestValidationError(), meanSquaredError(nn, XOR_INPUTS, XOR_SIGNALS), 1e-9);
+	}
+
+	@Test
+	public void stopsAtEpochAndTimeBudgets() {
+		Trainer trainer = new Trainer(xorNetwork());
+		trainer.setMaxEpochs(7);
+		Trainer.Result result = trainer.train(XOR_INPUTS, XOR_SIGNALS);
+		assertEquals(Trainer.StopReason.MAX_EPOCHS, result.getStopReason());
+		assertEquals(7, result.getNumEpochs());
+
+		trainer = new Trainer(xorNetwork());
+		trainer.setMaxEpochs(Integer.MAX_VALUE);
+		trainer.setPatience(Integer.MAX_VALUE);
+		trainer.setTargetError(-1);
+		trainer.setTimeLimit(200, TimeUnit.MILLISECONDS);
+		result = trainer.train(XOR_INPUTS, XOR_SIGNALS);
+		assertEquals(Trainer.StopReason.TIME_LIMIT, result.getStopReason());
+		assertTrue(result.getElapsedTime(TimeUnit.MILLISECONDS) < 5000);
+	}
+
+	@Test
+	public void restoresBestWeightsOnPlateau() {
+		// 過学習する: few noisy samples and a large network overfit quickly
+		Random random = new Random(1);
+		double[][] inputs = new double[60][1];
+		double[][] signals = new double[60][1];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i][0] = random.nextDouble();
+			signals[i][0] = 0.5 + 0.3 * Math.sin(6 * inputs[i][0]) + 0.1 * random.nextGaussian();
+		}
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numCenterNodes = 40;
+		config.bias = true;
+		config.learningRate = 0.02;
+		config.optimizer = Optimizers.adam();
+		config.seed = 5;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		Trainer trainer = new Trainer(new ParallelTrainer(nn, 2));
+		trainer.setBatchSize(8);
+		trainer.setValidationSplit(0.5);
+		trainer.setPatience(30);
+		trainer.setMaxEpochs(5000);
+		trainer.setShuffle(3);
+		Trainer.Result result = trainer.train(inputs, signals);
+
+		assertEquals(Trainer.StopReason.PATIENCE, result.getStopReason());
+		assertTrue(result.getNumEpochs() > result.getBestEpoch() + 30);
+		double[][] validationInputs = new double[30][];
+		double[][] validationSignals = new double[30][];
+		System.arraycopy(inputs, 30, validationInputs, 0, 30);
+		System.arraycopy(signals, 30, validationSignals, 0, 30);
+		assertEquals(result.getBestValidationError(), meanSquaredError(nn, validationInputs, validationSignals), 1e-9);
+	}
+
+	@Test
+	public void resumesBitForBit() throws IOException {
+		Random random = new Random(2);
+		double[][] inputs = new double[40][3];
+		double[][] signals = new double[40][1];
+		for (int i = 0; i < inputs.length; i++) {
+			for (int j = 0; j < 3; j++) {
+				inputs[i][j] = random.nextDouble();
+			}
+			signals[i][0] = inputs[i][0] * inputs[i][1] + 0.2 * inputs[i][2];
+		}
+		for (Precision precision : new Precision[] {Precision.DOUBLE, Precision.FLOAT}) {
+			NeuralNetwork uninterrupted = checkpointedNetwork(precision);
+			Trainer.Result expected = checkpointedTrainer(uninterrupted, 40, folder.newFile()).train(inputs, signals);
+
+			// 23世代で止まる: die after 23 epochs, leaving the checkpoint of epoch 20 (or 15)
+			File checkpoint = folder.newFile();
+			checkpointedTrainer(checkpointedNetwork(precision), 23, checkpoint).train(inputs, signals);
+			NeuralNetwork resumed = checkpointedNetwork(precision);
+			Trainer.Result actual = checkpointedTrainer(resumed, 40, folder.newFile()).resume(checkpoint, inputs, signals);
+
+			assertEquals(expected.getStopReason(), actual.getStopReason());
+			assertEquals(expected.getNumEpochs(), actual.getNumEpochs());
+			assertEquals(expected.getBestEpoch(), actual.getBestEpoch());
+			assertEquals(expected.getBestValidationError(), actual.getBestValidationError(), 0.0);
+			assertEquals(expected.getTrainingError(), actual.getTrainingError(), 0.0);
+			assertEquals(uninterrupted.getLearningRate(), resumed.getLearningRate(), 0.0);
+			for (int l = 0; l < uninterrupted.getLayers().length - 1; l++) {
+				Layer layer = uninterrupted.getLayers()[l];
+				for (int i = 0; i < layer.getNumWeights(); i++) {
+					assertEquals(precision + " layer " + l, layer.getWeight(i), resumed.getLayers()[l].getWeight(i), 0.0);
+				}
+				assertArrayEquals(layer.biasWeights, resumed.getLayers()[l].biasWeights, 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void corruptCheckpointsThrowIOException() throws IOException {
+		NeuralNetwork nn = checkpointedNetwork(Precision.DOUBLE);
+		Checkpoint checkpoint = new Checkpoint(nn);
+		checkpoint.capture(nn, nn, new Random(1), new int[] {1, 0}, new double[0]);
+		File file = folder.newFile();
+		checkpoint.write(file);
+		assertEquals(0, Checkpoint.read(file).epoch);
+
+		// 層の数, 精度, 状態の数, 設定の数, 世代, 乱数の長さ
+		// layer count, precision, state count, optimizer parameter count, epoch, shuffle length
+		int layers = 4 * nn.getLayers().length;
+		int name = 2 + nn.getInputLayer().getOptimizer().getClass().getName().length();
+		int[] offsets = {8, 12 + layers, 17 + layers, 21 + layers + name, 49 + layers + name, 81 + layers + name};
+		for (int offset : offsets) {
+			for (int value : new int[] {-7, Integer.MAX_VALUE}) {
+				File corrupt = folder.newFile();
+				Files.copy(file.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				RandomAccessFile raf = new RandomAccessFile(corrupt, "rw");
+				raf.seek(offset);
+				raf.writeInt(value);
+				raf.close();
+				try {
+					Checkpoint.read(corrupt);
+					fail("read a checkpoint with " + value + " at " + offset);
+				} catch (IOException expected) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void checkpointsOnlyFitTheirOptimizer() throws IOException {
+		NeuralNetwork nn = checkpointedNetwork(Precision.DOUBLE);
+		nn.setOptimizer(Optimizers.momentum(0.9));
+		Checkpoint checkpoint = new Checkpoint(nn);
+		checkpoint.capture(nn, nn, null, null, new double[0]);
+		File file = folder.newFile();
+		checkpoint.write(file);
+		Checkpoint read = Checkpoint.read(file);
+		read.restore(nn, nn);
+
+		// 状態の数が同じでも: as many states, but a different optimizer or different hyperparameters
+		for (Optimizer optimizer : new Optimizer[] {Optimizers.rmsProp(), Optimizers.nesterov(0.9), Optimizers.momentum(0.5)}) {
+			NeuralNetwork other = checkpointedNetwork(Precision.DOUBLE);
+			other.setOptimizer(optimizer);
+			try {
+				read.restore(other, other);
+				fail("restored a momentum checkpoint with " + optimizer);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private static NeuralNetwork checkpointedNetwork(Precision precision) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 3;
+		config.numCenterNodes = 12;
+		config.bias = true;
+		config.learningRate = 0.01;
+		config.optimizer = Optimizers.adam();
+		config.learningRateSchedule = LearningRateSchedules.reduceOnPlateau(0.01, 0.5, 3);
+		config.precision = precision;
+		config.seed = 6;
+		return new NeuralNetwork(config);
+	}
+
+	private static Trainer checkpointedTrainer(NeuralNetwork nn, int maxEpochs, File checkpoint) {
+		Trainer trainer = new Trainer(nn);
+		trainer.setBatchSize(8);
+		trainer.setValidationSplit(0.25);
+		trainer.setPatience(Integer.MAX_VALUE);
+		trainer.setMaxEpochs(maxEpochs);
+		trainer.setShuffle(7);
+		trainer.setCheckpoint(checkpoint, 5);
+		return trainer;
+	}
+
+	private NeuralNetwork xorNetwork() {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 2;
+		config.numCenterNodes = 20;
+		config.bias = true;
+		config.learningRate = 0.8;
+		config.seed = 4;
+		return new NeuralNetwork(config);
+	}
+
+	private static double meanSquaredError(NeuralNetwork nn, double[][] inputs, double[][] signals) {
+		double error = 0;
+		for (int i = 0; i < inputs.length; i++) {
+			double[] outputs = nn.predict(inputs[i]);
+			for (int j = 0; j < outputs.length; j++) {
+				error += Math.pow(outputs[j] - signals[i][j], 2);
+			}
+		}
+		return error / (inputs.length * signals[0].length);
+	}
+
+}
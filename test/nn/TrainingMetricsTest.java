@@ -0,0 +1,152 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class TrainingMetricsTest {
+
+	private static final double[][] XOR_INPUTS = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+
+	private static final double[][] XOR_SIGNALS = {{0.0}, {1.0}, {1.0}, {0.0}};
+
+	@Test
+	public void measuringDoesNotChangeTraining() {
+		for (Precision precision : Precision.values()) {
+			NeuralNetwork measured = network(precision);
+			NeuralNetwork plain = network(precision);
+			measured.setMetrics(new TrainingMetrics(measured));
+			for (int epoch = 0; epoch < 20; epoch++) {
+				assertEquals(plain.trainBatch(XOR_INPUTS, XOR_SIGNALS), measured.trainBatch(XOR_INPUTS, XOR_SIGNALS), 0.0);
+				train(plain, epoch % 4);
+				train(measured, epoch % 4);
+			}
+			assertArrayEquals(plain.predict(XOR_INPUTS[1]), measured.predict(XOR_INPUTS[1]), 0.0);
+		}
+	}
+
+	@Test
+	public void measuresEveryLayer() {
+		NeuralNetwork nn = network(Precision.DOUBLE);
+		TrainingMetrics metrics = new TrainingMetrics(nn);
+		nn.setMetrics(metrics);
+		for (int i = 0; i < 10; i++) {
+			nn.trainBatch(XOR_INPUTS, XOR_SIGNALS);
+			train(nn, i % 4);
+		}
+		new ParallelTrainer(nn, 2).trainBatch(XOR_INPUTS, XOR_SIGNALS);
+		assertEquals(10 * 4 + 10 + 4, metrics.getNumSamples());
+
+		int last = nn.getLayers().length - 1;
+		long[] feedForward = metrics.getNanos(TrainingMetrics.Phase.FEED_FORWARD);
+		long[] errors = metrics.getNanos(TrainingMetrics.Phase.CALCULATE_ERRORS);
+		long[] gradients = metrics.getNanos(TrainingMetrics.Phase.CALCULATE_GRADIENTS);
+		long[] adjust = metrics.getNanos(TrainingMetrics.Phase.ADJUST_WEIGHTS);
+		assertEquals(0, feedForward[0]);
+		assertEquals(0, errors[0]);
+		assertEquals(0, gradients[last]);
+		assertEquals(0, adjust[last]);
+		double[] norms = metrics.getGradientNorms();
+		for (int l = 0; l < last; l++) {
+			assertTrue(feedForward[l + 1] > 0);
+			assertTrue(errors[l + 1] > 0);
+			assertTrue(gradients[l] > 0);
+			assertTrue(adjust[l] > 0);
+			assertTrue(norms[l] > 0);
+		}
+		assertTrue(Double.isNaN(norms[last]));
+
+		metrics.reset();
+		assertEquals(0, metrics.getNumSamples());
+		assertEquals(0, metrics.getNanos(TrainingMetrics.Phase.FEED_FORWARD)[1]);
+	}
+
+	@Test
+	public void reportsEpochsToListenersAndJmx() throws Exception {
+		NeuralNetwork nn = network(Precision.DOUBLE);
+		final TrainingMetrics metrics = new TrainingMetrics(nn);
+		nn.setMetrics(metrics);
+		final List<double[]> epochs = new ArrayList<double[]>();
+		metrics.addListener(new TrainingListener() {
+			public void epochCompleted(TrainingMetrics m) {
+				epochs.add(new double[] {m.getNumEpochs(), m.getTrainingError(), m.getValidationError(),
+						m.getSamplesPerSecond()});
+			}
+		});
+		Trainer trainer = new Trainer(nn);
+		trainer.setBatchSize(2);
+		trainer.setMaxEpochs(5);
+		trainer.train(XOR_INPUTS, XOR_SIGNALS);
+
+		assertEquals(5, epochs.size());
+		assertTrue(Double.isNaN(epochs.get(0)[2]));
+		for (int e = 0; e < epochs.size(); e++) {
+			assertEquals(e + 1, epochs.get(e)[0], 0.0);
+			assertTrue(epochs.get(e)[1] > 0);
+			assertTrue(epochs.get(e)[3] > 0);
+			if (e > 0) {
+				assertTrue(epochs.get(e)[2] > 0);
+			}
+		}
+
+		ObjectName name = metrics.register("xor");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(5, server.getAttribute(name, "NumEpochs"));
+			assertEquals(20L, server.getAttribute(name, "NumSamples"));
+			assertEquals(metrics.getAllocatedBytes(), server.getAttribute(name, "AllocatedBytes"));
+			double[] adjust = (double[]) server.getAttribute(name, "AdjustWeightsMillis");
+			assertEquals(nn.getLayers().length, adjust.length);
+			assertTrue(adjust[0] > 0);
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, server.getAttribute(name, "NumSamples"));
+		} finally {
+			metrics.unregister();
+		}
+	}
+
+	@Test
+	public void measuresAllocationPerEpoch() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		TrainingMetrics metrics = new TrainingMetrics(network(Precision.DOUBLE));
+		assertEquals(-1, metrics.getAllocatedBytes());
+		metrics.endEpoch(0.0);
+		byte[][] garbage = {new byte[1 << 20]};
+		metrics.endEpoch(0.0);
+		assertEquals(1 << 20, garbage[0].length);
+		assertTrue(metrics.getAllocatedBytes() >= 1 << 20);
+		assertTrue(metrics.getAllocatedBytes() < 2 << 20);
+	}
+
+	private static void train(NeuralNetwork nn, int sample) {
+		nn.setInputs(XOR_INPUTS[sample]);
+		nn.setTeacherSignals(XOR_SIGNALS[sample]);
+		nn.feedForward();
+		nn.backPropagate();
+	}
+
+	private static NeuralNetwork network(Precision precision) {
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = 2;
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 6;
+		config.bias = true;
+		config.learningRate = 0.5;
+		config.precision = precision;
+		config.optimizer = Optimizers.momentum(0.9);
+		config.seed = 9;
+		return new NeuralNetwork(config);
+	}
+
+}
@@ -0,0 +1,213 @@
+package nn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrainingStreamTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void csvStreamTrainsXor() throws IOException {
+		File file = folder.newFile("xor.csv");
+		FileWriter out = new FileWriter(file);
+		out.write("0,0,0\n0,1,1\n\n1,0,1\r\n1,1,0");
+		out.close();
+		CsvDataSource source = new CsvDataSource(file, 2, 1);
+		assertEquals(4, source.size());
+		double[] input = new double[2];
+		double[] teacherSignal = new double[1];
+		source.read(2, input, teacherSignal);
+		assertArrayEquals(new double[] {1, 0}, input, 0.0);
+		assertArrayEquals(new double[] {1}, teacherSignal, 0.0);
+
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.bias = true;
+		config.numCenterNodes = 20;
+		config.numInputNodes = 2;
+		config.numOutputNodes = 1;
+		config.learningRate = 0.8;
+		config.seed = 1;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		TrainingStream stream = new TrainingStream(source, 4, 2, 2);
+		try {
+			double error = Double.MAX_VALUE;
+			for (int epoch = 0; epoch < 100000 && error > 0.001; epoch++) {
+				error = stream.trainEpoch(nn);
+			}
+			assertTrue("error = " + error, error <= 0.001);
+		} finally {
+			stream.close();
+			source.close();
+		}
+	}
+
+	@Test
+	public void shuffledEpochsVisitEverySampleOnce() throws IOException {
+		File file = folder.newFile("counting.csv");
+		FileWriter out = new FileWriter(file);
+		for (int i = 0; i < 23; i++) {
+			out.write(i + "," + (i * 2) + "\n");
+		}
+		out.close();
+		CsvDataSource source = new CsvDataSource(file, 1, 1);
+		TrainingStream stream = new TrainingStream(source, 5, 3, 2);
+		stream.setShuffle(9);
+		try {
+			for (int epoch = 0; epoch < 3; epoch++) {
+				boolean[] seen = new boolean[23];
+				int numBatches = 0;
+				for (TrainingStream.Batch batch = stream.next(); batch != null; batch = stream.next()) {
+					for (int b = 0; b < batch.getSize(); b++) {
+						int i = (int) batch.getInputs()[b][0];
+						assertEquals(i * 2, batch.getTeacherSignals()[b][0], 0.0);
+						assertTrue(!seen[i]);
+						seen[i] = true;
+					}
+					numBatches++;
+					stream.release(batch);
+				}
+				assertEquals(5, numBatches);
+				for (boolean s : seen) {
+					assertTrue(s);
+				}
+			}
+		} finally {
+			stream.close();
+			source.close();
+		}
+	}
+
+	@Test
+	public void holdingEveryBatchIsAnError() throws IOException {
+		TrainingStream stream = new TrainingStream(new Counting(8, -1), 2, 2, 1);
+		try {
+			stream.next();
+			stream.next();
+			stream.next();
+			fail("truncated the epoch after 2 of 4 batches");
+		} catch (IllegalStateException e) {
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void readErrorsAbandonTheEpoch() throws IOException {
+		Counting source = new Counting(8, 5);
+		TrainingStream stream = new TrainingStream(source, 2, 2, 2);
+		try {
+			for (int attempt = 0; attempt < 3; attempt++) {
+				int numBatches = 0;
+				try {
+					for (TrainingStream.Batch batch = stream.next(); batch != null; batch = stream.next()) {
+						numBatches++;
+						stream.release(batch);
+					}
+					fail("read past the broken sample");
+				} catch (IOException e) {
+					assertEquals(2, numBatches);
+				}
+			}
+			// 直った後は最初から: once the source recovers, a whole epoch starts from the first batch
+			source.broken = -1;
+			int numBatches = 0;
+			for (TrainingStream.Batch batch = stream.next(); batch != null; batch = stream.next()) {
+				assertEquals(numBatches * 2, batch.getInputs()[0][0], 0.0);
+				numBatches++;
+				stream.release(batch);
+			}
+			assertEquals(4, numBatches);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void imageStreamTrainsChess() throws Exception {
+		File directory = new File(Thread.currentThread().getContextClassLoader().getResource("nn/chess").toURI());
+		final String[] pieces = {"king", "queen", "rook", "knight", "bishop", "pawn"};
+		ImageDataSource source = new ImageDataSource(directory, 32 * 32, 8, new Function<File, double[]>() {
+			public double[] apply(File file) {
+				String name = file.getName().replace("_messy", "").replace(".png", "");
+				double[] signal = new double[8];
+				signal[name.startsWith("black") ? 0 : 1] = 1;
+				for (int p = 0; p < pieces.length; p++) {
+					if (name.endsWith("_" + pieces[p])) {
+						signal[2 + p] = 1;
+					}
+				}
+				return signal;
+			}
+		});
+		assertEquals(14, source.size());
+
+		NeuralNetworkConfig config = new NeuralNetworkConfig();
+		config.numInputNodes = source.getNumInputs();
+		config.numCenterLayers = 2;
+		config.numCenterNodes = 15;
+		config.numOutputNodes = source.getNumOutputs();
+		config.learningRate = 0.5;
+		config.seed = 7;
+		NeuralNetwork nn = new NeuralNetwork(config);
+		TrainingStream stream = new TrainingStream(source, 7, 2, 2);
+		stream.setShuffle(3);
+		try {
+			double error = Double.MAX_VALUE;
+			for (int epoch = 0; epoch < 5000 && error > 0.01; epoch++) {
+				error = stream.trainEpoch(nn);
+			}
+			assertTrue("error = " + error, error <= 0.01);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/*
+	 * 番号を返すデータ: sample i has input i, and reading sample broken fails
+	 */
+	private static class Counting implements DataSource {
+
+		private final int size;
+
+		volatile int broken;
+
+		Counting(int size, int broken) {
+			this.size = size;
+			this.broken = broken;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getNumInputs() {
+			return 1;
+		}
+
+		public int getNumOutputs() {
+			return 1;
+		}
+
+		public void read(int index, double[] input, double[] teacherSignal) throws IOException {
+			if (index == broken) {
+				throw new IOException("broken sample " + index);
+			}
+			input[0] = index;
+		}
+
+	}
+
+}